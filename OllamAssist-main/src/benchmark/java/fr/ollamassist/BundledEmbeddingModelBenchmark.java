@@ -0,0 +1,107 @@
+package fr.ollamassist;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.bgesmallenv15q.BgeSmallEnV15QuantizedEmbeddingModel;
+import fr.baretto.ollamassist.chat.rag.BundledEmbeddingModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the indexing throughput of the bundled embedding model, in segments per second, for several ONNX Runtime
+ * configurations. The corpus is made of the plugin sources, split into segments of {@link #LINES_PER_SEGMENT} lines,
+ * and embedded in calls of {@link #SEGMENTS_PER_CALL} segments, as the indexing pipeline does. The library runner
+ * is measured first as the baseline.
+ */
+class BundledEmbeddingModelBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(BundledEmbeddingModelBenchmark.class);
+    private static final Path SOURCES = Path.of("src/main/java");
+    private static final int LINES_PER_SEGMENT = 30;
+    private static final int SEGMENTS = 1_024;
+    private static final int SEGMENTS_PER_CALL = 32;
+    private static final int WARMUP_CALLS = 4;
+    private static final int[] INTRA_OP_THREADS = {0, 1, 2, 4};
+    private static final int[] BATCH_SIZES = {1, 8, 32};
+    private static final int[] MAX_SEQUENCE_LENGTHS = {256, 512};
+
+    private final List<TextSegment> corpus;
+    private final int executorThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    BundledEmbeddingModelBenchmark() throws IOException {
+        corpus = readCorpus();
+    }
+
+    void benchmark_segments_per_second() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(executorThreads);
+        try {
+            logger.info("{} segments of {} lines, {} executor threads", corpus.size(), LINES_PER_SEGMENT, executorThreads);
+            benchmark("library runner", new BgeSmallEnV15QuantizedEmbeddingModel(executor));
+            for (int maxSequenceLength : MAX_SEQUENCE_LENGTHS) {
+                for (int batchSize : BATCH_SIZES) {
+                    for (int intraOpThreads : INTRA_OP_THREADS) {
+                        BundledEmbeddingModel.Options options =
+                                new BundledEmbeddingModel.Options(intraOpThreads, 1, maxSequenceLength, batchSize);
+                        benchmark(options.toString(), BundledEmbeddingModel.load(options, executor));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void benchmark(String configuration, EmbeddingModel model) {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            model.embedAll(corpus.subList(i * SEGMENTS_PER_CALL, (i + 1) * SEGMENTS_PER_CALL));
+        }
+        long start = System.nanoTime();
+        for (int from = 0; from < corpus.size(); from += SEGMENTS_PER_CALL) {
+            model.embedAll(corpus.subList(from, Math.min(corpus.size(), from + SEGMENTS_PER_CALL)));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("{}: {} segments/s", configuration, Math.round(corpus.size() / seconds));
+    }
+
+    private static List<TextSegment> readCorpus() throws IOException {
+        List<TextSegment> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(SOURCES)) {
+            files.filter(file -> file.toString().endsWith(".java"))
+                    .sorted()
+                    .forEach(file -> split(file, segments));
+        }
+        if (segments.size() < SEGMENTS) {
+            throw new IllegalStateException("Only " + segments.size() + " segments found under " + SOURCES.toAbsolutePath());
+        }
+        return segments.subList(0, SEGMENTS);
+    }
+
+    private static void split(Path file, List<TextSegment> segments) {
+        try {
+            List<String> lines = Files.readAllLines(file);
+            for (int from = 0; from < lines.size(); from += LINES_PER_SEGMENT) {
+                String text = String.join("\n", lines.subList(from, Math.min(lines.size(), from + LINES_PER_SEGMENT)));
+                if (!text.isBlank()) {
+                    segments.add(TextSegment.from(text));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        BundledEmbeddingModelBenchmark benchmark = new BundledEmbeddingModelBenchmark();
+        benchmark.benchmark_segments_per_second();
+    }
+}
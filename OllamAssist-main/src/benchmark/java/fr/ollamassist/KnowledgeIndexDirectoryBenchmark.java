@@ -0,0 +1,129 @@
+package fr.ollamassist;
+
+import fr.baretto.ollamassist.chat.rag.IndexDirectoryStrategy;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares knowledge index query latency for each {@link IndexDirectoryStrategy}.
+ * Indexes the same random corpus with every strategy, then replays the same queries and reports p50/p95/p99.
+ */
+class KnowledgeIndexDirectoryBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeIndexDirectoryBenchmark.class);
+    private static final int DOCUMENTS = 20_000;
+    private static final int DIMENSIONS = 384;
+    private static final int QUERIES = 1_000;
+    private static final int WARMUP_QUERIES = 200;
+    private static final int MAX_RESULTS = 5;
+    private static final String VECTOR = "vector";
+    private static final String EMBEDDED = "embedded";
+
+    private final float[][] corpus;
+    private final float[][] queries;
+
+    KnowledgeIndexDirectoryBenchmark() {
+        Random random = new Random(42);
+        corpus = randomVectors(random, DOCUMENTS);
+        queries = randomVectors(random, QUERIES);
+    }
+
+    void benchmark_query_latency() throws IOException {
+        for (IndexDirectoryStrategy strategy : IndexDirectoryStrategy.values()) {
+            Path indexPath = Files.createTempDirectory("knowledge-index-" + strategy.name().toLowerCase());
+            try {
+                benchmark(strategy, indexPath);
+            } finally {
+                deleteRecursively(indexPath);
+            }
+        }
+    }
+
+    private void benchmark(IndexDirectoryStrategy strategy, Path indexPath) throws IOException {
+        try (Directory directory = strategy.open(indexPath)) {
+            long indexingStart = System.nanoTime();
+            IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+            strategy.configure(config);
+            try (IndexWriter writer = new IndexWriter(directory, config)) {
+                FieldType vectorType = KnnFloatVectorField.createFieldType(DIMENSIONS, VectorSimilarityFunction.COSINE);
+                for (int i = 0; i < corpus.length; i++) {
+                    Document doc = new Document();
+                    doc.add(new StoredField(EMBEDDED, "segment " + i));
+                    doc.add(new KnnFloatVectorField(VECTOR, corpus[i], vectorType));
+                    writer.addDocument(doc);
+                }
+                writer.commit();
+            }
+            long indexingMillis = (System.nanoTime() - indexingStart) / 1_000_000;
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                for (int i = 0; i < WARMUP_QUERIES; i++) {
+                    search(searcher, queries[i % queries.length]);
+                }
+
+                long[] latencies = new long[queries.length];
+                for (int i = 0; i < queries.length; i++) {
+                    long start = System.nanoTime();
+                    search(searcher, queries[i]);
+                    latencies[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(latencies);
+                logger.info("{}: indexed {} vectors in {} ms, query latency p50={} us, p95={} us, p99={} us",
+                        strategy, DOCUMENTS, indexingMillis,
+                        percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99));
+            }
+        }
+    }
+
+    private void search(IndexSearcher searcher, float[] query) throws IOException {
+        TopDocs topDocs = searcher.search(KnnFloatVectorField.newVectorQuery(VECTOR, query, MAX_RESULTS), MAX_RESULTS);
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            searcher.storedFields().document(scoreDoc.doc).get(EMBEDDED);
+        }
+    }
+
+    private static long percentile(long[] sortedNanos, double percentile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.round(percentile * (sortedNanos.length - 1)));
+        return sortedNanos[index] / 1_000;
+    }
+
+    private static float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (float[] vector : vectors) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        KnowledgeIndexDirectoryBenchmark benchmark = new KnowledgeIndexDirectoryBenchmark();
+        benchmark.benchmark_query_latency();
+    }
+}
@@ -5,7 +5,7 @@ import dev.langchain4j.model.ollama.OllamaChatModel;
 import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
-import fr.baretto.ollamassist.chat.rag.DocumentIngestFactory;
+import fr.baretto.ollamassist.chat.rag.EmbeddingService;
 import fr.baretto.ollamassist.chat.service.Assistant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,7 +45,7 @@ class LLMBenchmark {
                 .chatMemory(MessageWindowChatMemory.withMaxMessages(15))
                 .contentRetriever(EmbeddingStoreContentRetriever
                         .builder()
-                        .embeddingModel(DocumentIngestFactory.createEmbeddingModel())
+                        .embeddingModel(EmbeddingService.getInstance().model())
                         .dynamicMaxResults(query -> 3)
                         .dynamicMinScore(query -> 0.85)
                         //  .embeddingStore(embeddingStore)
@@ -0,0 +1,100 @@
+package fr.ollamassist;
+
+import fr.baretto.ollamassist.chat.rag.PathGlobMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the per-path cost of the sources filter: a loop of {@link String#contains} over every pattern, as the
+ * filter used to work, against the patterns compiled into a single {@link PathGlobMatcher}.
+ * Replays the same synthetic project paths on both, with the usual handful of sources and with many module
+ * folders, and reports the throughput and how many paths matched.
+ */
+class PathMatcherBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(PathMatcherBenchmark.class);
+    private static final int PATHS = 100_000;
+    private static final int ROUNDS = 10;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final String[] DIRECTORIES = {"src/main/java", "src/test/java", "docs", "build/generated",
+            "node_modules/lib", "scripts", "config", "src/main/resources"};
+    private static final String[] EXTENSIONS = {".java", ".kt", ".md", ".xml", ".json", ".js", ".properties", ".txt"};
+    private static final int MODULES = 64;
+    private static final List<String> SOURCES = List.of("src/", "docs/", "pom.xml", "build.gradle", ".md",
+            "scripts/", "config/", "README", "CHANGELOG", ".properties", "Dockerfile", ".yml");
+
+    private final String[] paths;
+
+    PathMatcherBenchmark() {
+        Random random = new Random(42);
+        paths = new String[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            StringBuilder path = new StringBuilder("/home/dev/workspace/project/");
+            path.append(DIRECTORIES[random.nextInt(DIRECTORIES.length)]);
+            int depth = 1 + random.nextInt(5);
+            for (int d = 0; d < depth; d++) {
+                path.append("/package").append(random.nextInt(50));
+            }
+            path.append("/File").append(i).append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            paths[i] = path.toString();
+        }
+    }
+
+    void benchmark_matching() {
+        List<String> modules = new ArrayList<>();
+        for (int i = 0; i < MODULES; i++) {
+            modules.add("package" + i + "/");
+        }
+        for (List<String> patterns : List.of(SOURCES, modules)) {
+            PathGlobMatcher compiled = PathGlobMatcher.compile(patterns);
+            run("contains loop", patterns.size(), path -> containsAny(path, patterns));
+            run("compiled matcher", patterns.size(), compiled::matches);
+        }
+    }
+
+    private void run(String name, int patterns, Matcher matcher) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            matchAll(matcher);
+        }
+        long start = System.nanoTime();
+        int matched = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            matched = matchAll(matcher);
+        }
+        long nanos = System.nanoTime() - start;
+        logger.info("{} with {} patterns: {} of {} paths matched, {} ns/path, {} paths/ms",
+                name, patterns, matched, PATHS, nanos / ((long) PATHS * ROUNDS), (long) PATHS * ROUNDS * 1_000_000 / nanos);
+    }
+
+    private int matchAll(Matcher matcher) {
+        int matched = 0;
+        for (String path : paths) {
+            if (matcher.matches(path)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    private static boolean containsAny(String path, List<String> patterns) {
+        for (String pattern : patterns) {
+            if (path.contains(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface Matcher {
+        boolean matches(String path);
+    }
+
+    public static void main(String[] args) {
+        PathMatcherBenchmark benchmark = new PathMatcherBenchmark();
+        benchmark.benchmark_matching();
+    }
+}
@@ -0,0 +1,239 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.bgesmallenv15q.BgeSmallEnV15QuantizedEmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+/**
+ * The bundled bge-small-en-v1.5 model, run on ONNX Runtime with tunable threads, truncation and batching.
+ * <p>
+ * The library model embeds each segment in its own inference with the runtime default threading, which
+ * oversubscribes the cores as soon as several segments are embedded in parallel. Here segments are tokenized,
+ * sorted by length and embedded in batches padded to their longest segment only, so short segments do not pay for
+ * the padding of long ones. Batches run in parallel on the executor, each inference using
+ * {@link Options#intraOpThreads()} threads.
+ * <p>
+ * Embeddings are the L2-normalized state of the {@code [CLS]} token, as with
+ * {@link BgeSmallEnV15QuantizedEmbeddingModel}, except that segments longer than {@link Options#maxSequenceLength()}
+ * tokens are truncated instead of averaged over several windows. Vectors of both runners therefore differ for long
+ * segments and are told apart by {@link #modelId(String, Options)}.
+ */
+public class BundledEmbeddingModel implements EmbeddingModel {
+
+    static final String MODEL_RESOURCE = "bge-small-en-v15-q.onnx";
+    static final String TOKENIZER_RESOURCE = "bge-small-en-v15-q-tokenizer.json";
+    private static final int DIMENSION = 384;
+    private static final String RUNNER_ID_FORMAT = "%s@ort-%d";
+    private static final String LIBRARY_RUNNER_ID_FORMAT = "%s@library";
+    private static final String INPUT_IDS = "input_ids";
+    private static final String ATTENTION_MASK = "attention_mask";
+    private static final String TOKEN_TYPE_IDS = "token_type_ids";
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final boolean tokenTypeIdsInput;
+    private final WordPieceTokenizer tokenizer;
+    private final Options options;
+    private final Executor executor;
+
+    private BundledEmbeddingModel(byte[] model, WordPieceTokenizer tokenizer, Options options, Executor executor)
+            throws OrtException {
+        this.environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions()) {
+            sessionOptions.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            sessionOptions.setIntraOpNumThreads(options.intraOpThreads());
+            sessionOptions.setInterOpNumThreads(options.interOpThreads());
+            sessionOptions.setExecutionMode(options.interOpThreads() > 1
+                    ? OrtSession.SessionOptions.ExecutionMode.PARALLEL
+                    : OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL);
+            this.session = environment.createSession(model, sessionOptions);
+        }
+        this.tokenTypeIdsInput = session.getInputNames().contains(TOKEN_TYPE_IDS);
+        this.tokenizer = tokenizer;
+        this.options = options;
+        this.executor = executor;
+    }
+
+    /**
+     * Loads the model and tokenizer shipped with {@link BgeSmallEnV15QuantizedEmbeddingModel}.
+     */
+    public static BundledEmbeddingModel load(Options options, Executor executor) throws IOException {
+        ClassLoader classLoader = BgeSmallEnV15QuantizedEmbeddingModel.class.getClassLoader();
+        byte[] model;
+        WordPieceTokenizer tokenizer;
+        try (InputStream modelStream = resource(classLoader, MODEL_RESOURCE);
+             InputStream tokenizerStream = resource(classLoader, TOKENIZER_RESOURCE)) {
+            model = modelStream.readAllBytes();
+            tokenizer = WordPieceTokenizer.fromJson(tokenizerStream);
+        }
+        try {
+            return new BundledEmbeddingModel(model, tokenizer, options, executor);
+        } catch (OrtException e) {
+            throw new IOException("Unable to load the bundled embedding model", e);
+        }
+    }
+
+    /**
+     * @return what identifies the vectors of the model run here with {@code options}, for the index fingerprint and
+     * the embedding caches
+     */
+    public static String modelId(String modelName, Options options) {
+        return String.format(RUNNER_ID_FORMAT, modelName, options.maxSequenceLength());
+    }
+
+    /**
+     * @return what identifies the vectors of the model run by {@link BgeSmallEnV15QuantizedEmbeddingModel}
+     */
+    public static String libraryModelId(String modelName) {
+        return String.format(LIBRARY_RUNNER_ID_FORMAT, modelName);
+    }
+
+    Options options() {
+        return options;
+    }
+
+    private static InputStream resource(ClassLoader classLoader, String name) throws IOException {
+        InputStream stream = classLoader.getResourceAsStream(name);
+        if (stream == null) {
+            throw new IOException("Resource " + name + " not found");
+        }
+        return stream;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        List<long[]> tokenIds = textSegments.stream()
+                .map(segment -> tokenizer.encode(segment.text(), options.maxSequenceLength()))
+                .toList();
+        Embedding[] embeddings = new Embedding[tokenIds.size()];
+        List<int[]> batches = batches(tokenIds, options.batchSize());
+        if (batches.size() == 1) {
+            embedBatch(batches.get(0), tokenIds, embeddings);
+        } else {
+            CompletableFuture<?>[] futures = batches.stream()
+                    .map(batch -> CompletableFuture.runAsync(() -> embedBatch(batch, tokenIds, embeddings), executor))
+                    .toArray(CompletableFuture[]::new);
+            try {
+                CompletableFuture.allOf(futures).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        int tokens = tokenIds.stream().mapToInt(ids -> ids.length).sum();
+        return Response.from(Arrays.asList(embeddings), new TokenUsage(tokens));
+    }
+
+    @Override
+    public int dimension() {
+        return DIMENSION;
+    }
+
+    /**
+     * Groups segments of similar lengths, so each batch is padded to little more than its own segments.
+     *
+     * @return the indexes of the segments of each batch, from the shortest segments to the longest
+     */
+    static List<int[]> batches(List<long[]> tokenIds, int batchSize) {
+        int[] byLength = IntStream.range(0, tokenIds.size())
+                .boxed()
+                .sorted(Comparator.comparingInt(index -> tokenIds.get(index).length))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        List<int[]> batches = new ArrayList<>();
+        for (int start = 0; start < byLength.length; start += batchSize) {
+            batches.add(Arrays.copyOfRange(byLength, start, Math.min(byLength.length, start + batchSize)));
+        }
+        return batches;
+    }
+
+    private void embedBatch(int[] batch, List<long[]> tokenIds, Embedding[] embeddings) {
+        int length = Arrays.stream(batch).map(index -> tokenIds.get(index).length).max().orElse(0);
+        long[] ids = new long[batch.length * length];
+        long[] attentionMask = new long[batch.length * length];
+        Arrays.fill(ids, tokenizer.padId());
+        for (int row = 0; row < batch.length; row++) {
+            long[] segmentIds = tokenIds.get(batch[row]);
+            System.arraycopy(segmentIds, 0, ids, row * length, segmentIds.length);
+            Arrays.fill(attentionMask, row * length, row * length + segmentIds.length, 1L);
+        }
+        long[] shape = {batch.length, length};
+        try (OnnxTensor idsTensor = OnnxTensor.createTensor(environment, LongBuffer.wrap(ids), shape);
+             OnnxTensor maskTensor = OnnxTensor.createTensor(environment, LongBuffer.wrap(attentionMask), shape);
+             OnnxTensor typesTensor = tokenTypeIdsInput
+                     ? OnnxTensor.createTensor(environment, LongBuffer.wrap(new long[ids.length]), shape)
+                     : null) {
+            Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put(INPUT_IDS, idsTensor);
+            inputs.put(ATTENTION_MASK, maskTensor);
+            if (typesTensor != null) {
+                inputs.put(TOKEN_TYPE_IDS, typesTensor);
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][][] hiddenStates = (float[][][]) result.get(0).getValue();
+                for (int row = 0; row < batch.length; row++) {
+                    embeddings[batch[row]] = Embedding.from(normalize(hiddenStates[row][0]));
+                }
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("Inference of the bundled embedding model failed", e);
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double sumOfSquares = 0;
+        for (float value : vector) {
+            sumOfSquares += value * value;
+        }
+        float norm = (float) Math.sqrt(sumOfSquares);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * @param intraOpThreads    threads of each inference, 0 for the ONNX Runtime default of one per physical core
+     * @param interOpThreads    threads running independent nodes of the graph in parallel, 1 to run them in sequence
+     * @param maxSequenceLength tokens kept per segment, {@code [CLS]} and {@code [SEP]} included, at most 512
+     * @param batchSize         segments per inference
+     */
+    public record Options(int intraOpThreads, int interOpThreads, int maxSequenceLength, int batchSize) {
+
+        public static final int MAX_SEQUENCE_LENGTH = 512;
+        private static final int MIN_SEQUENCE_LENGTH = 8;
+
+        public Options {
+            intraOpThreads = Math.max(0, intraOpThreads);
+            interOpThreads = Math.max(1, interOpThreads);
+            maxSequenceLength = Math.clamp(maxSequenceLength, MIN_SEQUENCE_LENGTH, MAX_SEQUENCE_LENGTH);
+            batchSize = Math.max(1, batchSize);
+        }
+
+        public static Options defaults() {
+            return new Options(1, 1, MAX_SEQUENCE_LENGTH, 8);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EmbeddingModel} that only sends to the underlying model the segments missing from the {@link EmbeddingCache}.
+ */
+public class CachedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCache cache;
+    private final String modelName;
+
+    public CachedEmbeddingModel(EmbeddingModel delegate, EmbeddingCache cache, String modelName) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.modelName = modelName;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        Embedding[] embeddings = new Embedding[segments.size()];
+        List<TextSegment> misses = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            float[] cached = cache.get(modelName, segments.get(i).text());
+            if (cached != null) {
+                embeddings[i] = Embedding.from(cached);
+            } else {
+                misses.add(segments.get(i));
+                missIndexes.add(i);
+            }
+        }
+
+        Map<String, Object> metadata = Map.of();
+        if (!misses.isEmpty()) {
+            Response<List<Embedding>> response = delegate.embedAll(misses);
+            if (response.metadata() != null) {
+                // tells callers which model produced the vectors, see EmbeddingRouter#producedBy
+                metadata = response.metadata();
+            }
+            boolean cacheable = EmbeddingRouter.producedBy(response, modelName);
+            List<Embedding> computed = response.content();
+            for (int i = 0; i < computed.size(); i++) {
+                Embedding embedding = computed.get(i);
+                embeddings[missIndexes.get(i)] = embedding;
+                if (cacheable) {
+                    cache.put(modelName, misses.get(i).text(), embedding.vector());
+                }
+            }
+        }
+        return Response.from(Arrays.asList(embeddings), null, null, metadata);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+}
@@ -0,0 +1,61 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+import java.util.List;
+
+/**
+ * Analyzer of the lexical field of the knowledge index.
+ * <p>
+ * Identifiers are indexed both whole and split into their words, so that {@code calculateDynamicThreshold},
+ * {@code calculate_dynamic_threshold} and "dynamic threshold" all match each other.
+ */
+public class CodeAnalyzer extends Analyzer {
+
+    /**
+     * Words of English questions that say nothing about the code asked for. They are only dropped from queries,
+     * since code uses some of them in identifiers.
+     */
+    private static final CharArraySet QUERY_STOP_WORDS = CharArraySet.unmodifiableSet(new CharArraySet(List.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "can", "do", "does", "for", "from", "how", "i", "in",
+            "is", "it", "me", "my", "of", "on", "or", "the", "that", "this", "to", "what", "when", "where", "which",
+            "who", "why", "with"), false));
+
+    private final CharArraySet stopWords;
+
+    public CodeAnalyzer() {
+        this(CharArraySet.EMPTY_SET);
+    }
+
+    private CodeAnalyzer(CharArraySet stopWords) {
+        this.stopWords = stopWords;
+    }
+
+    /**
+     * @return the analyzer of query texts, which also drops the words of the question itself
+     */
+    public static CodeAnalyzer forQueries() {
+        return new CodeAnalyzer(QUERY_STOP_WORDS);
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        StandardTokenizer tokenizer = new StandardTokenizer();
+        TokenStream stream = new CodeIdentifierFilter(tokenizer);
+        stream = new LowerCaseFilter(stream);
+        if (!stopWords.isEmpty()) {
+            stream = new StopFilter(stream, stopWords);
+        }
+        return new TokenStreamComponents(tokenizer, stream);
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+}
@@ -0,0 +1,143 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.intellij.ide.structureView.StructureViewBuilder;
+import com.intellij.ide.structureView.StructureViewModel;
+import com.intellij.ide.structureView.StructureViewTreeElement;
+import com.intellij.ide.structureView.TreeBasedStructureViewBuilder;
+import com.intellij.lang.LanguageStructureViewBuilder;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.segment.TextSegment;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Splits files on their declarations: the structure view of the file's language gives the top-level declarations
+ * and their members, the brace/indentation heuristic of {@link CodeChunker} covers the languages the IDE does not
+ * know, indexing before the project is smart, and documents loaded without a project.
+ */
+@Slf4j
+public class CodeAwareDocumentSplitter implements DocumentSplitter {
+
+    private static final int MEMBER_DEPTH = 2;
+
+    private final Project project;
+    private final int maxTokens;
+
+    /**
+     * @param project the project used to resolve PSI files, or null to only use the heuristic
+     */
+    public CodeAwareDocumentSplitter(Project project, int maxTokens) {
+        this.project = project;
+        this.maxTokens = Math.max(1, maxTokens);
+    }
+
+    int maxTokens() {
+        return maxTokens;
+    }
+
+    @Override
+    public List<TextSegment> split(Document document) {
+        String text = document.text();
+        List<String> lines = CodeChunker.lines(text);
+        SortedSet<Integer> cutLines = psiCutLines(document, text);
+        if (cutLines == null) {
+            cutLines = CodeChunker.heuristicCutLines(lines);
+        }
+        return CodeChunker.split(document, lines, cutLines, maxTokens);
+    }
+
+    private SortedSet<Integer> psiCutLines(Document document, String text) {
+        if (project == null || project.isDisposed() || DumbService.isDumb(project)) {
+            return null;
+        }
+        String filePath = SegmentFields.filePath(document.metadata());
+        VirtualFile file = filePath == null ? null : LocalFileSystem.getInstance().findFileByPath(filePath);
+        if (file == null) {
+            return null;
+        }
+        try {
+            // building the PSI of a large file takes a while: a write action restarts it instead of waiting
+            return ReadAction.nonBlocking(() -> structureCutLines(file, text)).executeSynchronously();
+        } catch (Exception e) {
+            log.debug("Structure view unavailable for {}, using the heuristic splitter", filePath, e);
+            return null;
+        }
+    }
+
+    private SortedSet<Integer> structureCutLines(VirtualFile file, String text) {
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+        // offsets are only meaningful when the PSI holds the text that was loaded from disk
+        if (psiFile == null || !psiFile.textMatches(text)) {
+            return null;
+        }
+        StructureViewBuilder builder = LanguageStructureViewBuilder.getInstance().getStructureViewBuilder(psiFile);
+        if (!(builder instanceof TreeBasedStructureViewBuilder treeBuilder)) {
+            return null;
+        }
+        StructureViewModel model = treeBuilder.createStructureViewModel(null);
+        try {
+            SortedSet<Integer> cutLines = new TreeSet<>();
+            cutLines.add(0);
+            collectCutLines(model.getRoot(), 1, lineStarts(text), text.length(), cutLines);
+            return cutLines.size() > 1 ? cutLines : null;
+        } finally {
+            model.dispose();
+        }
+    }
+
+    /**
+     * Cuts before and after each declaration, so code between declarations does not stick to the previous one.
+     */
+    private static void collectCutLines(StructureViewTreeElement parent, int depth, int[] lineStarts, int textLength,
+                                        SortedSet<Integer> cutLines) {
+        for (var child : parent.getChildren()) {
+            if (!(child instanceof StructureViewTreeElement element) || !(element.getValue() instanceof PsiElement psi)) {
+                continue;
+            }
+            TextRange range = psi.getTextRange();
+            if (range == null || range.getEndOffset() > textLength) {
+                continue;
+            }
+            cutLines.add(lineOf(lineStarts, range.getStartOffset()));
+            cutLines.add(lineOf(lineStarts, range.getEndOffset()) + 1);
+            if (depth < MEMBER_DEPTH) {
+                collectCutLines(element, depth + 1, lineStarts, textLength, cutLines);
+            }
+        }
+    }
+
+    /**
+     * Line start offsets, with the same line terminators as {@link String#lines()}.
+     */
+    private static int[] lineStarts(String text) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 >= text.length() || text.charAt(i + 1) != '\n'))) {
+                starts.add(i + 1);
+            }
+        }
+        return starts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int lineOf(int[] lineStarts, int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+}
@@ -0,0 +1,238 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Cuts source files into segments that follow their declarations.
+ * <p>
+ * Cut points are line numbers where a class header, a method or a top-level block starts; they come from the
+ * PSI when the IDE understands the language, otherwise from {@link #heuristicCutLines(List)}. Consecutive
+ * declarations are packed together while they fit the token budget, and only a declaration larger than the budget
+ * is split inside, on line boundaries.
+ */
+final class CodeChunker {
+
+    static final String START_LINE = "start_line";
+
+    private CodeChunker() {
+    }
+
+    static List<String> lines(String text) {
+        return text.lines().toList();
+    }
+
+    /**
+     * Builds the segments of a document from its cut lines, numbering them in {@link SegmentFields#SEGMENT_INDEX}.
+     */
+    static List<TextSegment> split(Document document, List<String> lines, SortedSet<Integer> cutLines, int maxTokens) {
+        List<int[]> ranges = pack(lines, cutLines, maxTokens);
+        List<TextSegment> segments = new ArrayList<>(ranges.size());
+        for (int[] range : ranges) {
+            String text = String.join("\n", lines.subList(range[0], range[1])).strip();
+            if (text.isEmpty()) {
+                continue;
+            }
+            Metadata metadata = document.metadata().copy()
+                    .put(SegmentFields.SEGMENT_INDEX, segments.size())
+                    .put(START_LINE, range[0] + 1);
+            segments.add(TextSegment.from(text, metadata));
+        }
+        return segments;
+    }
+
+    /**
+     * @return the {@code [start, end)} line ranges of the segments.
+     */
+    static List<int[]> pack(List<String> lines, SortedSet<Integer> cutLines, int maxTokens) {
+        List<int[]> ranges = new ArrayList<>();
+        if (lines.isEmpty()) {
+            return ranges;
+        }
+        int start = 0;
+        int tokens = 0;
+        List<Integer> unitStarts = new ArrayList<>(cutLines.subSet(1, lines.size()));
+        unitStarts.add(lines.size());
+        int unitStart = 0;
+        for (int unitEnd : unitStarts) {
+            int unitTokens = tokens(lines, unitStart, unitEnd);
+            if (unitTokens > maxTokens) {
+                if (unitStart > start) {
+                    ranges.add(new int[]{start, unitStart});
+                }
+                splitOversized(lines, unitStart, unitEnd, maxTokens, ranges);
+                start = unitEnd;
+                tokens = 0;
+            } else if (tokens + unitTokens > maxTokens) {
+                ranges.add(new int[]{start, unitStart});
+                start = unitStart;
+                tokens = unitTokens;
+            } else {
+                tokens += unitTokens;
+            }
+            unitStart = unitEnd;
+        }
+        if (start < lines.size()) {
+            ranges.add(new int[]{start, lines.size()});
+        }
+        return ranges;
+    }
+
+    private static void splitOversized(List<String> lines, int from, int to, int maxTokens, List<int[]> ranges) {
+        int start = from;
+        int tokens = 0;
+        for (int line = from; line < to; line++) {
+            int lineTokens = tokens(lines, line, line + 1);
+            if (tokens > 0 && tokens + lineTokens > maxTokens) {
+                ranges.add(new int[]{start, line});
+                start = line;
+                tokens = 0;
+            }
+            tokens += lineTokens;
+        }
+        ranges.add(new int[]{start, to});
+    }
+
+    private static int tokens(List<String> lines, int from, int to) {
+        int chars = 0;
+        for (int line = from; line < to; line++) {
+            chars += lines.get(line).strip().length() + 1;
+        }
+        return EmbeddingBatchSizer.estimateTokens(chars);
+    }
+
+    /**
+     * Finds declaration starts without understanding the language. Brace languages cut where a statement or block
+     * ends at the top level or directly inside a type; other files cut on lines that go back to the top level or to
+     * the first indentation level after a blank line. Comments, annotations and decorators stay with the
+     * declaration that follows them.
+     */
+    static SortedSet<Integer> heuristicCutLines(List<String> lines) {
+        return usesBraces(lines) ? braceCutLines(lines) : indentCutLines(lines);
+    }
+
+    private static boolean usesBraces(List<String> lines) {
+        int opening = 0;
+        for (String line : lines) {
+            if (line.stripTrailing().endsWith("{")) {
+                opening++;
+            }
+        }
+        return opening >= 2 || (opening == 1 && lines.size() < 20);
+    }
+
+    private static SortedSet<Integer> braceCutLines(List<String> lines) {
+        SortedSet<Integer> cuts = new TreeSet<>();
+        cuts.add(0);
+        BraceScanner scanner = new BraceScanner();
+        String previous = "";
+        boolean blankBefore = false;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            int depth = scanner.depth;
+            boolean inComment = scanner.inBlockComment;
+            scanner.scan(lines.get(i));
+            if (line.isEmpty()) {
+                blankBefore = true;
+                continue;
+            }
+            boolean endsStatement = previous.endsWith("{") || previous.endsWith("}") || previous.endsWith(";");
+            if (depth <= 1 && !inComment && !line.startsWith("}") && !line.startsWith(")")
+                    && (endsStatement || blankBefore)) {
+                cuts.add(i);
+            }
+            previous = line;
+            blankBefore = false;
+        }
+        return cuts;
+    }
+
+    private static SortedSet<Integer> indentCutLines(List<String> lines) {
+        SortedSet<Integer> cuts = new TreeSet<>();
+        cuts.add(0);
+        int memberIndent = Integer.MAX_VALUE;
+        for (String line : lines) {
+            int indent = indent(line);
+            if (!line.isBlank() && indent > 0) {
+                memberIndent = Math.min(memberIndent, indent);
+            }
+        }
+        String previous = null;
+        int previousIndent = 0;
+        boolean blankBefore = false;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank()) {
+                blankBefore = true;
+                continue;
+            }
+            int indent = indent(line);
+            boolean attached = previous != null && previousIndent == indent && isPrefixLine(previous);
+            if (!attached && (indent == 0 || (indent <= memberIndent && (blankBefore || previousIndent > indent)))) {
+                cuts.add(i);
+            }
+            previous = line.strip();
+            previousIndent = indent;
+            blankBefore = false;
+        }
+        return cuts;
+    }
+
+    private static boolean isPrefixLine(String line) {
+        return line.startsWith("@") || line.startsWith("#") || line.startsWith("//");
+    }
+
+    private static int indent(String line) {
+        int indent = 0;
+        while (indent < line.length() && Character.isWhitespace(line.charAt(indent))) {
+            indent++;
+        }
+        return indent;
+    }
+
+    /**
+     * Tracks brace depth across lines, ignoring braces in string literals and comments.
+     */
+    private static final class BraceScanner {
+
+        private int depth;
+        private boolean inBlockComment;
+
+        void scan(String line) {
+            char quote = 0;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                char next = i + 1 < line.length() ? line.charAt(i + 1) : 0;
+                if (inBlockComment) {
+                    if (c == '*' && next == '/') {
+                        inBlockComment = false;
+                        i++;
+                    }
+                } else if (quote != 0) {
+                    if (c == '\\') {
+                        i++;
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '/' && next == '/') {
+                    return;
+                } else if (c == '/' && next == '*') {
+                    inBlockComment = true;
+                    i++;
+                } else if (c == '"' || c == '\'' || c == '`') {
+                    quote = c;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth = Math.max(0, depth - 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Emits each token followed by the words of the identifier it contains.
+ * Words are delimited by camelCase humps, acronyms ({@code HTTPServer}) and the {@code _ . $ -} separators.
+ */
+final class CodeIdentifierFilter extends TokenFilter {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final Deque<String> pendingParts = new ArrayDeque<>();
+    private State tokenState;
+
+    CodeIdentifierFilter(TokenStream input) {
+        super(input);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!pendingParts.isEmpty()) {
+            restoreState(tokenState);
+            termAttribute.setEmpty().append(pendingParts.poll());
+            return true;
+        }
+        if (!input.incrementToken()) {
+            return false;
+        }
+        List<String> parts = split(termAttribute);
+        if (parts.size() > 1) {
+            pendingParts.addAll(parts);
+            tokenState = captureState();
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        pendingParts.clear();
+        tokenState = null;
+    }
+
+    static List<String> split(CharSequence token) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int length = token.length();
+        for (int i = 0; i < length; i++) {
+            char current = token.charAt(i);
+            if (!Character.isLetterOrDigit(current)) {
+                addPart(parts, token, start, i);
+                start = i + 1;
+            } else if (i > start && isWordBoundary(token.charAt(i - 1), current, i + 1 < length ? token.charAt(i + 1) : 0)) {
+                addPart(parts, token, start, i);
+                start = i;
+            }
+        }
+        addPart(parts, token, start, length);
+        return parts;
+    }
+
+    private static boolean isWordBoundary(char previous, char current, char next) {
+        if (!Character.isUpperCase(current)) {
+            return false;
+        }
+        return Character.isLowerCase(previous)
+                || Character.isDigit(previous)
+                || (Character.isUpperCase(previous) && Character.isLowerCase(next));
+    }
+
+    private static void addPart(List<String> parts, CharSequence token, int start, int end) {
+        if (end > start) {
+            parts.add(token.subSequence(start, end).toString());
+        }
+    }
+}
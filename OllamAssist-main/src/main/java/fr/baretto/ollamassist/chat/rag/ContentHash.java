@@ -0,0 +1,27 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Hashes of indexed content, used to detect files and segments that do not need to be embedded again.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ContentHash {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    public static String of(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(ALGORITHM);
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -1,4 +1,8 @@
 package fr.baretto.ollamassist.chat.rag;
 
 public class CorruptedIndexException extends RuntimeException {
+
+    public CorruptedIndexException(Throwable cause) {
+        super(cause);
+    }
 }
@@ -1,86 +1,205 @@
 package fr.baretto.ollamassist.chat.rag;
 
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Producer;
+import com.intellij.util.messages.MessageBusConnection;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
+import fr.baretto.ollamassist.setting.RAGSettings;
 import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 
 @Slf4j
 public class DocumentIndexingPipeline implements AutoCloseable {
 
-    private static final int BATCH_SIZE = 10;
     private static final String PROCESSING_ERROR_FORMAT = "Failed to process document: %s";
     private static final String REQUEUE_LOG_FORMAT = "Re-queueing document (attempt %d/%d): %s";
     private static final String PERMANENT_FAILURE_FORMAT = "Permanent failure after %d attempts: %s";
     private static final String INDEXED_COUNT_FORMAT = "Successfully indexed %d documents";
-    private static final int SYNCHRONOUS_BATCH_SIZE = 100;
     private static final int LOG_INTERVAL = 100;
     private static final int MAX_RETRIES = 3;
+    private static final int ASYNC_PROCESSING_DELAY_SECONDS = 5;
+    private static final long QUEUE_POLL_TIMEOUT_MS = 100;
 
     private final LuceneEmbeddingStore<TextSegment> embeddingStore;
     private final Project project;
     private final Map<String, AtomicInteger> fileRetries = new ConcurrentHashMap<>();
-    private final LinkedBlockingDeque<String> processingQueue = new LinkedBlockingDeque<>();
+    private final IndexingQueue processingQueue = new IndexingQueue();
     private final Set<String> pendingDocumentIds = ConcurrentHashMap.newKeySet();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
     private final ReentrantLock processingLock = new ReentrantLock(true);
     private final Phaser processingPhaser = new Phaser(1);
     private final AtomicInteger totalIndexedDocuments = new AtomicInteger(0);
-    private EmbeddingStoreIngestor ingestor;
+    private final AtomicInteger unchangedDocuments = new AtomicInteger(0);
+    private final AtomicInteger failedDocuments = new AtomicInteger(0);
+    private final EmbeddingBatchSizer batchSizer = new EmbeddingBatchSizer();
+    private volatile CodeAwareDocumentSplitter splitter;
+    private final MessageBusConnection connection;
+    private volatile Map<String, Long> indexedFileVersions = Map.of();
+    private StagedIndexingRun.Pools stagePools;
+    private volatile EmbeddingStoreIngestor ingestor;
+    private volatile EmbeddingModel ingestorModel;
     private volatile boolean isRunning = false;
 
     public DocumentIndexingPipeline(Project project) {
         this.embeddingStore = project.getService(LuceneEmbeddingStore.class);
-        this.ingestor = DocumentIngestFactory.create(embeddingStore);
+        this.splitter = new CodeAwareDocumentSplitter(project, RAGSettings.getInstance().getIndexingChunkMaxTokens());
         this.project = project;
+        this.connection = project.getMessageBus().connect();
+        connection.subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerListener() {
+            @Override
+            public void fileOpened(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+                if (processingQueue.contains(file.getPath())) {
+                    processingQueue.offer(file.getPath(), IndexingQueue.Priority.FOCUSED, file.getTimeStamp());
+                }
+            }
+        });
         start();
     }
 
-    public synchronized void flush(Producer<Boolean> shouldContinue, IntConsumer consumer) {
+    public int flush(Producer<Boolean> shouldContinue, IntConsumer consumer) {
+        return flush(shouldContinue, consumer, () -> false);
+    }
+
+    /**
+     * Indexes the queued files until the queue is empty and {@code moreFilesComing} is false, so files can be
+     * queued by a collection running alongside.
+     *
+     * @return the number of files that could not be indexed after {@value #MAX_RETRIES} retries
+     */
+    public synchronized int flush(Producer<Boolean> shouldContinue, IntConsumer consumer, BooleanSupplier moreFilesComing) {
         processingPhaser.register();
         try {
             processingLock.lockInterruptibly();
             try {
                 log.info("Starting synchronous flush ({} documents queued)", processingQueue.size());
+                failedDocuments.set(0);
+                // files committed by a previous, possibly interrupted, run are skipped without being read
+                indexedFileVersions = embeddingStore.indexedFileVersions();
 
-                List<String> currentBatch = new ArrayList<>();
-                while (!processingQueue.isEmpty()) {
-                    if (Boolean.TRUE.equals(shouldContinue.get())) {
-                        break;
-                    }
-                    processingQueue.drainTo(currentBatch, SYNCHRONOUS_BATCH_SIZE);
-                    processDocuments(currentBatch);
-                    consumer.accept(currentBatch.size());
-                    currentBatch.clear();
+                // failed files are re-queued, hence the loop
+                while ((!processingQueue.isEmpty() || moreFilesComing.getAsBoolean())
+                        && !Boolean.TRUE.equals(shouldContinue.get())) {
+                    processQueue(shouldContinue, consumer, moreFilesComing);
+                    embeddingStore.flush();
+                }
+                if (Boolean.TRUE.equals(shouldContinue.get())) {
+                    dropQueuedDocuments();
                 }
             } finally {
+                indexedFileVersions = Map.of();
                 processingLock.unlock();
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } finally {
             processingPhaser.arriveAndDeregister();
-            log.info("Synchronous flush completed");
+            EmbeddingCache.getInstance().flush();
+            log.info("Synchronous flush completed ({} unchanged documents skipped, {} failed, {})",
+                    unchangedDocuments.getAndSet(0), failedDocuments.get(), EmbeddingCache.getInstance().stats());
         }
+        return failedDocuments.get();
+    }
+
+    /**
+     * On cancellation, files not taken by the indexing run yet are left for the next indexation instead of being
+     * indexed in the background; the files indexed so far are committed and searchable.
+     */
+    private void dropQueuedDocuments() {
+        List<String> dropped = new ArrayList<>();
+        processingQueue.drainTo(dropped);
+        dropped.forEach(pendingDocumentIds::remove);
+        log.info("Indexation cancelled, {} documents left for the next indexation", dropped.size());
     }
 
+    /**
+     * Queues a file found by bulk indexing; files open in an editor and source files are indexed first.
+     */
     public boolean addDocument(String filePath) {
         if (pendingDocumentIds.add(filePath)) {
-            return processingQueue.offer(filePath);
+            enqueue(filePath, false);
+            return true;
         }
         return false;
     }
 
+    /**
+     * Queues a file reported by a file event. It goes ahead of the files queued by bulk indexing, and is queued
+     * again when it is being indexed already since the running indexation may have read the previous content.
+     */
+    public boolean addEditedDocument(String filePath) {
+        boolean added = pendingDocumentIds.add(filePath);
+        enqueue(filePath, true);
+        return added;
+    }
+
+    /**
+     * Applies the net changes of a batch of file events: deleted files and directories leave the queue, then the
+     * index in a single writer operation, and updated files are queued as edited files.
+     *
+     * @return the number of updated files that were not queued yet
+     */
+    public int applyFileChanges(Collection<String> updatedFiles, Collection<String> deletedFiles,
+                                Collection<String> deletedDirectories) {
+        Set<String> deleted = new HashSet<>(deletedFiles);
+        List<String> directoryPrefixes = deletedDirectories.stream().map(directory -> directory + "/").toList();
+        Predicate<String> isDeleted = path -> deleted.contains(path)
+                || directoryPrefixes.stream().anyMatch(path::startsWith);
+        if (!deleted.isEmpty() || !directoryPrefixes.isEmpty()) {
+            processingQueue.removeIf(isDeleted);
+            pendingDocumentIds.removeIf(isDeleted);
+            fileRetries.keySet().removeIf(isDeleted);
+            embeddingStore.removeFiles(deletedFiles, deletedDirectories);
+        }
+        int added = 0;
+        for (String filePath : updatedFiles) {
+            if (addEditedDocument(filePath)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private void enqueue(String filePath, boolean edited) {
+        VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
+        long lastModified = file != null ? file.getTimeStamp() : 0;
+        processingQueue.offer(filePath, priorityOf(file, edited), lastModified);
+    }
+
+    private IndexingQueue.Priority priorityOf(VirtualFile file, boolean edited) {
+        if (file != null && FileEditorManager.getInstance(project).isFileOpen(file)) {
+            return IndexingQueue.Priority.FOCUSED;
+        }
+        if (edited) {
+            return IndexingQueue.Priority.EDITED;
+        }
+        if (file != null && ReadAction.compute(() -> ProjectFileIndex.getInstance(project).isInSource(file))) {
+            return IndexingQueue.Priority.SOURCE;
+        }
+        return IndexingQueue.Priority.OTHER;
+    }
+
     public int addAllDocuments(Collection<String> filePaths) {
         int added = 0;
         for (String path : filePaths) {
@@ -93,7 +212,7 @@ public class DocumentIndexingPipeline implements AutoCloseable {
 
     private void start() {
         isRunning = true;
-        scheduler.scheduleWithFixedDelay(this::processBatch, 0, 30, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::processBatch, 0, ASYNC_PROCESSING_DELAY_SECONDS, TimeUnit.SECONDS);
     }
 
     private void processBatch() {
@@ -102,12 +221,12 @@ public class DocumentIndexingPipeline implements AutoCloseable {
         processingPhaser.arriveAndAwaitAdvance();
         processingLock.lock();
         try {
-            List<String> currentBatch = new ArrayList<>(BATCH_SIZE);
-            processingQueue.drainTo(currentBatch, BATCH_SIZE);
-
-            if (!currentBatch.isEmpty()) {
-                log.debug("Processing async batch of {} documents", currentBatch.size());
-                processDocuments(currentBatch);
+            if (!processingQueue.isEmpty()) {
+                log.debug("Processing async batch of {} documents", processingQueue.size());
+                processQueue(() -> !isRunning, indexedFiles -> {
+                }, () -> false);
+                embeddingStore.flush();
+                EmbeddingCache.getInstance().flush();
                 logProgress();
             }
         } catch (Exception e) {
@@ -117,38 +236,116 @@ public class DocumentIndexingPipeline implements AutoCloseable {
         }
     }
 
-    public void processDocuments(List<String> filePaths) {
-        for (String filePath : filePaths) {
-            try {
-                processSingleDocument(filePath);
-            } catch (Exception e) {
-                handleDocumentError(filePath, e);
+    /**
+     * Indexes the queued files through a {@link StagedIndexingRun}. Files are taken from the queue one at a time as
+     * the run accepts them, so files queued meanwhile with a higher priority are indexed before the rest of the
+     * queue. Stops taking files once {@code shouldStop} turns true, or once the queue is empty and
+     * {@code moreFilesComing} is false.
+     */
+    private void processQueue(Producer<Boolean> shouldStop, IntConsumer onFilesDone, BooleanSupplier moreFilesComing) {
+        StagedIndexingRun.Listener listener = new StagedIndexingRun.Listener() {
+            @Override
+            public void onIndexed(String filePath) {
+                pendingDocumentIds.remove(filePath);
+                fileRetries.remove(filePath);
+                totalIndexedDocuments.incrementAndGet();
+                onFilesDone.accept(1);
+            }
+
+            @Override
+            public void onFailed(String filePath, Exception exception) {
+                log.warn(String.format(PROCESSING_ERROR_FORMAT, filePath), exception);
+                handleDocumentError(filePath);
+                onFilesDone.accept(1);
+            }
+        };
+
+        splitter = splitter();
+        try (StagedIndexingRun run = new StagedIndexingRun(stagePools(), this::readDocument, this::splitDocument,
+                EmbeddingService.getInstance().cachedModel(), EmbeddingService.configuredModelName(), batchSizer,
+                this::writeDocument, listener)) {
+            while (!Boolean.TRUE.equals(shouldStop.get())) {
+                boolean collecting = moreFilesComing.getAsBoolean();
+                String filePath = collecting
+                        ? processingQueue.poll(QUEUE_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        : processingQueue.poll();
+                if (filePath != null) {
+                    run.submit(filePath);
+                } else if (!collecting) {
+                    break;
+                }
             }
+            run.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void processSingleDocument(String filePath) {
-        try {
-            Document doc = FileSystemDocumentLoader.loadDocument(Path.of(filePath));
-            ingestor.ingest(doc);
-            pendingDocumentIds.remove(filePath);
-            totalIndexedDocuments.incrementAndGet();
-            fileRetries.remove(filePath);
-        } catch (Exception e) {
-            throw new ProcessingException(String.format(PROCESSING_ERROR_FORMAT, filePath), e);
+    /**
+     * @return the threads of the indexing stages, kept from one run to the next until the settings sizing them change.
+     * Must be called while holding the processing lock.
+     */
+    private StagedIndexingRun.Pools stagePools() {
+        RAGSettings settings = RAGSettings.getInstance();
+        StagedIndexingRun.Options options = StagedIndexingRun.Options.forCurrentMachine(
+                settings.getIndexingEmbeddingConcurrency(), settings.getIndexingEmbeddingBatchSize());
+        if (stagePools == null || !stagePools.options().equals(options)) {
+            if (stagePools != null) {
+                stagePools.close();
+            }
+            stagePools = new StagedIndexingRun.Pools(options);
         }
+        return stagePools;
+    }
+
+    /**
+     * @return a splitter cutting chunks of the configured size: a new size also makes the index rebuild, see
+     * {@link LuceneEmbeddingStore#isChunkingOutdated()}
+     */
+    private CodeAwareDocumentSplitter splitter() {
+        int maxTokens = Math.max(1, RAGSettings.getInstance().getIndexingChunkMaxTokens());
+        return splitter.maxTokens() == maxTokens ? splitter : new CodeAwareDocumentSplitter(project, maxTokens);
+    }
+
+    private StagedIndexingRun.ParsedFile readDocument(String filePath) throws IOException {
+        Path path = Path.of(filePath);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Long indexedVersion = indexedFileVersions.get(SegmentFields.normalizePath(filePath));
+        if (indexedVersion != null && indexedVersion == lastModified) {
+            unchangedDocuments.incrementAndGet();
+            return null;
+        }
+        Document doc = FileSystemDocumentLoader.loadDocument(path);
+        doc.metadata().put(SegmentFields.FILE_LAST_MODIFIED, lastModified);
+        String contentHash = ContentHash.of(doc.text());
+        // a touched file keeps its segments, and its new time to be skipped without being read next time
+        if (contentHash.equals(embeddingStore.indexedContentHash(filePath))
+                && embeddingStore.updateFileVersion(filePath, lastModified)) {
+            unchangedDocuments.incrementAndGet();
+            return null;
+        }
+        return new StagedIndexingRun.ParsedFile(filePath, contentHash, doc);
+    }
+
+    private List<TextSegment> splitDocument(StagedIndexingRun.ParsedFile file) {
+        return splitter.split(file.document());
+    }
+
+    private void writeDocument(StagedIndexingRun.EmbeddedFile file) {
+        embeddingStore.replaceFile(file.path(), file.contentHash(), file.segments(), file.embeddings());
     }
 
     public void processSingleDocument(Document document) {
         try {
-            ingestor.ingest(document);
+            ingestor().ingest(document);
             totalIndexedDocuments.incrementAndGet();
         } catch (Exception e) {
-            handleCorruption();
+            // a corrupted or outdated index asks for its own rebuild
+            log.warn("Failed to index document", e);
         }
     }
 
-    private void handleDocumentError(String filePath, Exception e) {
+    private void handleDocumentError(String filePath) {
         int retryCount = fileRetries.computeIfAbsent(filePath, k -> new AtomicInteger(0)).incrementAndGet();
 
         if (retryCount <= MAX_RETRIES) {
@@ -156,18 +353,15 @@ public class DocumentIndexingPipeline implements AutoCloseable {
             reQueueDocument(filePath);
         } else {
             log.error(String.format(PERMANENT_FAILURE_FORMAT, MAX_RETRIES, filePath));
+            failedDocuments.incrementAndGet();
             pendingDocumentIds.remove(filePath);
             fileRetries.remove(filePath);
         }
-
-        if (e instanceof CorruptedIndexException) {
-            handleCorruption();
-        }
     }
 
     private void reQueueDocument(String filePath) {
-        processingQueue.addFirst(filePath);
         pendingDocumentIds.add(filePath);
+        enqueue(filePath, false);
     }
 
     private void logProgress() {
@@ -177,12 +371,29 @@ public class DocumentIndexingPipeline implements AutoCloseable {
         }
     }
 
+    /**
+     * @return an ingestor on the shared embedding model, rebuilt when the model changed with the settings
+     */
+    private EmbeddingStoreIngestor ingestor() {
+        EmbeddingModel model = EmbeddingService.getInstance().cachedModel();
+        EmbeddingStoreIngestor current = ingestor;
+        if (current == null || ingestorModel != model) {
+            current = DocumentIngestFactory.create(embeddingStore, model);
+            ingestor = current;
+            ingestorModel = model;
+        }
+        return current;
+    }
+
+    /**
+     * Deletes the index of a project marked as corrupted, so it is indexed again from scratch. Write failures never
+     * get here: the store rebuilds the index next to the serving one instead.
+     */
     public void handleCorruption() {
         processingLock.lock();
         try {
             log.warn("Index corruption detected - Recreating index...");
             embeddingStore.recreateIndex();
-            ingestor = DocumentIngestFactory.create(embeddingStore);
 
             log.info("Index recreated - Resuming operations");
         } catch (Exception ex) {
@@ -196,6 +407,7 @@ public class DocumentIndexingPipeline implements AutoCloseable {
     @Override
     public void close() {
         isRunning = false;
+        connection.disconnect();
         scheduler.shutdown();
         try {
             if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -204,11 +416,15 @@ public class DocumentIndexingPipeline implements AutoCloseable {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-    }
-
-    private static class ProcessingException extends RuntimeException {
-        ProcessingException(String message, Throwable cause) {
-            super(message, cause);
+        processingLock.lock();
+        try {
+            if (stagePools != null) {
+                stagePools.close();
+                stagePools = null;
+            }
+        } finally {
+            processingLock.unlock();
         }
     }
+
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.List;
+
+/**
+ * Sizes {@code embedAll} calls by estimated token count, adapting to the observed latency of the backend:
+ * the budget grows while full calls come back under the target latency and is halved when a call is too slow.
+ * Shared by the embedding threads and kept across indexing runs so the learned size survives between batches.
+ */
+final class EmbeddingBatchSizer {
+
+    static final int MIN_TOKENS = 256;
+    static final int DEFAULT_INITIAL_TOKENS = 2_048;
+    static final int DEFAULT_MAX_TOKENS = 16_384;
+    static final long DEFAULT_TARGET_LATENCY_MS = 2_000;
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final int maxTokens;
+    private final long targetLatencyNanos;
+    private int tokenBudget;
+
+    EmbeddingBatchSizer() {
+        this(DEFAULT_INITIAL_TOKENS, DEFAULT_MAX_TOKENS, DEFAULT_TARGET_LATENCY_MS);
+    }
+
+    EmbeddingBatchSizer(int initialTokens, int maxTokens, long targetLatencyMs) {
+        this.maxTokens = Math.max(MIN_TOKENS, maxTokens);
+        this.targetLatencyNanos = targetLatencyMs * 1_000_000;
+        this.tokenBudget = Math.clamp(initialTokens, MIN_TOKENS, this.maxTokens);
+    }
+
+    synchronized int tokenBudget() {
+        return tokenBudget;
+    }
+
+    /**
+     * Feeds back the duration of one call. Calls filling less than half of the budget say nothing about a
+     * larger size, so they can only shrink it.
+     */
+    synchronized void record(int tokens, long elapsedNanos) {
+        if (elapsedNanos > targetLatencyNanos) {
+            tokenBudget = Math.max(MIN_TOKENS, tokenBudget / 2);
+        } else if (tokens >= tokenBudget / 2) {
+            tokenBudget = Math.min(maxTokens, tokenBudget + tokenBudget / 4);
+        }
+    }
+
+    /**
+     * @return the exclusive end of the next call starting at {@code from}, holding at least one segment.
+     */
+    int nextCallEnd(List<TextSegment> segments, int from, int maxSegments) {
+        int budget = tokenBudget();
+        int end = from + 1;
+        int tokens = estimateTokens(segments.get(from));
+        while (end < segments.size() && end - from < maxSegments) {
+            tokens += estimateTokens(segments.get(end));
+            if (tokens > budget) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    static int estimateTokens(TextSegment segment) {
+        return estimateTokens(segment.text().length());
+    }
+
+    static int estimateTokens(int chars) {
+        return Math.max(1, chars / CHARS_PER_TOKEN);
+    }
+
+    static int estimateTokens(List<TextSegment> segments) {
+        int tokens = 0;
+        for (TextSegment segment : segments) {
+            tokens += estimateTokens(segment);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,232 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import fr.baretto.ollamassist.setting.RAGSettings;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static fr.baretto.ollamassist.chat.rag.IndexRegistry.OLLAMASSIST_DIR;
+
+/**
+ * Persistent cache of segment embeddings, shared by every project.
+ * <p>
+ * Entries are keyed by the embedding model and the hash of the normalized segment text, so license headers,
+ * boilerplate and files copied across modules or projects are embedded once. Each model has its own append-only
+ * file under {@code ~/.ollamassist/embedding_cache}, replayed into a size-bounded LRU cache on first use and
+ * compacted when it grows well beyond the cache size.
+ */
+@Slf4j
+public class EmbeddingCache implements Disposable {
+
+    private static final String CACHE_DIRECTORY = "embedding_cache";
+    private static final String FILE_EXTENSION = ".bin";
+    private static final int COMPACTION_FACTOR = 2;
+
+    private final Path directory;
+    private final long maxEntriesPerModel;
+    private final Map<String, ModelCache> caches = new ConcurrentHashMap<>();
+
+    public EmbeddingCache() {
+        this(Paths.get(OLLAMASSIST_DIR, CACHE_DIRECTORY), RAGSettings.getInstance().getEmbeddingCacheMaxEntries());
+    }
+
+    public EmbeddingCache(Path directory, long maxEntriesPerModel) {
+        this.directory = directory;
+        this.maxEntriesPerModel = Math.max(1, maxEntriesPerModel);
+    }
+
+    public static EmbeddingCache getInstance() {
+        return ApplicationManager.getApplication().getService(EmbeddingCache.class);
+    }
+
+    /**
+     * @return the cached vector of {@code text} for the model, or null on a miss.
+     */
+    public float[] get(String modelName, String text) {
+        return cacheOf(modelName).cache.getIfPresent(keyOf(text));
+    }
+
+    public void put(String modelName, String text, float[] vector) {
+        cacheOf(modelName).put(keyOf(text), vector);
+    }
+
+    /**
+     * Writes buffered entries to disk.
+     */
+    public void flush() {
+        caches.values().forEach(ModelCache::flush);
+    }
+
+    public Stats stats() {
+        long size = 0;
+        long hits = 0;
+        long misses = 0;
+        for (ModelCache modelCache : caches.values()) {
+            var stats = modelCache.cache.stats();
+            size += modelCache.cache.estimatedSize();
+            hits += stats.hitCount();
+            misses += stats.missCount();
+        }
+        return new Stats(size, hits, misses);
+    }
+
+    @Override
+    public void dispose() {
+        caches.values().forEach(ModelCache::close);
+        caches.clear();
+    }
+
+    static String keyOf(String text) {
+        return ContentHash.of(normalize(text));
+    }
+
+    /**
+     * Ignores line endings and trailing whitespace, which do not change what a segment means.
+     */
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        text.lines().forEach(line -> normalized.append(line.stripTrailing()).append('\n'));
+        return normalized.toString().strip();
+    }
+
+    private ModelCache cacheOf(String modelName) {
+        return caches.computeIfAbsent(modelName, name -> new ModelCache(
+                directory.resolve(name.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_EXTENSION), maxEntriesPerModel));
+    }
+
+    public record Stats(long size, long hitCount, long missCount) {
+
+        public double hitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 0 : (double) hitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("EmbeddingCache{size=%d, hits=%d, misses=%d, hitRate=%.2f%%}",
+                    size, hitCount, missCount, hitRate() * 100);
+        }
+    }
+
+    /**
+     * Cache of a single model. Records are {@code key (UTF), dimension (int), vector (floats)}.
+     */
+    private static final class ModelCache {
+
+        private final Path file;
+        private final long maxEntries;
+        private final Cache<String, float[]> cache;
+        private DataOutputStream appender;
+        private long recordsInFile;
+
+        ModelCache(Path file, long maxEntries) {
+            this.file = file;
+            this.maxEntries = maxEntries;
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(maxEntries)
+                    .recordStats()
+                    .build();
+            load();
+        }
+
+        private void load() {
+            if (!Files.exists(file)) {
+                return;
+            }
+            long readBytes = 0;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                long fileSize = Files.size(file);
+                while (readBytes < fileSize) {
+                    String key = input.readUTF();
+                    float[] vector = new float[input.readInt()];
+                    for (int i = 0; i < vector.length; i++) {
+                        vector[i] = input.readFloat();
+                    }
+                    cache.put(key, vector);
+                    recordsInFile++;
+                    readBytes += Short.BYTES + key.length() + Integer.BYTES + (long) Float.BYTES * vector.length;
+                }
+                log.debug("Loaded {} cached embeddings from {}", recordsInFile, file);
+            } catch (IOException e) {
+                // typically a record truncated by a crash: keep what was read and rewrite the file on next put
+                log.warn("Embedding cache {} is damaged after {} records, it will be rewritten", file, recordsInFile, e);
+                recordsInFile = Long.MAX_VALUE;
+            }
+        }
+
+        synchronized void put(String key, float[] vector) {
+            cache.put(key, vector);
+            try {
+                if (recordsInFile > COMPACTION_FACTOR * maxEntries) {
+                    compact();
+                }
+                if (appender == null) {
+                    Files.createDirectories(file.getParent());
+                    appender = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(file.toFile(), true)));
+                }
+                write(appender, key, vector);
+                recordsInFile++;
+            } catch (IOException e) {
+                log.warn("Failed to persist embedding in {}", file, e);
+            }
+        }
+
+        /**
+         * Rewrites the file with the entries still in the cache, dropping evicted and duplicated records.
+         */
+        private void compact() throws IOException {
+            close();
+            Files.createDirectories(file.getParent());
+            Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+            long records = 0;
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+                for (Map.Entry<String, float[]> entry : cache.asMap().entrySet()) {
+                    write(output, entry.getKey(), entry.getValue());
+                    records++;
+                }
+            }
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            recordsInFile = records;
+        }
+
+        private static void write(DataOutputStream output, String key, float[] vector) throws IOException {
+            output.writeUTF(key);
+            output.writeInt(vector.length);
+            for (float value : vector) {
+                output.writeFloat(value);
+            }
+        }
+
+        synchronized void flush() {
+            if (appender != null) {
+                try {
+                    appender.flush();
+                } catch (IOException e) {
+                    log.warn("Failed to flush embedding cache {}", file, e);
+                }
+            }
+        }
+
+        synchronized void close() {
+            if (appender != null) {
+                try {
+                    appender.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close embedding cache {}", file, e);
+                }
+                appender = null;
+            }
+        }
+    }
+}
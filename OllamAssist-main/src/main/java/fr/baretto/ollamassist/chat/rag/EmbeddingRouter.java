@@ -0,0 +1,220 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link EmbeddingModel} spreading requests over several backends serving the same model, typically Ollama servers.
+ * <p>
+ * Each backend keeps an exponentially weighted moving average of its latency and error rate. Requests go to the
+ * healthy backend with the lowest latency, inflated by its error rate, and move on to the next one when it fails.
+ * A failing backend is benched for a cooldown doubling with its consecutive failures: until then it is only tried
+ * once every healthy backend failed.
+ * <p>
+ * When every backend failed, the request goes to the fallback, usually the bundled ONNX model, provided it produces
+ * vectors of the dimension the backends returned so far. Vectors of another model are not comparable with the
+ * index, so such responses carry the fallback model name under {@link #MODEL_METADATA_KEY} and callers caching
+ * embeddings per model must not store them. Indexing goes through {@link #withoutFallback()}: a query embedded by
+ * the fallback is only compared once, a segment would stay in the index.
+ */
+@Slf4j
+public class EmbeddingRouter implements EmbeddingModel {
+
+    /**
+     * Key of the {@link Response#metadata()} entry naming the model which produced the embeddings.
+     */
+    public static final String MODEL_METADATA_KEY = "ollamassist.embedding.model";
+
+    static final double EWMA_WEIGHT = 0.3;
+    static final long BASE_COOLDOWN_NANOS = 5_000_000_000L;
+    static final int MAX_COOLDOWN_DOUBLINGS = 4;
+    private static final double ERROR_PENALTY = 3;
+
+    private final List<BackendState> backends;
+    private final BackendState fallback;
+    private final LongSupplier nanoClock;
+    private volatile int dimension = -1;
+
+    public EmbeddingRouter(List<Backend> backends, Backend fallback) {
+        this(backends, fallback, System::nanoTime);
+    }
+
+    EmbeddingRouter(List<Backend> backends, Backend fallback, LongSupplier nanoClock) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("At least one embedding backend is required");
+        }
+        this.backends = backends.stream().map(BackendState::new).toList();
+        this.fallback = fallback != null ? new BackendState(fallback) : null;
+        this.nanoClock = nanoClock;
+    }
+
+    private EmbeddingRouter(List<BackendState> backends, LongSupplier nanoClock, int dimension) {
+        this.backends = backends;
+        this.fallback = null;
+        this.nanoClock = nanoClock;
+        this.dimension = dimension;
+    }
+
+    /**
+     * @return a router over the same backends, sharing their health, which fails instead of using the fallback
+     */
+    public EmbeddingRouter withoutFallback() {
+        return fallback == null ? this : new EmbeddingRouter(backends, nanoClock, dimension);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        RuntimeException lastFailure = null;
+        for (BackendState backend : candidates()) {
+            long start = nanoClock.getAsLong();
+            try {
+                List<Embedding> embeddings = backend.backend.model().embedAll(textSegments).content();
+                backend.recordSuccess(nanoClock.getAsLong() - start);
+                if (backend != fallback && !embeddings.isEmpty()) {
+                    dimension = embeddings.get(0).dimension();
+                }
+                return Response.from(embeddings, null, null,
+                        Map.of(MODEL_METADATA_KEY, backend.backend.modelName()));
+            } catch (RuntimeException e) {
+                backend.recordFailure(nanoClock.getAsLong());
+                log.warn("Embedding backend {} failed, trying the next one", backend.backend.name(), e);
+                lastFailure = e;
+            }
+        }
+        throw lastFailure;
+    }
+
+    /**
+     * @return false when {@code response} was produced by a fallback instead of {@code modelName}
+     */
+    public static boolean producedBy(Response<?> response, String modelName) {
+        Map<String, Object> metadata = response.metadata();
+        Object producer = metadata != null ? metadata.get(MODEL_METADATA_KEY) : null;
+        return producer == null || producer.equals(modelName);
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        return embed(TextSegment.from(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        Response<List<Embedding>> response = embedAll(List.of(textSegment));
+        return Response.from(response.content().get(0), null, null, response.metadata());
+    }
+
+    @Override
+    public int dimension() {
+        int known = dimension;
+        return known > 0 ? known : EmbeddingModel.super.dimension();
+    }
+
+    /**
+     * @return the backends in the order they should be tried: healthy ones from the fastest, benched ones from the
+     * soonest available, then the fallback when compatible
+     */
+    List<BackendState> candidates() {
+        long now = nanoClock.getAsLong();
+        List<BackendState> healthy = new ArrayList<>();
+        List<BackendState> benched = new ArrayList<>();
+        for (BackendState backend : backends) {
+            (backend.isHealthy(now) ? healthy : benched).add(backend);
+        }
+        healthy.sort(Comparator.comparingDouble(BackendState::score));
+        benched.sort(Comparator.comparingLong(BackendState::benchedUntil));
+        List<BackendState> candidates = new ArrayList<>(healthy);
+        candidates.addAll(benched);
+        if (fallback != null && dimension > 0 && fallback.backend.model().dimension() == dimension) {
+            candidates.add(fallback);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return latency and error averages per backend name, for logs and diagnostics
+     */
+    public Map<String, BackendStats> stats() {
+        Map<String, BackendStats> stats = new HashMap<>();
+        for (BackendState backend : backends) {
+            stats.put(backend.backend.name(), backend.stats());
+        }
+        if (fallback != null) {
+            stats.put(fallback.backend.name(), fallback.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * @param name      identifies the backend in logs, typically its URL
+     * @param modelName the model producing the embeddings
+     */
+    public record Backend(String name, String modelName, EmbeddingModel model) {
+    }
+
+    public record BackendStats(double latencyMillis, double errorRate, int consecutiveFailures) {
+    }
+
+    static final class BackendState {
+
+        private final Backend backend;
+        private double latencyNanos = -1;
+        private double errorRate;
+        private int consecutiveFailures;
+        private long benchedUntil;
+
+        BackendState(Backend backend) {
+            this.backend = backend;
+        }
+
+        Backend backend() {
+            return backend;
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return consecutiveFailures == 0 || now - benchedUntil >= 0;
+        }
+
+        /**
+         * @return the expected latency, inflated by the error rate; untried backends come first
+         */
+        synchronized double score() {
+            return Math.max(0, latencyNanos) * (1 + ERROR_PENALTY * errorRate);
+        }
+
+        synchronized long benchedUntil() {
+            return benchedUntil;
+        }
+
+        synchronized void recordSuccess(long latency) {
+            latencyNanos = latencyNanos < 0 ? latency : ewma(latencyNanos, latency);
+            errorRate = ewma(errorRate, 0);
+            consecutiveFailures = 0;
+        }
+
+        synchronized void recordFailure(long now) {
+            errorRate = ewma(errorRate, 1);
+            consecutiveFailures++;
+            int doublings = Math.min(consecutiveFailures - 1, MAX_COOLDOWN_DOUBLINGS);
+            benchedUntil = now + (BASE_COOLDOWN_NANOS << doublings);
+        }
+
+        synchronized BackendStats stats() {
+            return new BackendStats(Math.max(0, latencyNanos) / 1_000_000, errorRate, consecutiveFailures);
+        }
+
+        private static double ewma(double average, double sample) {
+            return average + EWMA_WEIGHT * (sample - average);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.bgesmallenv15q.BgeSmallEnV15QuantizedEmbeddingModel;
+import dev.langchain4j.model.ollama.OllamaEmbeddingModel;
+import fr.baretto.ollamassist.auth.AuthenticationHelper;
+import fr.baretto.ollamassist.setting.OllamAssistSettings;
+import fr.baretto.ollamassist.setting.OllamaSettings;
+import fr.baretto.ollamassist.setting.RAGSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static fr.baretto.ollamassist.chat.rag.RAGConstants.DEFAULT_EMBEDDING_MODEL;
+
+/**
+ * Owns the embedding model of the application, shared by indexing, chat retrieval and completion of every project.
+ * <p>
+ * The model is created on first use and kept until the embedding settings change, so the ONNX model is loaded in
+ * memory once. An Ollama model is served through an {@link EmbeddingRouter} over the configured server and the
+ * fallback servers, optionally backed by the bundled model. It runs on a single executor sized from the available
+ * cores, which survives model changes: callers still holding the previous model can finish with it.
+ */
+@Slf4j
+public class EmbeddingService implements Disposable {
+
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+    private static final String BASIC_AUTH_FORMAT = "Basic %s";
+    private static final int QUEUE_SIZE = 10000;
+
+    private final ThreadPoolExecutor executor;
+    private final Supplier<ModelSpec> currentSpec;
+    private final Function<ModelSpec, EmbeddingModel> modelFactory;
+    private final Supplier<EmbeddingCache> cache;
+    private final QueryEmbeddingCache queryCache;
+    private volatile SharedModel shared;
+    private EmbeddingModel bundledModel;
+    private BundledEmbeddingModel.Options bundledOptions;
+
+    public EmbeddingService() {
+        this.executor = createExecutor(executorThreads(Runtime.getRuntime().availableProcessors()));
+        this.currentSpec = EmbeddingService::specFromSettings;
+        this.modelFactory = this::createModelWithPluginClassLoader;
+        this.cache = EmbeddingCache::getInstance;
+        this.queryCache = new QueryEmbeddingCache(RAGSettings.getInstance().getQueryEmbeddingCacheMaxEntries());
+    }
+
+    EmbeddingService(Supplier<ModelSpec> currentSpec, Function<ModelSpec, EmbeddingModel> modelFactory,
+                     Supplier<EmbeddingCache> cache, QueryEmbeddingCache queryCache) {
+        this.executor = createExecutor(1);
+        this.currentSpec = currentSpec;
+        this.modelFactory = modelFactory;
+        this.cache = cache;
+        this.queryCache = queryCache;
+    }
+
+    public static EmbeddingService getInstance() {
+        return ApplicationManager.getApplication().getService(EmbeddingService.class);
+    }
+
+    /**
+     * Embedding model of the query path: chat retrieval and completion. Repeated queries are served by the
+     * {@link QueryEmbeddingCache}.
+     */
+    public EmbeddingModel model() {
+        return current().queryModel();
+    }
+
+    /**
+     * Embedding model of the indexing path: segments embedded before, by any project, are served by the
+     * {@link EmbeddingCache} instead of the model. It never uses the local fallback of an Ollama model.
+     */
+    public EmbeddingModel cachedModel() {
+        return current().cachedModel();
+    }
+
+    private SharedModel current() {
+        ModelSpec spec = currentSpec.get();
+        SharedModel model = shared;
+        if (model == null || !model.spec().equals(spec)) {
+            synchronized (this) {
+                model = shared;
+                if (model == null || !model.spec().equals(spec)) {
+                    log.info("Loading embedding model {}", spec.modelName());
+                    EmbeddingModel created = modelFactory.apply(spec);
+                    model = new SharedModel(spec, created, modelId(spec, created), cache, queryCache);
+                    shared = model;
+                }
+            }
+        }
+        return model;
+    }
+
+    public QueryEmbeddingCache queryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Half of the cores, leaving the other half to the IDE. Each inference of the bundled model runs
+     * {@link BundledEmbeddingModel.Options#intraOpThreads()} threads.
+     */
+    static int executorThreads(int availableProcessors) {
+        return Math.max(1, availableProcessors / 2);
+    }
+
+    /**
+     * @return the name of the configured embedding model, {@link RAGConstants#DEFAULT_EMBEDDING_MODEL} for the
+     * bundled one
+     */
+    public static String configuredModelName() {
+        String modelName = OllamAssistSettings.getInstance().getEmbeddingModelName();
+        return StringUtils.isBlank(modelName) || StringUtils.equalsIgnoreCase(DEFAULT_EMBEDDING_MODEL, modelName)
+                ? DEFAULT_EMBEDDING_MODEL
+                : modelName;
+    }
+
+    /**
+     * Loads the configured model if needed: which runner serves the bundled model is only known once it is loaded.
+     *
+     * @return what identifies the vectors of the configured model, recorded in the index and keying the embedding
+     * caches: the name of an Ollama model, or for the bundled one its name with the runner and truncation, which
+     * change the vectors of long segments
+     */
+    public String modelId() {
+        return current().modelId();
+    }
+
+    private static String modelId(ModelSpec spec, EmbeddingModel model) {
+        if (!spec.isLocal()) {
+            return spec.modelName();
+        }
+        return model instanceof BundledEmbeddingModel bundled
+                ? BundledEmbeddingModel.modelId(spec.modelName(), bundled.options())
+                : BundledEmbeddingModel.libraryModelId(spec.modelName());
+    }
+
+    private static BundledEmbeddingModel.Options bundledOptionsFromSettings() {
+        RAGSettings ragSettings = RAGSettings.getInstance();
+        return new BundledEmbeddingModel.Options(
+                ragSettings.getOnnxIntraOpThreads(),
+                ragSettings.getOnnxInterOpThreads(),
+                ragSettings.getOnnxMaxSequenceLength(),
+                ragSettings.getOnnxBatchSize());
+    }
+
+    private static ModelSpec specFromSettings() {
+        OllamAssistSettings settings = OllamAssistSettings.getInstance();
+        String modelName = configuredModelName();
+        RAGSettings ragSettings = RAGSettings.getInstance();
+        BundledEmbeddingModel.Options bundled = bundledOptionsFromSettings();
+        if (DEFAULT_EMBEDDING_MODEL.equals(modelName)) {
+            return new ModelSpec(DEFAULT_EMBEDDING_MODEL, List.of(), null, null, false, bundled);
+        }
+        String authorization = AuthenticationHelper.isAuthenticationConfigured()
+                ? String.format(BASIC_AUTH_FORMAT, AuthenticationHelper.createBasicAuthHeader())
+                : null;
+        return new ModelSpec(modelName, ollamaUrls(settings.getEmbeddingOllamaUrl(), settings.getEmbeddingFallbackOllamaUrls()),
+                settings.getTimeoutDuration(), authorization, ragSettings.isEmbeddingLocalFallbackEnabled(), bundled);
+    }
+
+    /**
+     * @return the configured server followed by the fallback servers, separated by ';', without duplicates
+     */
+    static List<String> ollamaUrls(String url, String fallbackUrls) {
+        Set<String> urls = new LinkedHashSet<>();
+        Stream.concat(Stream.of(Objects.toString(url, "")), Arrays.stream(Objects.toString(fallbackUrls, "").split(";")))
+                .map(String::strip)
+                .filter(serverUrl -> !serverUrl.isEmpty())
+                .forEach(urls::add);
+        if (urls.isEmpty()) {
+            urls.add(OllamaSettings.DEFAULT_URL);
+        }
+        return List.copyOf(urls);
+    }
+
+    /**
+     * Creates the model with the plugin class loader as context class loader,
+     * which the ONNX runtime needs to locate its native libraries.
+     */
+    private EmbeddingModel createModelWithPluginClassLoader(ModelSpec spec) {
+        ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(EmbeddingService.class.getClassLoader());
+        try {
+            return createModel(spec);
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalClassLoader);
+        }
+    }
+
+    private EmbeddingModel createModel(ModelSpec spec) {
+        if (spec.isLocal()) {
+            return bundledModel(spec.bundled());
+        }
+        List<EmbeddingRouter.Backend> backends = spec.urls().stream()
+                .map(url -> new EmbeddingRouter.Backend(url, spec.modelName(), createOllamaModel(spec, url)))
+                .toList();
+        EmbeddingRouter.Backend fallback = spec.localFallback()
+                ? new EmbeddingRouter.Backend(DEFAULT_EMBEDDING_MODEL, DEFAULT_EMBEDDING_MODEL, bundledModel(spec.bundled()))
+                : null;
+        return new EmbeddingRouter(backends, fallback);
+    }
+
+    /**
+     * The bundled model is kept across changes of the other settings: its ONNX session holds the whole model in
+     * native memory. Falls back to the library runner when the tuned one cannot be loaded.
+     */
+    private synchronized EmbeddingModel bundledModel(BundledEmbeddingModel.Options options) {
+        if (bundledModel == null || !options.equals(bundledOptions)) {
+            try {
+                bundledModel = BundledEmbeddingModel.load(options, executor);
+            } catch (IOException | RuntimeException | LinkageError e) {
+                // the model id changes with the runner, so the index is rebuilt rather than mixed
+                log.warn("Unable to load the bundled embedding model on ONNX Runtime, using the default runner", e);
+                bundledModel = new BgeSmallEnV15QuantizedEmbeddingModel(executor);
+            }
+            bundledOptions = options;
+        }
+        return bundledModel;
+    }
+
+    private static EmbeddingModel createOllamaModel(ModelSpec spec, String url) {
+        OllamaEmbeddingModel.OllamaEmbeddingModelBuilder builder = new OllamaEmbeddingModel.OllamaEmbeddingModelBuilder();
+        builder.baseUrl(url)
+                .modelName(spec.modelName())
+                .timeout(spec.timeout());
+        if (spec.authorization() != null) {
+            builder.customHeaders(Map.of(AUTHORIZATION_HEADER, spec.authorization()));
+        }
+        return builder.build();
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE),
+                new CustomThreadFactory("embedding-model"),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Settings the embedding model is built from: a change of any of them loads a new model.
+     *
+     * @param urls          the Ollama servers, in order of preference, empty for the bundled ONNX model
+     * @param authorization the Authorization header sent to Ollama, or null
+     * @param localFallback whether the bundled model takes over when every server failed
+     * @param bundled       tuning of the bundled model, whether it serves the embeddings or the fallback
+     */
+    record ModelSpec(String modelName, List<String> urls, Duration timeout, String authorization,
+                     boolean localFallback, BundledEmbeddingModel.Options bundled) {
+
+        static ModelSpec local(String modelName) {
+            return new ModelSpec(modelName, List.of(), null, null, false, BundledEmbeddingModel.Options.defaults());
+        }
+
+        boolean isLocal() {
+            return urls.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            // keeps the credentials out of logs
+            return "ModelSpec[" + modelName + (isLocal() ? "" : " @ " + String.join(", ", urls)) + "]";
+        }
+    }
+
+    private static final class SharedModel {
+
+        private final ModelSpec spec;
+        private final EmbeddingModel model;
+        private final String modelId;
+        private final EmbeddingModel queryModel;
+        private final Supplier<EmbeddingCache> cache;
+        private volatile EmbeddingModel cachedModel;
+
+        SharedModel(ModelSpec spec, EmbeddingModel model, String modelId, Supplier<EmbeddingCache> cache,
+                    QueryEmbeddingCache queryCache) {
+            this.spec = spec;
+            this.model = model;
+            this.modelId = modelId;
+            this.queryModel = queryCache.wrap(model, modelId);
+            this.cache = cache;
+        }
+
+        ModelSpec spec() {
+            return spec;
+        }
+
+        String modelId() {
+            return modelId;
+        }
+
+        EmbeddingModel queryModel() {
+            return queryModel;
+        }
+
+        EmbeddingModel cachedModel() {
+            EmbeddingModel cached = cachedModel;
+            if (cached == null) {
+                synchronized (this) {
+                    cached = cachedModel;
+                    if (cached == null) {
+                        // segments embedded by the local fallback would not be comparable with the index
+                        EmbeddingModel indexingModel = model instanceof EmbeddingRouter router
+                                ? router.withoutFallback()
+                                : model;
+                        cached = new CachedEmbeddingModel(indexingModel, cache.get(), modelId);
+                        cachedModel = cached;
+                    }
+                }
+            }
+            return cached;
+        }
+    }
+
+    private static class CustomThreadFactory implements ThreadFactory {
+
+        private static final String THREAD_NAME_FORMAT = "%s-%d";
+
+        private final String threadNamePrefix;
+        private final AtomicInteger threadCounter = new AtomicInteger(1);
+
+        CustomThreadFactory(String threadNamePrefix) {
+            this.threadNamePrefix = threadNamePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName(String.format(THREAD_NAME_FORMAT, threadNamePrefix, threadCounter.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accumulates file events between two index updates and reduces them to the net change of each path: a file
+ * changed ten times is indexed once, a file created then deleted is not touched, and a file deleted then created
+ * again is re-indexed. Moves and renames are a deletion of the old path and a creation of the new one.
+ * <p>
+ * Directories are tracked apart: a deleted directory removes every file under it, and a created directory is
+ * walked when the changes are applied since the file system does not report its children one by one.
+ */
+final class FileChangeBatcher {
+
+    private enum Change {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    /**
+     * The net changes of a batch, in the order the paths were first reported.
+     */
+    record ChangeSet(Set<String> updatedFiles, Set<String> deletedFiles, Set<String> createdDirectories,
+                     Set<String> deletedDirectories) {
+
+        boolean isEmpty() {
+            return updatedFiles.isEmpty() && deletedFiles.isEmpty()
+                    && createdDirectories.isEmpty() && deletedDirectories.isEmpty();
+        }
+    }
+
+    private Map<String, Change> files = new LinkedHashMap<>();
+    private Set<String> createdDirectories = new LinkedHashSet<>();
+    private Set<String> deletedDirectories = new LinkedHashSet<>();
+
+    synchronized void created(String path, boolean directory) {
+        if (directory) {
+            createdDirectories.add(path);
+            return;
+        }
+        Change previous = files.get(path);
+        files.put(path, previous == null || previous == Change.CREATED ? Change.CREATED : Change.UPDATED);
+    }
+
+    synchronized void changed(String path) {
+        files.merge(path, Change.UPDATED, (previous, change) -> previous == Change.CREATED ? previous : change);
+    }
+
+    synchronized void deleted(String path, boolean directory) {
+        if (directory) {
+            String prefix = path + "/";
+            files.keySet().removeIf(file -> file.startsWith(prefix));
+            createdDirectories.removeIf(created -> created.equals(path) || created.startsWith(prefix));
+            deletedDirectories.add(path);
+            return;
+        }
+        if (files.get(path) == Change.CREATED) {
+            files.remove(path);
+        } else {
+            files.put(path, Change.DELETED);
+        }
+    }
+
+    synchronized void moved(String from, String to, boolean directory) {
+        deleted(from, directory);
+        created(to, directory);
+    }
+
+    synchronized boolean isEmpty() {
+        return files.isEmpty() && createdDirectories.isEmpty() && deletedDirectories.isEmpty();
+    }
+
+    /**
+     * @return the net changes recorded since the previous call
+     */
+    synchronized ChangeSet drain() {
+        Set<String> updated = new LinkedHashSet<>();
+        Set<String> deleted = new LinkedHashSet<>();
+        files.forEach((path, change) -> (change == Change.DELETED ? deleted : updated).add(path));
+        ChangeSet changes = new ChangeSet(updated, deleted, createdDirectories, deletedDirectories);
+        files = new LinkedHashMap<>();
+        createdDirectories = new LinkedHashSet<>();
+        deletedDirectories = new LinkedHashSet<>();
+        return changes;
+    }
+}
@@ -1,31 +1,40 @@
 package fr.baretto.ollamassist.chat.rag;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import fr.baretto.ollamassist.setting.OllamAssistSettings;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Stream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 @Slf4j
 public class FilesUtil {
 
     private static final String NOTIFICATION_GROUP = "RAG_Indexation";
     private static final String LIMIT_REACHED_TITLE = "Limit reached";
+    private static final int EXCLUDED_DIRECTORIES_CACHE_SIZE = 50_000;
+    private static final Duration EXCLUDED_DIRECTORIES_CACHE_TTL = Duration.ofMinutes(5);
     private static final String LIMIT_REACHED_MESSAGE_FORMAT = "Maximum indexable files limit (%d) exceeded. Editing or creating files will trigger their indexing.";
 
     private final Project project;
@@ -33,6 +42,10 @@ public class FilesUtil {
     private final ShouldBeIndexed shouldBeIndexed;
     @Getter
     private final int maxFiles;
+    private final Cache<String, Boolean> excludedDirectories = Caffeine.newBuilder()
+            .maximumSize(EXCLUDED_DIRECTORIES_CACHE_SIZE)
+            .expireAfterWrite(EXCLUDED_DIRECTORIES_CACHE_TTL)
+            .build();
 
     public FilesUtil(Project project) {
         this(project, ProjectFileIndex.getInstance(project), new ShouldBeIndexed(), OllamAssistSettings.getInstance().getIndexationSize());
@@ -46,74 +59,154 @@ public class FilesUtil {
     }
 
     public List<String> collectFilePaths() {
-        return ReadAction.nonBlocking(this::collectFilePathsInternal).executeSynchronously();
+        List<String> filePaths = Collections.synchronizedList(new ArrayList<>());
+        streamFilePaths(filePaths::add, () -> false);
+        return filePaths;
     }
 
-    List<String> collectFilePathsInternal() {
-        VirtualFile baseDir = project.getBaseDir();
-        AtomicInteger count = new AtomicInteger(0);
-        List<String> sourceFiles = new ArrayList<>(getMaxFiles());
-        List<String> otherFiles = new ArrayList<>(getMaxFiles());
+    /**
+     * Hands every indexable file to {@code consumer}, up to {@link #getMaxFiles()} files, so indexing starts before
+     * the whole project has been walked.
+     * <p>
+     * The first level of each content root is listed first, then every top-level directory is walked in its own
+     * non-blocking read action on a bounded pool: a write action only restarts the directory being walked. Past the
+     * limit, source files are kept first, and the files kept do not depend on which walk finishes first, see
+     * {@link OrderedFileSelection}: source files are handed over as soon as the directories before theirs are
+     * walked, the other files once the whole project is. Walks stop at the next file once {@code cancelled} is true.
+     * The consumer may be called from several threads.
+     *
+     * @return the number of files handed to the consumer, {@link #getMaxFiles()} when the limit was reached, 0 once
+     * cancelled
+     */
+    public int streamFilePaths(Consumer<String> consumer, BooleanSupplier cancelled) {
+        OrderedFileSelection selection = new OrderedFileSelection(getMaxFiles(), consumer);
+        int rootFiles = selection.startWalk();
+        List<VirtualFile> directories = ReadAction.nonBlocking(() -> {
+            selection.restartWalk(rootFiles);
+            return listContentRoots(file -> selection.add(rootFiles, file.getPath(), fileIndex.isInSource(file)),
+                    () -> cancelled.getAsBoolean() || selection.isSettled(rootFiles));
+        }).executeSynchronously();
+        selection.walkDone(rootFiles);
+
+        ExecutorService walkers = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "OllamAssist file collection", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        try {
+            List<Future<?>> walks = new ArrayList<>(directories.size());
+            for (VirtualFile directory : directories) {
+                int walkId = selection.startWalk();
+                walks.add(walkers.submit(() -> {
+                    ReadAction.nonBlocking(() -> {
+                        selection.restartWalk(walkId);
+                        return walk(directory, file -> selection.add(walkId, file.getPath(), fileIndex.isInSource(file)),
+                                () -> cancelled.getAsBoolean() || selection.isSettled(walkId));
+                    }).executeSynchronously();
+                    selection.walkDone(walkId);
+                }));
+            }
+            for (Future<?> walk : walks) {
+                walk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("File collection interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("File collection failed", e.getCause());
+        } finally {
+            walkers.shutdownNow();
+        }
 
-        VfsUtilCore.visitChildrenRecursively(baseDir, new VirtualFileVisitor<>() {
-            @Override
-            public boolean visitFile(@NotNull VirtualFile file) {
-                if (count.get() >= getMaxFiles()) {
-                    return false;
+        if (cancelled.getAsBoolean()) {
+            return 0;
+        }
+        int handed = selection.finish();
+        if (handed >= getMaxFiles()) {
+            notifyLimitReached();
+        }
+        return handed;
+    }
+
+    /**
+     * Hands over the files directly under the content roots and returns their subdirectories to walk.
+     * Content roots nested in another one are walked with it.
+     */
+    private List<VirtualFile> listContentRoots(Consumer<VirtualFile> sink, BooleanSupplier stop) {
+        List<VirtualFile> roots = new ArrayList<>(List.of(ProjectRootManager.getInstance(project).getContentRoots()));
+        if (roots.isEmpty() && project.getBaseDir() != null) {
+            roots.add(project.getBaseDir());
+        }
+        roots.sort(Comparator.comparing(VirtualFile::getPath));
+
+        List<VirtualFile> directories = new ArrayList<>();
+        String previousRoot = null;
+        for (VirtualFile root : roots) {
+            if (previousRoot != null && root.getPath().startsWith(previousRoot + "/")) {
+                continue;
+            }
+            previousRoot = root.getPath();
+            if (!root.isValid() || shouldSkipFile(root)) {
+                continue;
+            }
+            for (VirtualFile child : root.getChildren()) {
+                if (stop.getAsBoolean()) {
+                    return directories;
+                }
+                if (child.isDirectory()) {
+                    if (!shouldSkipFile(child)) {
+                        directories.add(child);
+                    }
+                } else if (shouldProcessFile(child)) {
+                    sink.accept(child);
                 }
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * @return the indexable files under a directory created or moved into the project, up to
+     * {@link #getMaxFiles()} files
+     */
+    public List<String> collectFilePaths(@NotNull VirtualFile directory) {
+        List<String> filePaths = new ArrayList<>();
+        ReadAction.nonBlocking(() -> {
+            // a restarted read action walks the directory again
+            filePaths.clear();
+            return walk(directory, file -> filePaths.add(file.getPath()), () -> filePaths.size() >= getMaxFiles());
+        }).executeSynchronously();
+        return filePaths;
+    }
 
-                if (shouldSkipFile(file)) {
+    private Void walk(VirtualFile directory, Consumer<VirtualFile> sink, BooleanSupplier stop) {
+        VfsUtilCore.visitChildrenRecursively(directory, new VirtualFileVisitor<>() {
+            @Override
+            public boolean visitFile(@NotNull VirtualFile file) {
+                if (stop.getAsBoolean() || shouldSkipFile(file)) {
                     return false;
                 }
-
                 if (shouldProcessFile(file)) {
-                    addFileToProperList(file, sourceFiles, otherFiles, count);
+                    sink.accept(file);
                 }
-
                 return true;
             }
         });
-
-        return mergeAndLimitResults(sourceFiles, otherFiles);
-
+        return null;
     }
 
     boolean shouldSkipFile(VirtualFile file) {
         return file.isDirectory() && shouldExcludedDirectory(file);
     }
 
+    /**
+     * Source files are processed whatever the included entries of the sources setting, but its exclusions still
+     * apply to them.
+     */
     boolean shouldProcessFile(VirtualFile file) {
-        return !file.isDirectory() &&
-                (fileIndex.isInSource(file) || shouldBeIndexed(file));
-    }
-
-    void addFileToProperList(VirtualFile file,
-                             List<String> sources,
-                             List<String> others,
-                             AtomicInteger counter) {
-        if (fileIndex.isInSource(file)) {
-            if (sources.size() < getMaxFiles()) {
-                sources.add(file.getPath());
-                counter.incrementAndGet();
-            }
-        } else {
-            if (counter.get() < getMaxFiles()) {
-                others.add(file.getPath());
-                counter.incrementAndGet();
-            }
+        if (file.isDirectory()) {
+            return false;
         }
-    }
-
-    private List<String> mergeAndLimitResults(List<String> sources, List<String> others) {
-        List<String> result = Stream.concat(sources.stream(), others.stream())
-                .limit(getMaxFiles())
-                .toList();
-
-        if (result.size() >= getMaxFiles()) {
-            notifyLimitReached();
-        }
-
-        return result;
+        return fileIndex.isInSource(file)
+                ? !shouldBeIndexed.excludes(Path.of(file.getPath()))
+                : shouldBeIndexed(file);
     }
 
     private void notifyLimitReached() {
@@ -126,11 +219,15 @@ public class FilesUtil {
                 ));
     }
 
+    /**
+     * Decisions are cached per directory: asking ChangeListManager is the costly part of the walk, and restarted
+     * read actions or the next collection would otherwise ask again for every directory.
+     */
     boolean shouldExcludedDirectory(@NotNull VirtualFile file) {
-        return fileIndex.isExcluded(file)
+        return excludedDirectories.get(file.getPath(), path -> fileIndex.isExcluded(file)
                 || file.getName().startsWith(".")
                 || fileIndex.isUnderIgnored(file)
-                || isIgnoredByGit(file);
+                || isIgnoredByGit(file));
     }
 
     public boolean isIgnoredByGit(@NotNull VirtualFile file) {
@@ -8,7 +8,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 
 /**
- * A filter to match documents with a specific ID.
+ * A filter to match every segment indexed for a file, given its path.
  */
 @RequiredArgsConstructor
 @Getter
@@ -19,10 +19,10 @@ public class IdStartWithFilter implements Filter {
     /**
      * Converts this filter into a Lucene query.
      *
-     * @return A Lucene {@link TermQuery} targeting the "id" field.
+     * @return A Lucene {@link TermQuery} targeting the file path keyword of the segments.
      */
     public Query toLuceneQuery() {
-        return new TermQuery(new Term("id", id));
+        return new TermQuery(new Term(SegmentFields.FILE_PATH, SegmentFields.normalizePath(id)));
     }
 
     @Override
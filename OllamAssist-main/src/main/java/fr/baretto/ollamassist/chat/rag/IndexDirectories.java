@@ -0,0 +1,121 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Directories of a knowledge index being rebuilt next to the one serving searches, and the swap between them.
+ * <p>
+ * Each project keeps its indexes in a directory named after the project and a hash of its
+ * {@link IndexRegistry#projectKey registry key}, so projects sharing a name do not share an index.
+ * <p>
+ * The rebuilt index lives in a {@code _next} sibling of the index. Once complete, the index is moved aside to a
+ * {@code _previous} sibling and the rebuilt one takes its place, two directory renames which either leave the
+ * previous index in place or the rebuilt one. {@link #recover(Path, boolean)} finishes or rolls back a swap
+ * interrupted in between.
+ */
+final class IndexDirectories {
+
+    private static final String REBUILD_SUFFIX = "_next";
+    private static final String PREVIOUS_SUFFIX = "_previous";
+    private static final String DATABASE_DIRECTORY = "database";
+    private static final int PROJECT_HASH_LENGTH = 12;
+
+    private IndexDirectories() {
+    }
+
+    static Path projectDirectory(Path root, String projectName, String projectKey) {
+        String name = projectName.replaceAll("[^A-Za-z0-9._-]", "_");
+        return root.resolve(name + "-" + ContentHash.of(projectKey).substring(0, PROJECT_HASH_LENGTH));
+    }
+
+    /**
+     * Moves the indexes stored by earlier versions in a directory named after the project alone to the project
+     * directory, unless the latter already holds indexes.
+     */
+    static void migrateLegacyDirectory(Path legacyDirectory, Path projectDirectory) throws IOException {
+        Path legacyDatabase = legacyDirectory.resolve(DATABASE_DIRECTORY);
+        Path database = projectDirectory.resolve(DATABASE_DIRECTORY);
+        if (!Files.isDirectory(legacyDatabase) || Files.exists(database)) {
+            return;
+        }
+        Files.createDirectories(projectDirectory);
+        Files.move(legacyDatabase, database, StandardCopyOption.ATOMIC_MOVE);
+        try (Stream<Path> remaining = Files.list(legacyDirectory)) {
+            if (remaining.findAny().isEmpty()) {
+                Files.delete(legacyDirectory);
+            }
+        }
+    }
+
+    static Path rebuildPath(Path indexPath) {
+        return indexPath.resolveSibling(indexPath.getFileName() + REBUILD_SUFFIX);
+    }
+
+    static Path previousPath(Path indexPath) {
+        return indexPath.resolveSibling(indexPath.getFileName() + PREVIOUS_SUFFIX);
+    }
+
+    /**
+     * Replaces the index with the rebuilt one. Every index must be closed: an open file prevents the renames on
+     * Windows, in which case the index is left in place and the exception thrown.
+     */
+    static void swap(Path indexPath) throws IOException {
+        Path rebuildPath = rebuildPath(indexPath);
+        Path previousPath = previousPath(indexPath);
+        deleteRecursively(previousPath);
+        if (Files.exists(indexPath)) {
+            Files.move(indexPath, previousPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(rebuildPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (Files.exists(previousPath)) {
+                Files.move(previousPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        deleteRecursively(previousPath);
+    }
+
+    /**
+     * Brings the directories back to a consistent state before the index is opened: a complete rebuild replaces the
+     * index, and an index moved aside by an interrupted swap is restored when the rebuild cannot replace it.
+     *
+     * @param rebuildComplete whether the rebuilt index holds a complete indexation for the current settings
+     */
+    static void recover(Path indexPath, boolean rebuildComplete) throws IOException {
+        Path previousPath = previousPath(indexPath);
+        boolean canSwap = rebuildComplete && Files.isDirectory(rebuildPath(indexPath));
+        if (canSwap) {
+            swap(indexPath);
+        } else if (!Files.exists(indexPath) && Files.isDirectory(previousPath)) {
+            Files.move(previousPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            deleteRecursively(previousPath);
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(path)) {
+            stream.sorted(Comparator.reverseOrder())
+                    .forEach(file -> {
+                        try {
+                            Files.delete(file);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
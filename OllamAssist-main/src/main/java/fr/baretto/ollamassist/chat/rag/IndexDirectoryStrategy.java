@@ -0,0 +1,89 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * How the knowledge index files are accessed on disk.
+ * <p>
+ * HNSW graph traversal performs random reads over the vector files, which are much cheaper through mmap,
+ * while stored fields are read sequentially a few documents at a time and do fine with plain NIO.
+ */
+@Slf4j
+public enum IndexDirectoryStrategy {
+
+    /**
+     * Every index file is memory-mapped.
+     */
+    MMAP {
+        @Override
+        public Directory open(Path path) throws IOException {
+            if (!MMapDirectory.UNMAP_SUPPORTED) {
+                log.warn("Memory mapping unavailable ({}), falling back to NIO", MMapDirectory.UNMAP_NOT_SUPPORTED_REASON);
+                return NIO.open(path);
+            }
+            try {
+                return new MMapDirectory(path, new SingleInstanceLockFactory());
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to memory-map the knowledge index, falling back to NIO", e);
+                return NIO.open(path);
+            }
+        }
+    },
+
+    /**
+     * Every index file is read through positional NIO reads.
+     */
+    NIO {
+        @Override
+        public Directory open(Path path) throws IOException {
+            return new NIOFSDirectory(path, new SingleInstanceLockFactory());
+        }
+    },
+
+    /**
+     * Vector data and HNSW graph files are memory-mapped, everything else (stored fields, postings) goes through NIO.
+     * Compound files are disabled so that vector files stay visible to the switch.
+     */
+    HYBRID {
+        @Override
+        public Directory open(Path path) throws IOException {
+            Directory nio = NIO.open(path);
+            if (!MMapDirectory.UNMAP_SUPPORTED) {
+                log.warn("Memory mapping unavailable ({}), falling back to NIO", MMapDirectory.UNMAP_NOT_SUPPORTED_REASON);
+                return nio;
+            }
+            try {
+                return new FileSwitchDirectory(VECTOR_FILE_EXTENSIONS, new MMapDirectory(path, new SingleInstanceLockFactory()), nio, true);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to memory-map the knowledge index vectors, falling back to NIO", e);
+                return nio;
+            }
+        }
+
+        @Override
+        public void configure(IndexWriterConfig config) {
+            config.setUseCompoundFile(false);
+            config.getMergePolicy().setNoCFSRatio(0.0);
+        }
+    };
+
+    /**
+     * Raw vectors (vec), HNSW graph (vex) and quantized vectors (veq) of the Lucene99 vector formats.
+     */
+    private static final Set<String> VECTOR_FILE_EXTENSIONS = Set.of("vec", "vex", "veq");
+
+    public abstract Directory open(Path path) throws IOException;
+
+    /**
+     * Adapts the writer configuration to the file layout this strategy expects.
+     */
+    public void configure(IndexWriterConfig config) {
+        // Default Lucene configuration
+    }
+}
@@ -0,0 +1,18 @@
+package fr.baretto.ollamassist.chat.rag;
+
+/**
+ * Controls how often the knowledge index is committed (fsynced) to disk.
+ */
+public enum IndexDurability {
+
+    /**
+     * Every write is committed immediately. Safest, but each ingested file costs a full fsync.
+     */
+    COMMIT_ON_WRITE,
+
+    /**
+     * Writes are buffered in the IndexWriter and committed periodically, when enough documents are pending,
+     * at pipeline batch boundaries and on close. Searches still see buffered writes through NRT readers.
+     */
+    GROUP_COMMIT
+}
@@ -1,5 +1,6 @@
 package fr.baretto.ollamassist.chat.rag;
 
+import com.intellij.openapi.project.Project;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -9,16 +10,30 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
+/**
+ * Tracks which projects are indexed, when, and whether their index is corrupted.
+ * <p>
+ * Entries live in a concurrent map persisted to {@code indexed_projects.txt}: each change rewrites the file
+ * through a temporary file renamed over it, so a crash leaves either the previous or the new content. The file is
+ * only parsed again when it changed on disk since it was last read or written, typically by another IDE instance.
+ * Projects are keyed by {@link #projectKey(Project)}.
+ */
 @Slf4j
 public class IndexRegistry {
 
@@ -29,7 +44,12 @@ public class IndexRegistry {
     public static final String OLLAMASSIST_DIR = String.format(OLLAMASSIST_DIR_FORMAT, USER_HOME, File.separator);
     private static final String PROJECTS_FILE = String.format(PROJECTS_FILE_FORMAT, OLLAMASSIST_DIR, File.separator);
     private static final String SEPARATOR = ",";
-    private final Set<String> currentIndexations = new HashSet<>();
+    private static final int STATS_FIELDS = 4;
+    private final Set<String> currentIndexations = ConcurrentHashMap.newKeySet();
+    private final Map<String, ProjectMetadata> projects = new ConcurrentHashMap<>();
+    private final Path projectsFile = Paths.get(PROJECTS_FILE);
+    private final Object fileLock = new Object();
+    private volatile FileStamp loadedStamp;
 
 
     public IndexRegistry() {
@@ -37,12 +57,20 @@ public class IndexRegistry {
         ensureFileExists();
     }
 
+    /**
+     * @return the key identifying a project in the registry: its base path, so projects sharing a name do not
+     * share an entry, or its name when it has no base path
+     */
+    public static String projectKey(Project project) {
+        String basePath = project.getBasePath();
+        return basePath != null ? basePath : project.getName();
+    }
+
     public boolean isIndexed(String projectId) {
         if (currentIndexations.contains(projectId)) {
             return true;
         }
-        Map<String, ProjectMetadata> indexedProjects = getIndexedProjects();
-        ProjectMetadata metadata = indexedProjects.get(projectId);
+        ProjectMetadata metadata = currentProjects().get(projectId);
         if (metadata == null) {
             return false;
         }
@@ -58,6 +86,13 @@ public class IndexRegistry {
         currentIndexations.add(projectId);
     }
 
+    /**
+     * @return false when an indexation of the project is already running
+     */
+    public boolean tryMarkAsCurrentIndexation(String projectId) {
+        return currentIndexations.add(projectId);
+    }
+
     public void removeFromCurrentIndexation(String projectId) {
         currentIndexations.remove(projectId);
     }
@@ -67,57 +102,100 @@ public class IndexRegistry {
     }
 
     public void markAsIndexed(String projectId) {
-        Map<String, ProjectMetadata> projects = getIndexedProjects();
-        projects.put(projectId, new ProjectMetadata(LocalDate.now(), false));
-        writeProjectsToFile(projects);
+        markAsIndexed(projectId, null);
+    }
+
+    /**
+     * @param stats the size of the index once the indexation completed, or null when unknown
+     */
+    public void markAsIndexed(String projectId, KnowledgeIndexStats stats) {
+        update(projectId, existing -> new ProjectMetadata(LocalDate.now(), false, stats));
     }
 
     public boolean isCorrupted(String projectId) {
-        ProjectMetadata metadata = getIndexedProjects().get(projectId);
+        ProjectMetadata metadata = currentProjects().get(projectId);
         return metadata != null && metadata.isCorrupted();
     }
 
     public void markAllAsCorrupted() {
-        getIndexedProjects().keySet().forEach(this::markAsCorrupted);
+        synchronized (fileLock) {
+            Map<String, ProjectMetadata> current = currentProjects();
+            current.replaceAll((projectId, existing) ->
+                    new ProjectMetadata(existing.getLastIndexedDate(), true, existing.getStats()));
+            persist();
+        }
     }
 
     public void markAsCleared(String projectId) {
-        Map<String, ProjectMetadata> projects = getIndexedProjects();
-        ProjectMetadata existing = projects.get(projectId);
-        if (existing != null) {
-            projects.put(projectId, new ProjectMetadata(existing.getLastIndexedDate(), false));
-        } else {
-            projects.put(projectId, new ProjectMetadata(LocalDate.now(), false));
-        }
-        writeProjectsToFile(projects);
+        update(projectId, existing -> existing != null
+                ? new ProjectMetadata(existing.getLastIndexedDate(), false, existing.getStats())
+                : new ProjectMetadata(LocalDate.now(), false, null));
     }
 
     public void markAsCorrupted(String projectId) {
-        Map<String, ProjectMetadata> projects = getIndexedProjects();
-        ProjectMetadata existing = projects.get(projectId);
-        if (existing != null) {
-            projects.put(projectId, new ProjectMetadata(existing.getLastIndexedDate(), true));
-        } else {
-            projects.put(projectId, new ProjectMetadata(LocalDate.now(), true));
-        }
-        writeProjectsToFile(projects);
+        update(projectId, existing -> existing != null
+                ? new ProjectMetadata(existing.getLastIndexedDate(), true, existing.getStats())
+                : new ProjectMetadata(LocalDate.now(), true, null));
     }
 
+    /**
+     * @return a snapshot of the registered projects
+     */
     public Map<String, ProjectMetadata> getIndexedProjects() {
-        Map<String, ProjectMetadata> projects = new HashMap<>();
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(PROJECTS_FILE))) {
+        return new HashMap<>(currentProjects());
+    }
+
+    public void removeProject(String projectId) {
+        synchronized (fileLock) {
+            if (currentProjects().remove(projectId) != null) {
+                persist();
+            }
+        }
+    }
+
+    private void update(String projectId, UnaryOperator<ProjectMetadata> change) {
+        synchronized (fileLock) {
+            Map<String, ProjectMetadata> current = currentProjects();
+            current.put(projectId, change.apply(current.get(projectId)));
+            persist();
+        }
+    }
+
+    /**
+     * @return the live map of projects, reloaded first when the file changed on disk since it was last read or
+     * written
+     */
+    private Map<String, ProjectMetadata> currentProjects() {
+        FileStamp stamp = FileStamp.of(projectsFile);
+        if (!Objects.equals(stamp, loadedStamp)) {
+            synchronized (fileLock) {
+                stamp = FileStamp.of(projectsFile);
+                if (!Objects.equals(stamp, loadedStamp)) {
+                    Map<String, ProjectMetadata> loaded = readProjectsFromFile();
+                    projects.keySet().retainAll(loaded.keySet());
+                    projects.putAll(loaded);
+                    loadedStamp = stamp;
+                }
+            }
+        }
+        return projects;
+    }
+
+    private Map<String, ProjectMetadata> readProjectsFromFile() {
+        Map<String, ProjectMetadata> loaded = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(projectsFile, CHARSET)) {
             String line;
             while ((line = reader.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty() || line.startsWith(",")) continue;
 
-                String[] parts = line.split(SEPARATOR, 3);
+                String[] parts = line.split(SEPARATOR, 3 + STATS_FIELDS);
                 if (parts.length >= 2) {
-                    String projectId = parts[0].trim();
+                    String projectId = decode(parts[0].trim());
                     try {
                         LocalDate date = LocalDate.parse(parts[1].trim());
                         boolean isCorrupted = parts.length >= 3 && Boolean.parseBoolean(parts[2].trim());
-                        projects.put(projectId, new ProjectMetadata(date, isCorrupted));
+                        loaded.put(projectId, new ProjectMetadata(date, isCorrupted, parseStats(parts)));
                     } catch (DateTimeParseException e) {
                         log.warn("Invalid date format for project {}: {}", parts[0], parts[1]);
                     }
@@ -128,28 +206,70 @@ public class IndexRegistry {
         } catch (IOException e) {
             log.error("Error reading indexed projects file", e);
         }
-        return projects;
+        return loaded;
     }
 
-    public void removeProject(String projectId) {
-        Map<String, ProjectMetadata> projects = getIndexedProjects();
-        if (projects.remove(projectId) != null) {
-            writeProjectsToFile(projects);
+    private static KnowledgeIndexStats parseStats(String[] parts) {
+        if (parts.length < 3 + STATS_FIELDS) {
+            return null;
+        }
+        try {
+            return new KnowledgeIndexStats(Long.parseLong(parts[3].trim()), Integer.parseInt(parts[4].trim()),
+                    Integer.parseInt(parts[5].trim()), Integer.parseInt(parts[6].trim()));
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
-    private void writeProjectsToFile(Map<String, ProjectMetadata> projects) {
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(PROJECTS_FILE))) {
-            for (Map.Entry<String, ProjectMetadata> entry : projects.entrySet()) {
-                ProjectMetadata metadata = entry.getValue();
-                writer.write(String.format("%s%s%s%s%s", entry.getKey(), SEPARATOR, metadata.getLastIndexedDate(), SEPARATOR, metadata.isCorrupted()));
-                writer.newLine();
+    /**
+     * Writes the projects to a temporary file renamed over the registry. Must be called holding {@link #fileLock}.
+     */
+    private void persist() {
+        Path temporary = projectsFile.resolveSibling(projectsFile.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, CHARSET)) {
+                for (Map.Entry<String, ProjectMetadata> entry : projects.entrySet()) {
+                    writer.write(format(entry.getKey(), entry.getValue()));
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(temporary, projectsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, projectsFile, StandardCopyOption.REPLACE_EXISTING);
             }
+            loadedStamp = FileStamp.of(projectsFile);
         } catch (IOException e) {
             log.error("Error updating indexed projects file", e);
         }
     }
 
+    private static String format(String projectId, ProjectMetadata metadata) {
+        StringBuilder line = new StringBuilder()
+                .append(encode(projectId)).append(SEPARATOR)
+                .append(metadata.getLastIndexedDate()).append(SEPARATOR)
+                .append(metadata.isCorrupted());
+        KnowledgeIndexStats stats = metadata.getStats();
+        if (stats != null) {
+            line.append(SEPARATOR).append(stats.sizeBytes())
+                    .append(SEPARATOR).append(stats.documents())
+                    .append(SEPARATOR).append(stats.deletedDocuments())
+                    .append(SEPARATOR).append(stats.segments());
+        }
+        return line.toString();
+    }
+
+    /**
+     * Escapes the characters of a base path that would break the line format.
+     */
+    private static String encode(String projectId) {
+        return projectId.replace("%", "%25").replace(",", "%2C").replace("\n", "%0A").replace("\r", "%0D");
+    }
+
+    private static String decode(String projectId) {
+        return projectId.replace("%0D", "\r").replace("%0A", "\n").replace("%2C", ",").replace("%25", "%");
+    }
+
     private void ensureDirectoryExists() {
         try {
             Files.createDirectories(Paths.get(OLLAMASSIST_DIR));
@@ -160,27 +280,52 @@ public class IndexRegistry {
 
     private void ensureFileExists() {
         try {
-            Path path = Paths.get(PROJECTS_FILE);
-            if (Files.notExists(path)) {
-                Files.createFile(path);
+            if (Files.notExists(projectsFile)) {
+                Files.createFile(projectsFile);
             }
         } catch (IOException e) {
             log.error("Error creating indexed projects file", e);
         }
     }
 
+    /**
+     * Identifies a version of the registry file without reading it.
+     */
+    private record FileStamp(long lastModifiedNanos, long size, Object fileKey) {
+
+        static FileStamp of(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new FileStamp(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                        attributes.size(), attributes.fileKey());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
     public static class ProjectMetadata {
         @Getter
         private final LocalDate lastIndexedDate;
         private final boolean isCorrupted;
+        /**
+         * The size of the index when the last indexation completed, or null when unknown.
+         */
+        @Getter
+        private final KnowledgeIndexStats stats;
 
         ProjectMetadata(LocalDate lastIndexedDate, boolean isCorrupted) {
+            this(lastIndexedDate, isCorrupted, null);
+        }
+
+        ProjectMetadata(LocalDate lastIndexedDate, boolean isCorrupted, KnowledgeIndexStats stats) {
             this.lastIndexedDate = lastIndexedDate;
             this.isCorrupted = isCorrupted;
+            this.stats = stats;
         }
 
         public boolean isCorrupted() {
             return isCorrupted;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Files waiting to be indexed, served by {@link Priority} first, then most recently modified first, then in
+ * arrival order.
+ * <p>
+ * Offering a queued file again replaces its entry, so a file opened in the editor or edited while the project is
+ * bulk-indexed moves ahead of the remaining files. Replaced and removed entries stay in the heap and are skipped when polled.
+ */
+final class IndexingQueue {
+
+    enum Priority {
+        /**
+         * Open in an editor.
+         */
+        FOCUSED,
+        /**
+         * Reported by a file event, outside of bulk indexing.
+         */
+        EDITED,
+        /**
+         * Under a source root.
+         */
+        SOURCE,
+        OTHER
+    }
+
+    private record Entry(String path, Priority priority, long lastModified, long sequence) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.comparing(Entry::priority)
+            .thenComparing(Comparator.comparingLong(Entry::lastModified).reversed())
+            .thenComparingLong(Entry::sequence);
+
+    private final PriorityBlockingQueue<Entry> heap = new PriorityBlockingQueue<>(64, ORDER);
+    private final Map<String, Entry> queued = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Queues a file, or moves it to a higher priority when it is already queued. A lower priority never demotes
+     * a queued file.
+     *
+     * @return true when the file was not queued yet
+     */
+    boolean offer(String path, Priority priority, long lastModified) {
+        Entry entry = new Entry(path, priority, lastModified, sequence.incrementAndGet());
+        Entry[] previous = new Entry[1];
+        Entry current = queued.compute(path, (key, existing) -> {
+            previous[0] = existing;
+            return existing == null || ORDER.compare(entry, existing) < 0 ? entry : existing;
+        });
+        if (current == entry) {
+            heap.offer(entry);
+        }
+        return previous[0] == null;
+    }
+
+    /**
+     * @return the file to index next, or null when the queue is empty
+     */
+    String poll() {
+        Entry entry;
+        while ((entry = heap.poll()) != null) {
+            if (queued.remove(entry.path(), entry)) {
+                return entry.path();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits up to {@code timeout} for a file when the queue is empty.
+     */
+    String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Entry entry = heap.poll(timeout, unit);
+        while (entry != null) {
+            if (queued.remove(entry.path(), entry)) {
+                return entry.path();
+            }
+            entry = heap.poll();
+        }
+        return null;
+    }
+
+    int drainTo(Collection<String> paths) {
+        int drained = 0;
+        String path;
+        while ((path = poll()) != null) {
+            paths.add(path);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Forgets the queued files matching {@code filter}, typically files deleted before being indexed.
+     *
+     * @return the number of files removed from the queue
+     */
+    int removeIf(Predicate<String> filter) {
+        int removed = 0;
+        for (String path : queued.keySet()) {
+            if (filter.test(path) && queued.remove(path) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    boolean contains(String path) {
+        return queued.containsKey(path);
+    }
+
+    boolean isEmpty() {
+        return queued.isEmpty();
+    }
+
+    int size() {
+        return queued.size();
+    }
+}
@@ -4,11 +4,15 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -17,11 +21,12 @@ public class InitEmbeddingStoreTask extends Task.Backgroundable {
 
     private static final String FILES_PROGRESS_FORMAT = "%d/%d files";
     private static final String ERROR_PREFIX = "Failed - ";
+    private static final String FAILED_FILES_FORMAT = "%d files could not be indexed";
 
     private final AtomicInteger processedFiles = new AtomicInteger(0);
     private final IndexRegistry indexationRegistry;
     private final DocumentIndexingPipeline documentIndexingPipeline;
-    private long totalFiles;
+    private final AtomicInteger totalFiles = new AtomicInteger(0);
 
     public InitEmbeddingStoreTask(@Nullable Project project, IndexRegistry indexationRegistry) {
         super(project, "OllamAssist - Knowledge Indexing", true);
@@ -31,40 +36,68 @@ public class InitEmbeddingStoreTask extends Task.Backgroundable {
 
     @Override
     public void run(@NotNull ProgressIndicator indicator) {
-        if (!indexationRegistry.isIndexed(getProject().getName()) || indexationRegistry.isCorrupted(getProject().getName())) {
+        String projectKey = IndexRegistry.projectKey(getProject());
+        if (!indexationRegistry.isIndexed(projectKey) || indexationRegistry.isCorrupted(projectKey)) {
 
-            if (indexationRegistry.isCorrupted(getProject().getName())) {
+            if (indexationRegistry.isCorrupted(projectKey)) {
                 documentIndexingPipeline.handleCorruption();
-                indexationRegistry.markAsCleared(getProject().getName());
+                indexationRegistry.markAsCleared(projectKey);
             }
 
-            indexationRegistry.markAsCurrentIndexation(getProject().getName());
+            if (!indexationRegistry.tryMarkAsCurrentIndexation(projectKey)) {
+                return;
+            }
             ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
             try {
                 indicator.setText("Collecting files...");
+                indicator.setText2("Indexing files...");
                 FilesUtil filesUtil = getProject().getService(FilesUtil.class);
-                List<String> filePaths = filesUtil.collectFilePaths();
-                totalFiles = filePaths.size();
-                if (totalFiles > filesUtil.getMaxFiles()) {
-                    totalFiles = filesUtil.getMaxFiles();
-                    filePaths = filePaths.subList(0, filesUtil.getMaxFiles());
-                    indicator.setText2("Indexing files...");
-                } else {
-                    indicator.setText2("Indexing files...");
-                }
-                documentIndexingPipeline.addAllDocuments(filePaths);
-                documentIndexingPipeline.flush(indicator::isCanceled, indexedFiles -> updateProgress(indicator, indexedFiles));
-
-                if (!indicator.isCanceled()) {
-                    new IndexRegistry().markAsIndexed(getProject().getName());
+                LuceneEmbeddingStore<?> store = getProject().getService(LuceneEmbeddingStore.class);
+                store.markIndexationStarted();
+
+                // files are indexed while the project is still being walked
+                Set<String> filePaths = ConcurrentHashMap.newKeySet();
+                AtomicBoolean collecting = new AtomicBoolean(true);
+                CompletableFuture<Integer> collection = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return filesUtil.streamFilePaths(filePath -> {
+                            filePaths.add(filePath);
+                            totalFiles.incrementAndGet();
+                            documentIndexingPipeline.addDocument(filePath);
+                        }, indicator::isCanceled);
+                    } finally {
+                        collecting.set(false);
+                    }
+                }, AppExecutorUtil.getAppExecutorService());
+                int failedFiles = documentIndexingPipeline.flush(indicator::isCanceled,
+                        indexedFiles -> updateProgress(indicator, indexedFiles), collecting::get);
+                // rethrows a failed collection, whose partial file list must not prune the index
+                int collectedFiles = collection.join();
+
+                if (failedFiles > 0) {
+                    // a partial index neither replaces the serving one nor counts as indexed: the next opening
+                    // of the project resumes the indexation, skipping the files committed so far
+                    log.warn("{} files could not be indexed, the indexation is left incomplete", failedFiles);
+                    indicator.setText2(String.format(FAILED_FILES_FORMAT, failedFiles));
+                } else if (!indicator.isCanceled()) {
+                    // past the limit, files left out of the collection stay indexed, as do the ones indexed on edit
+                    if (collectedFiles < filesUtil.getMaxFiles()) {
+                        store.removeFilesNotIn(filePaths);
+                    }
+                    store.markIndexationCompleted();
+                    indexationRegistry.markAsIndexed(projectKey, store.stats());
                 }
 
             } catch (Exception e) {
                 handleError(e, indicator);
             } finally {
-                indexationRegistry.removeFromCurrentIndexation(getProject().getName());
+                indexationRegistry.removeFromCurrentIndexation(projectKey);
                 Thread.currentThread().setContextClassLoader(originalClassLoader);
             }
+            if (!indicator.isCanceled()) {
+                // the embedding model may have changed while files were being indexed
+                getProject().getService(LuceneEmbeddingStore.class).requestPendingRebuild();
+            }
         }
 
     }
@@ -72,9 +105,9 @@ public class InitEmbeddingStoreTask extends Task.Backgroundable {
     private void updateProgress(ProgressIndicator indicator, int batchSize) {
         processedFiles.addAndGet(batchSize);
         ApplicationManager.getApplication().invokeLater(() -> {
-            double progress = (double) processedFiles.get() / totalFiles;
+            double progress = (double) processedFiles.get() / Math.max(1, totalFiles.get());
             indicator.setFraction(progress);
-            indicator.setText2(String.format(FILES_PROGRESS_FORMAT, processedFiles.get(), totalFiles));
+            indicator.setText2(String.format(FILES_PROGRESS_FORMAT, processedFiles.get(), totalFiles.get()));
         });
     }
 
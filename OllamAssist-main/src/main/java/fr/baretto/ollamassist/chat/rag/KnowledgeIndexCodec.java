@@ -0,0 +1,33 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.FilterCodec;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.perfield.PerFieldKnnVectorsFormat;
+
+/**
+ * Default Lucene codec with a configurable vector format.
+ * <p>
+ * The codec keeps the name of the default codec: the per-field vector format name is recorded in each
+ * segment, so indexes written with any {@link VectorQuantization} can be read back without registering
+ * this class through SPI.
+ */
+public class KnowledgeIndexCodec extends FilterCodec {
+
+    private final KnnVectorsFormat knnVectorsFormat;
+
+    public KnowledgeIndexCodec(KnnVectorsFormat vectorsFormat) {
+        super(Codec.getDefault().getName(), Codec.getDefault());
+        this.knnVectorsFormat = new PerFieldKnnVectorsFormat() {
+            @Override
+            public KnnVectorsFormat getKnnVectorsFormatForField(String field) {
+                return vectorsFormat;
+            }
+        };
+    }
+
+    @Override
+    public KnnVectorsFormat knnVectorsFormat() {
+        return knnVectorsFormat;
+    }
+}
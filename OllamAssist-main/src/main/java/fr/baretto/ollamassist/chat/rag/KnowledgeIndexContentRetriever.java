@@ -0,0 +1,57 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ContentRetriever} over the project knowledge index.
+ * Unlike langchain4j's {@code EmbeddingStoreContentRetriever}, it forwards the query text to the store so that
+ * {@link RetrievalMode#HYBRID} can match identifiers lexically. The score of each content is the similarity of its
+ * vector with the query, whichever search found it.
+ */
+public class KnowledgeIndexContentRetriever implements ContentRetriever {
+
+    private final LuceneEmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final int maxResults;
+    private final double minScore;
+    private final RetrievalMode retrievalMode;
+
+    public KnowledgeIndexContentRetriever(LuceneEmbeddingStore<TextSegment> embeddingStore,
+                                          EmbeddingModel embeddingModel,
+                                          int maxResults,
+                                          double minScore,
+                                          RetrievalMode retrievalMode) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+        this.retrievalMode = retrievalMode;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        Embedding queryEmbedding = embeddingModel.embed(query.text()).content();
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(maxResults)
+                .minScore(minScore)
+                .build();
+        String queryText = retrievalMode == RetrievalMode.HYBRID ? query.text() : null;
+
+        return embeddingStore.search(request, queryText).matches().stream()
+                .map(match -> Content.from(match.embedded(), Map.of(
+                        ContentMetadata.SCORE, match.score(),
+                        ContentMetadata.EMBEDDING_ID, match.embeddingId())))
+                .toList();
+    }
+}
@@ -0,0 +1,116 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import dev.langchain4j.data.segment.TextSegment;
+import fr.baretto.ollamassist.setting.OllamAssistSettings;
+import fr.baretto.ollamassist.setting.RAGSettings;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the knowledge index of a project lean between indexations: periodically removes the files deleted from
+ * disk while the IDE was not watching (closed, or files changed by an external tool outside of VFS refreshes) and
+ * those the sources setting no longer selects, then merges away deleted and replaced documents once they exceed
+ * {@link RAGSettings#getIndexMaintenanceMaxDeletedRatio()} of the index.
+ * <p>
+ * Maintenance is skipped while an indexation of the project runs.
+ */
+@Slf4j
+public final class KnowledgeIndexMaintenance implements Disposable {
+
+    private static final long INITIAL_DELAY_MINUTES = 5;
+
+    private final Project project;
+    private final ScheduledExecutorService executor =
+            AppExecutorUtil.createBoundedScheduledExecutorService("OllamAssist index maintenance", 1);
+    private volatile ScheduledFuture<?> scheduledMaintenance;
+
+    public KnowledgeIndexMaintenance(Project project) {
+        this.project = project;
+    }
+
+    public synchronized void start() {
+        if (scheduledMaintenance == null) {
+            int interval = Math.max(1, RAGSettings.getInstance().getIndexMaintenanceIntervalMinutes());
+            scheduledMaintenance = executor.scheduleWithFixedDelay(this::runMaintenance,
+                    INITIAL_DELAY_MINUTES, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    public KnowledgeIndexStats stats() {
+        return store().stats();
+    }
+
+    void runMaintenance() {
+        if (project.isDisposed() || !OllamAssistSettings.getInstance().ragEnabled()
+                || ApplicationManager.getApplication().getService(IndexRegistry.class)
+                .indexationIsProcessing(IndexRegistry.projectKey(project))) {
+            return;
+        }
+        try {
+            LuceneEmbeddingStore<TextSegment> store = store();
+            int removed = removeStaleFiles(store);
+            KnowledgeIndexStats stats = store.stats();
+            if (stats.deletedRatio() > RAGSettings.getInstance().getIndexMaintenanceMaxDeletedRatio()) {
+                store.mergeDeletes();
+                stats = store.stats();
+            }
+            log.info("Knowledge index maintenance: {} missing or excluded files removed, {}", removed, stats.describe());
+        } catch (Exception e) {
+            log.warn("Knowledge index maintenance failed", e);
+        }
+    }
+
+    private int removeStaleFiles(LuceneEmbeddingStore<TextSegment> store) {
+        String basePath = project.getBasePath();
+        // an unmounted or moved project would otherwise look like every file was deleted
+        if (basePath == null || !Files.isDirectory(Path.of(basePath))) {
+            return 0;
+        }
+        ShouldBeIndexed sources = new ShouldBeIndexed();
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        return store.removeFilesIf(path -> isStale(Path.of(path), sources, fileIndex));
+    }
+
+    /**
+     * @return true when the file was deleted, or is no longer selected by the sources setting the way
+     * {@link FilesUtil#shouldProcessFile(VirtualFile)} selects the files to index
+     */
+    private static boolean isStale(Path path, ShouldBeIndexed sources, ProjectFileIndex fileIndex) {
+        if (!Files.exists(path) || sources.excludes(path)) {
+            return true;
+        }
+        if (sources.matches(path)) {
+            return false;
+        }
+        // source files are indexed whatever the included entries
+        VirtualFile file = LocalFileSystem.getInstance().findFileByNioFile(path);
+        return file != null && !ReadAction.compute(() -> fileIndex.isInSource(file));
+    }
+
+    @SuppressWarnings("unchecked")
+    private LuceneEmbeddingStore<TextSegment> store() {
+        return project.getService(LuceneEmbeddingStore.class);
+    }
+
+    @Override
+    public void dispose() {
+        ScheduledFuture<?> maintenance = scheduledMaintenance;
+        if (maintenance != null) {
+            maintenance.cancel(false);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,107 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.intellij.openapi.application.ApplicationManager;
+import fr.baretto.ollamassist.setting.RAGSettings;
+import lombok.Builder;
+import lombok.Getter;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+
+/**
+ * Tuning options of the Lucene knowledge index, resolved from {@link RAGSettings}.
+ * Falls back to defaults when no IntelliJ application is running (unit tests, benchmarks).
+ */
+@Getter
+@Builder(toBuilder = true)
+public class KnowledgeIndexOptions {
+
+    public static final int DEFAULT_COMMIT_INTERVAL_SECONDS = 30;
+    public static final int DEFAULT_MAX_UNCOMMITTED_DOCUMENTS = 1000;
+    public static final int DEFAULT_HNSW_MAX_CONN = Lucene99HnswVectorsFormat.DEFAULT_MAX_CONN;
+    public static final int DEFAULT_HNSW_BEAM_WIDTH = Lucene99HnswVectorsFormat.DEFAULT_BEAM_WIDTH;
+    public static final int DEFAULT_SEARCH_OVER_FETCH_FACTOR = 5;
+    public static final int DEFAULT_CHUNK_MAX_TOKENS = 400;
+
+    @Builder.Default
+    private final IndexDurability durability = IndexDurability.GROUP_COMMIT;
+
+    @Builder.Default
+    private final int commitIntervalSeconds = DEFAULT_COMMIT_INTERVAL_SECONDS;
+
+    @Builder.Default
+    private final int maxUncommittedDocuments = DEFAULT_MAX_UNCOMMITTED_DOCUMENTS;
+
+    @Builder.Default
+    private final IndexDirectoryStrategy directoryStrategy = IndexDirectoryStrategy.HYBRID;
+
+    @Builder.Default
+    private final VectorQuantization vectorQuantization = VectorQuantization.NONE;
+
+    /**
+     * Neighbours kept per node of the HNSW graph, at most {@link Lucene99HnswVectorsFormat#MAXIMUM_MAX_CONN}.
+     * Only applies to segments written or merged afterwards.
+     */
+    @Builder.Default
+    private final int hnswMaxConn = DEFAULT_HNSW_MAX_CONN;
+
+    /**
+     * Candidates explored while inserting a vector in the HNSW graph, at most
+     * {@link Lucene99HnswVectorsFormat#MAXIMUM_BEAM_WIDTH}. Only applies to segments written or merged afterwards.
+     */
+    @Builder.Default
+    private final int hnswBeamWidth = DEFAULT_HNSW_BEAM_WIDTH;
+
+    /**
+     * A search for k results explores k * factor candidates in the graph and keeps the best k.
+     */
+    @Builder.Default
+    private final int searchOverFetchFactor = DEFAULT_SEARCH_OVER_FETCH_FACTOR;
+
+    /**
+     * Model the vectors are embedded with, as identified by {@link EmbeddingService#modelId()}. An index built with
+     * another one is rebuilt in the background.
+     */
+    @Builder.Default
+    private final String embeddingModel = RAGConstants.DEFAULT_EMBEDDING_MODEL;
+
+    /**
+     * Size of the chunks {@link CodeAwareDocumentSplitter} cuts files into. An index chunked with another one is
+     * rebuilt in the background.
+     */
+    @Builder.Default
+    private final int chunkMaxTokens = DEFAULT_CHUNK_MAX_TOKENS;
+
+    public KnnVectorsFormat vectorsFormat() {
+        return vectorQuantization.format(hnswMaxConn, hnswBeamWidth);
+    }
+
+    public static KnowledgeIndexOptions defaults() {
+        return KnowledgeIndexOptions.builder().build();
+    }
+
+    public static KnowledgeIndexOptions fromSettings() {
+        if (ApplicationManager.getApplication() == null) {
+            return defaults();
+        }
+        return fromSettings(RAGSettings.getInstance(), EmbeddingService.getInstance().modelId());
+    }
+
+    /**
+     * Resolves the options from {@code settings}, clamping the values a hand-edited settings file may leave out of
+     * range.
+     */
+    static KnowledgeIndexOptions fromSettings(RAGSettings settings, String embeddingModel) {
+        return KnowledgeIndexOptions.builder()
+                .durability(settings.getIndexDurability())
+                .commitIntervalSeconds(Math.max(1, settings.getIndexCommitIntervalSeconds()))
+                .maxUncommittedDocuments(Math.max(1, settings.getIndexMaxUncommittedDocuments()))
+                .directoryStrategy(settings.getIndexDirectoryStrategy())
+                .vectorQuantization(settings.getVectorQuantization())
+                .hnswMaxConn(Math.clamp(settings.getHnswMaxConn(), 1, Lucene99HnswVectorsFormat.MAXIMUM_MAX_CONN))
+                .hnswBeamWidth(Math.clamp(settings.getHnswBeamWidth(), 1, Lucene99HnswVectorsFormat.MAXIMUM_BEAM_WIDTH))
+                .searchOverFetchFactor(Math.max(1, settings.getSearchOverFetchFactor()))
+                .embeddingModel(embeddingModel)
+                .chunkMaxTokens(Math.max(1, settings.getIndexingChunkMaxTokens()))
+                .build();
+    }
+}
@@ -0,0 +1,27 @@
+package fr.baretto.ollamassist.chat.rag;
+
+/**
+ * Size and composition of a knowledge index.
+ *
+ * @param sizeBytes        bytes used by the index files on disk
+ * @param documents        live segments, as Lucene documents
+ * @param deletedDocuments documents deleted or replaced but still held by the index files until merged away
+ * @param segments         Lucene segments
+ */
+public record KnowledgeIndexStats(long sizeBytes, int documents, int deletedDocuments, int segments) {
+
+    public static final KnowledgeIndexStats EMPTY = new KnowledgeIndexStats(0, 0, 0, 0);
+
+    public double deletedRatio() {
+        int total = documents + deletedDocuments;
+        return total == 0 ? 0 : (double) deletedDocuments / total;
+    }
+
+    /**
+     * @return a one-line summary for the settings panel
+     */
+    public String describe() {
+        return String.format("%.1f MB, %,d documents, %.0f%% deleted, %d Lucene segments",
+                sizeBytes / (1024.0 * 1024.0), documents, deletedRatio() * 100, segments);
+    }
+}
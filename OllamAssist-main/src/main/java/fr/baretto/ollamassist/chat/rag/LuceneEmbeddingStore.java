@@ -1,7 +1,5 @@
 package fr.baretto.ollamassist.chat.rag;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -17,23 +15,34 @@ import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.filter.Filter;
 import fr.baretto.ollamassist.events.StoreNotifier;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.NIOFSDirectory;
-import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.QueryBuilder;
 
 import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static fr.baretto.ollamassist.chat.rag.IndexRegistry.OLLAMASSIST_DIR;
@@ -47,39 +56,416 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
     private static final String FILE_READ_ERROR_FORMAT = "Failed to read file content for: %s";
     private static final String VECTOR = "vector";
     private static final String EMBEDDED = "embedded";
-    private static final String LAST_INDEXED_DATE = "last_indexed_date";
-    private static final String METADATA = "metadata";
+    private static final String TEXT = "text";
     private static final String ID = "id";
+    private static final long SEARCHER_REFRESH_INTERVAL_MS = 1000;
+    private static final String VECTOR_QUANTIZATION_KEY = "vector_quantization";
+    private static final String SCHEMA_VERSION_KEY = "schema_version";
+    private static final String INDEXATION_STATE_KEY = "indexation_state";
+    private static final String INDEXATION_RUNNING = "running";
+    private static final String INDEXATION_COMPLETE = "complete";
+    private static final String EMBEDDING_MODEL_KEY = "embedding_model";
+    private static final String VECTOR_DIMENSION_KEY = "vector_dimension";
+    private static final String CHUNK_MAX_TOKENS_KEY = "chunk_max_tokens";
+    /**
+     * Bumped whenever the indexed fields change. Indexes without the marker are version 1.
+     * Version 2 adds the analyzed {@link #TEXT} field used by hybrid search,
+     * version 3 the {@link SegmentFields#FILE_PATH} keyword that file-level updates and deletions rely on,
+     * version 4 switches from whole-file segments to the declaration chunks of {@link CodeAwareDocumentSplitter}.
+     */
+    private static final String SCHEMA_VERSION = "4";
+    private static final String INITIAL_SCHEMA_VERSION = "1";
+    private static final int RRF_RANK_CONSTANT = 60;
 
 
-    private final Directory directory;
-    private final StandardAnalyzer analyzer;
-    private final ObjectMapper mapper;
+    private final Path indexPath;
+    private volatile Directory directory;
+    private final Analyzer analyzer;
+    private final Analyzer queryAnalyzer;
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
     private final Project project;
+    private final Supplier<KnowledgeIndexOptions> optionsSupplier;
+    private volatile KnowledgeIndexOptions options;
+    private volatile boolean indexFormatOutdated;
+    private volatile boolean schemaOutdated;
+    private volatile boolean indexationInterrupted;
+    private volatile String indexedEmbeddingModel;
+    private volatile int indexedVectorDimension = -1;
+    private volatile int indexedChunkMaxTokens;
+    private volatile boolean vectorDimensionMismatch;
+    private volatile boolean searchFailed;
+    private volatile boolean corruptionDetected;
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean(false);
+    private volatile Rebuild rebuild;
+    private final ScheduledExecutorService backgroundScheduler;
+    private final AtomicInteger uncommittedChanges = new AtomicInteger(0);
     private IndexWriter indexWriter;
+    private volatile SearcherManager searcherManager;
+    private volatile boolean searcherStale;
 
     public LuceneEmbeddingStore(Project project) throws IOException {
-        this.directory = new NIOFSDirectory(
-                Paths.get(OLLAMASSIST_DIR, project.getName(), DATABASE_KNOWLEDGE_INDEX),
-                new SingleInstanceLockFactory()
-        );
-        this.analyzer = new StandardAnalyzer();
-        this.mapper = new ObjectMapper();
+        this(project, KnowledgeIndexOptions::fromSettings);
+    }
+
+    public LuceneEmbeddingStore(Project project, KnowledgeIndexOptions options) throws IOException {
+        this(project, () -> options);
+    }
+
+    private LuceneEmbeddingStore(Project project, Supplier<KnowledgeIndexOptions> optionsSupplier) throws IOException {
+        this.optionsSupplier = optionsSupplier;
+        this.options = optionsSupplier.get();
+        this.indexPath = Paths.get(projectDirectory(project).toString(), DATABASE_KNOWLEDGE_INDEX);
+        recoverInterruptedSwap();
+        this.directory = options.getDirectoryStrategy().open(indexPath);
+        this.analyzer = new CodeAnalyzer();
+        this.queryAnalyzer = CodeAnalyzer.forQueries();
         this.indexWriter = retrieveIndexWriter();
         this.project = project;
+        this.backgroundScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lucene-index-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backgroundScheduler.scheduleWithFixedDelay(this::refreshSearcher,
+                SEARCHER_REFRESH_INTERVAL_MS, SEARCHER_REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (options.getDurability() == IndexDurability.GROUP_COMMIT) {
+            this.backgroundScheduler.scheduleWithFixedDelay(this::flush,
+                    options.getCommitIntervalSeconds(), options.getCommitIntervalSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    private static Path projectDirectory(Project project) {
+        Path projectDirectory = IndexDirectories.projectDirectory(Paths.get(OLLAMASSIST_DIR), project.getName(),
+                IndexRegistry.projectKey(project));
+        try {
+            IndexDirectories.migrateLegacyDirectory(Paths.get(OLLAMASSIST_DIR, project.getName()), projectDirectory);
+        } catch (IOException e) {
+            log.warn("Unable to move the knowledge index of {} to {}, it will be rebuilt",
+                    project.getName(), projectDirectory, e);
+        }
+        return projectDirectory;
     }
 
     private void initIndexWriter() throws IOException {
+        this.indexWriter = new IndexWriter(directory, writerConfig(options));
+        this.searcherManager = new SearcherManager(indexWriter, null);
+        recordIndexFormat();
+    }
+
+    private IndexWriterConfig writerConfig(KnowledgeIndexOptions indexOptions) {
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-        this.indexWriter = new IndexWriter(directory, config);
+        indexOptions.getDirectoryStrategy().configure(config);
+        config.setCodec(new KnowledgeIndexCodec(indexOptions.vectorsFormat()));
+        return config;
+    }
+
+    /**
+     * Stores the vector format, schema version, embedding model and chunk size in the commit user data, unless the
+     * existing index was built with other ones. Indexes written before these markers existed hold plain float32
+     * vectors and schema 1; those written before the embedding model or chunk size was recorded are assumed to use
+     * the configured one.
+     */
+    private void recordIndexFormat() throws IOException {
+        Map<String, String> commitData = new HashMap<>();
+        indexWriter.getLiveCommitData().forEach(entry -> commitData.put(entry.getKey(), entry.getValue()));
+
+        String quantization = options.getVectorQuantization().name();
+        String storedQuantization = commitData.getOrDefault(VECTOR_QUANTIZATION_KEY, VectorQuantization.NONE.name());
+        String storedSchema = commitData.getOrDefault(SCHEMA_VERSION_KEY, INITIAL_SCHEMA_VERSION);
+        boolean emptyIndex = indexWriter.getDocStats().maxDoc == 0;
+        indexationInterrupted = !emptyIndex && INDEXATION_RUNNING.equals(commitData.get(INDEXATION_STATE_KEY));
+        indexedEmbeddingModel = emptyIndex
+                ? options.getEmbeddingModel()
+                : commitData.getOrDefault(EMBEDDING_MODEL_KEY, options.getEmbeddingModel());
+        indexedChunkMaxTokens = emptyIndex || !commitData.containsKey(CHUNK_MAX_TOKENS_KEY)
+                ? options.getChunkMaxTokens()
+                : Integer.parseInt(commitData.get(CHUNK_MAX_TOKENS_KEY));
+        indexedVectorDimension = emptyIndex ? -1 : vectorDimension(indexWriter);
+        vectorDimensionMismatch = false;
+        searchFailed = false;
+        corruptionDetected = false;
+
+        schemaOutdated = !emptyIndex && !SCHEMA_VERSION.equals(storedSchema);
+        indexFormatOutdated = schemaOutdated || !emptyIndex && !quantization.equals(storedQuantization);
+        if (indexFormatOutdated) {
+            log.info("Knowledge index was built with {} vectors and schema {} but {} and schema {} are expected, a reindexation is required",
+                    storedQuantization, storedSchema, quantization, SCHEMA_VERSION);
+            return;
+        }
+        commitData.put(VECTOR_QUANTIZATION_KEY, quantization);
+        commitData.put(SCHEMA_VERSION_KEY, SCHEMA_VERSION);
+        commitData.put(EMBEDDING_MODEL_KEY, indexedEmbeddingModel);
+        commitData.put(CHUNK_MAX_TOKENS_KEY, Integer.toString(indexedChunkMaxTokens));
+        if (indexedVectorDimension > 0) {
+            commitData.put(VECTOR_DIMENSION_KEY, Integer.toString(indexedVectorDimension));
+        }
+        indexWriter.setLiveCommitData(commitData.entrySet());
+    }
+
+    /**
+     * @return the dimension of the indexed vectors, -1 when none is indexed
+     */
+    private static int vectorDimension(IndexWriter writer) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            FieldInfo field = FieldInfos.getMergedFieldInfos(reader).fieldInfo(VECTOR);
+            return field != null && field.getVectorDimension() > 0 ? field.getVectorDimension() : -1;
+        }
+    }
+
+    /**
+     * Records the dimension of the first vector written to an empty index.
+     * Must be called while holding the write lock.
+     */
+    private void recordVectorDimension(IndexWriter writer, int dimension) {
+        if (writer != indexWriter || indexedVectorDimension > 0) {
+            return;
+        }
+        indexedVectorDimension = dimension;
+        putCommitData(writer, VECTOR_DIMENSION_KEY, Integer.toString(dimension));
+    }
+
+    private static void putCommitData(IndexWriter writer, String key, String value) {
+        Map<String, String> commitData = new HashMap<>();
+        writer.getLiveCommitData().forEach(entry -> commitData.put(entry.getKey(), entry.getValue()));
+        commitData.put(key, value);
+        writer.setLiveCommitData(commitData.entrySet());
+    }
+
+    /**
+     * @return true when the on-disk index was built with a vector format or schema that differs from the current one.
+     * An index of another vector format keeps serving queries until it is recreated. One of an older schema is not
+     * searched: its segments may hold the JSON metadata and ISO {@link SegmentFields#LAST_INDEXED_DATE} written before
+     * the typed fields of {@link SegmentFields}, which are discarded with it rather than migrated.
+     */
+    public boolean isIndexFormatOutdated() {
+        return indexFormatOutdated;
+    }
+
+    /**
+     * @return true when the index was built with another embedding model than the configured one. Its vectors
+     * cannot be compared with query vectors anymore, so searches return nothing until it is rebuilt.
+     */
+    public boolean isEmbeddingModelOutdated() {
+        String indexed = indexedEmbeddingModel;
+        return indexed != null && !indexed.equals(optionsSupplier.get().getEmbeddingModel());
+    }
+
+    /**
+     * @return true when the files were cut into chunks of another size than the configured one. The index keeps
+     * serving queries until it is rebuilt.
+     */
+    public boolean isChunkingOutdated() {
+        return indexedChunkMaxTokens != optionsSupplier.get().getChunkMaxTokens();
+    }
+
+    /**
+     * @return true when the index must be built again, from a format, embedding model, vector dimension or chunk
+     * size that differs from the current ones
+     */
+    public boolean isRebuildRequired() {
+        return indexFormatOutdated || vectorDimensionMismatch || searchFailed || corruptionDetected
+                || isEmbeddingModelOutdated() || isChunkingOutdated();
+    }
+
+    /**
+     * Starts building a new index for the current settings next to this one, which keeps serving searches until
+     * {@link #markIndexationCompleted()} swaps them. Writes go to the new index meanwhile, deletions to both. A
+     * rebuild interrupted by the IDE closing resumes from the files it had committed.
+     *
+     * @return false when the new index cannot be opened
+     */
+    public boolean startRebuild() {
+        rwLock.writeLock().lock();
+        try {
+            if (rebuild != null) {
+                return true;
+            }
+            KnowledgeIndexOptions target = optionsSupplier.get();
+            Directory rebuildDirectory = target.getDirectoryStrategy().open(IndexDirectories.rebuildPath(indexPath));
+            try {
+                IndexWriterConfig config = writerConfig(target);
+                if (!isRebuildFor(commitData(rebuildDirectory), target)) {
+                    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+                }
+                IndexWriter writer = new IndexWriter(rebuildDirectory, config);
+                putCommitData(writer, VECTOR_QUANTIZATION_KEY, target.getVectorQuantization().name());
+                putCommitData(writer, SCHEMA_VERSION_KEY, SCHEMA_VERSION);
+                putCommitData(writer, EMBEDDING_MODEL_KEY, target.getEmbeddingModel());
+                putCommitData(writer, CHUNK_MAX_TOKENS_KEY, Integer.toString(target.getChunkMaxTokens()));
+                rebuild = new Rebuild(rebuildDirectory, writer, new SearcherManager(writer, null));
+            } catch (IOException | RuntimeException e) {
+                rebuildDirectory.close();
+                throw e;
+            }
+            log.info("Rebuilding the knowledge index with {} in the background", target.getEmbeddingModel());
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to start the rebuild of the knowledge index", e);
+            return false;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the commit user data of the index in {@code indexDirectory}, empty when there is none
+     */
+    private static Map<String, String> commitData(Directory indexDirectory) throws IOException {
+        if (!DirectoryReader.indexExists(indexDirectory)) {
+            return Map.of();
+        }
+        return SegmentInfos.readLatestCommit(indexDirectory).getUserData();
+    }
+
+    private static boolean isRebuildFor(Map<String, String> commitData, KnowledgeIndexOptions target) {
+        return target.getEmbeddingModel().equals(commitData.get(EMBEDDING_MODEL_KEY))
+                && target.getVectorQuantization().name().equals(commitData.get(VECTOR_QUANTIZATION_KEY))
+                && SCHEMA_VERSION.equals(commitData.get(SCHEMA_VERSION_KEY))
+                && Integer.toString(target.getChunkMaxTokens()).equals(commitData.get(CHUNK_MAX_TOKENS_KEY));
+    }
+
+    /**
+     * Completes a swap interrupted by the IDE closing, or one that failed because files of the index were still
+     * open, before the index is opened.
+     */
+    private void recoverInterruptedSwap() {
+        Path rebuildPath = IndexDirectories.rebuildPath(indexPath);
+        boolean rebuildComplete = false;
+        if (Files.isDirectory(rebuildPath)) {
+            try (Directory rebuildDirectory = FSDirectory.open(rebuildPath)) {
+                Map<String, String> commitData = commitData(rebuildDirectory);
+                rebuildComplete = isRebuildFor(commitData, options)
+                        && INDEXATION_COMPLETE.equals(commitData.get(INDEXATION_STATE_KEY));
+            } catch (IOException e) {
+                log.warn("Unable to read the rebuilt knowledge index, it is ignored", e);
+            }
+        }
+        try {
+            IndexDirectories.recover(indexPath, rebuildComplete);
+        } catch (IOException e) {
+            log.warn("Failed to recover the knowledge index directories", e);
+        }
+    }
+
+    /**
+     * @return true when the last indexation started on this index did not complete, typically because the IDE was
+     * closed meanwhile. The files committed so far are kept, and skipped when the indexation runs again.
+     */
+    public boolean isIndexationInterrupted() {
+        return indexationInterrupted;
+    }
+
+    /**
+     * Records in the commit data that a full indexation is running, until {@link #markIndexationCompleted()}.
+     */
+    public void markIndexationStarted() {
+        indexationInterrupted = false;
+        updateIndexationState(INDEXATION_RUNNING);
+    }
+
+    /**
+     * Records in the commit data that the full indexation completed. A rebuilt index then replaces the current one.
+     */
+    public void markIndexationCompleted() {
+        updateIndexationState(INDEXATION_COMPLETE);
+        completeRebuild();
+        rebuildRequested.set(false);
+    }
+
+    private void updateIndexationState(String state) {
+        rwLock.writeLock().lock();
+        try {
+            putCommitData(targetWriter(), INDEXATION_STATE_KEY, state);
+            commit();
+        } catch (IOException e) {
+            log.error("Failed to record the indexation state", e);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the rebuilt index and moves it in place of the current one, which is reopened. When the directories
+     * cannot be renamed, the current index keeps serving and the swap completes when the project is opened again.
+     */
+    private void completeRebuild() {
+        rwLock.writeLock().lock();
+        try {
+            Rebuild completed = rebuild;
+            if (completed == null) {
+                return;
+            }
+            rebuild = null;
+            completed.close();
+            closeIndexWriter();
+            directory.close();
+            try {
+                IndexDirectories.swap(indexPath);
+                log.info("Knowledge index replaced by the rebuilt one");
+            } catch (IOException e) {
+                log.warn("Failed to replace the knowledge index by the rebuilt one, retrying at next opening", e);
+            }
+            options = optionsSupplier.get();
+            directory = options.getDirectoryStrategy().open(indexPath);
+            initIndexWriter();
+            uncommittedChanges.set(0);
+            searcherStale = false;
+        } catch (IOException e) {
+            log.error("Failed to reopen the knowledge index after its rebuild", e);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops a rebuild and deletes the index it was building.
+     * Must be called while holding the write lock.
+     */
+    private void abortRebuild() {
+        Rebuild aborted = rebuild;
+        if (aborted == null) {
+            return;
+        }
+        rebuild = null;
+        try {
+            aborted.close();
+            IndexDirectories.deleteRecursively(IndexDirectories.rebuildPath(indexPath));
+        } catch (IOException e) {
+            log.warn("Failed to delete the rebuilt knowledge index", e);
+        }
+    }
+
+    /**
+     * Writer of the index being rebuilt, or of the current index.
+     * Must be called while holding the write lock.
+     */
+    private IndexWriter targetWriter() throws IOException {
+        Rebuild current = rebuild;
+        return current != null ? current.writer : retrieveIndexWriter();
+    }
+
+    /**
+     * Writers deletions apply to: the current index, then the one being rebuilt.
+     * Must be called while holding the write lock.
+     */
+    private List<IndexWriter> writers() throws IOException {
+        IndexWriter writer = retrieveIndexWriter();
+        Rebuild current = rebuild;
+        return current != null ? List.of(writer, current.writer) : List.of(writer);
     }
 
     private synchronized IndexWriter retrieveIndexWriter() throws IOException {
         if (indexWriter == null || !indexWriter.isOpen()) {
             closeIndexWriter();
-            initIndexWriter();
+            try {
+                initIndexWriter();
+            } catch (CorruptIndexException | IndexFormatTooOldException | IndexFormatTooNewException e) {
+                // nothing can be served from an index that cannot be opened
+                log.warn("The knowledge index at {} cannot be opened, it is recreated", indexPath, e);
+                deleteAllIndexFiles();
+                initIndexWriter();
+            }
         }
         return indexWriter;
     }
@@ -87,6 +473,7 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
     public void closeIndexWriter() {
         rwLock.writeLock().lock();
         try {
+            closeSearcherManager();
             if (indexWriter != null) {
                 log.debug("Closing IndexWriter...");
                 indexWriter.close();
@@ -100,6 +487,98 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
     }
 
 
+    private void closeSearcherManager() {
+        SearcherManager manager = searcherManager;
+        searcherManager = null;
+        if (manager != null) {
+            try {
+                manager.close();
+            } catch (IOException e) {
+                log.error("Error closing Lucene SearcherManager", e);
+            }
+        }
+    }
+
+    /**
+     * Makes pending writes (committed or only buffered in the IndexWriter) visible to new searches, unless another
+     * thread is already reopening the searcher. Searches in flight keep using the searcher they acquired.
+     */
+    private void refreshSearcherIfStale(SearcherManager manager) {
+        if (!searcherStale) {
+            return;
+        }
+        try {
+            searcherStale = false;
+            if (!manager.maybeRefresh()) {
+                searcherStale = true;
+            }
+        } catch (AlreadyClosedException e) {
+            log.debug("SearcherManager closed during refresh");
+        } catch (IOException e) {
+            searcherStale = true;
+            log.warn("Failed to refresh Lucene searcher", e);
+        }
+    }
+
+    /**
+     * Reopens the searchers of the current and rebuilt indexes on the writes made since their last reopen. Runs on
+     * the maintenance thread and after a {@link #flush()}, never on a search: searches use the current searcher
+     * and see writes at most {@value #SEARCHER_REFRESH_INTERVAL_MS} ms late.
+     */
+    void refreshSearcher() {
+        Rebuild current = rebuild;
+        if (current != null) {
+            try {
+                current.searcherManager.maybeRefresh();
+            } catch (AlreadyClosedException | IOException e) {
+                log.debug("Background refresh of the rebuilt index searcher failed", e);
+            }
+        }
+        SearcherManager manager = searcherManager;
+        if (manager != null) {
+            refreshSearcherIfStale(manager);
+        }
+    }
+
+    /**
+     * Records a write and commits it according to the configured {@link IndexDurability}.
+     * Must be called while holding the write lock.
+     */
+    private void onWrite(int changes) throws IOException {
+        searcherStale = true;
+        if (options.getDurability() == IndexDurability.COMMIT_ON_WRITE
+                || uncommittedChanges.addAndGet(changes) >= options.getMaxUncommittedDocuments()) {
+            commit();
+        }
+    }
+
+    private void commit() throws IOException {
+        indexWriter.commit();
+        Rebuild current = rebuild;
+        if (current != null) {
+            current.writer.commit();
+        }
+        uncommittedChanges.set(0);
+    }
+
+    /**
+     * Commits every buffered write to disk, and makes the writes visible to new searches.
+     * Called periodically, by the indexing pipeline at batch boundaries and when the store is closed.
+     */
+    public void flush() {
+        rwLock.writeLock().lock();
+        try {
+            if (indexWriter != null && indexWriter.isOpen() && uncommittedChanges.get() > 0) {
+                commit();
+            }
+        } catch (Exception e) {
+            log.error("Failed to commit the knowledge index", e);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        refreshSearcher();
+    }
+
     @Override
     public String add(Embedding embedding) {
         rwLock.writeLock().lock();
@@ -124,8 +603,6 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
             String id = getUniqueId(embedded, UUID.randomUUID().toString());
             add(id, embedding, embedded);
             return id;
-        } catch (Exception exception) {
-            throw new CorruptedIndexException();
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -134,42 +611,18 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
     public void add(String id, Embedding embedding, EMBEDDED embedded) {
         rwLock.writeLock().lock();
         try {
-            if (indexWriter == null) {
-                indexWriter = retrieveIndexWriter();
-            }
-            indexWriter.updateDocument(new Term(ID, id), toDocument(embedding, embedded, id));
-            indexWriter.commit();
+            IndexWriter writer = targetWriter();
+            checkVectors(writer, List.of(embedding));
+            writer.updateDocument(new Term(ID, id), createDocument(embedding, embedded, id, filePathOf(embedded), 0, null));
+            recordVectorDimension(writer, embedding.dimension());
+            onWrite(1);
         } catch (Exception e) {
-            throw new CorruptedIndexException();
+            throw writeFailure(e);
         } finally {
             rwLock.writeLock().unlock();
         }
     }
 
-    private Document toDocument(Embedding embedding, EMBEDDED embedded, String id) {
-        Document doc = new Document();
-
-        doc.add(new StringField(ID, id, Field.Store.YES));
-        doc.add(new StoredField(EMBEDDED, ((TextSegment) embedded).text()));
-
-        String lastIndexedDate = ZonedDateTime.now().toString();
-        doc.add(new StringField(LAST_INDEXED_DATE, lastIndexedDate, Field.Store.YES));
-
-        String metadata = null;
-        try {
-            metadata = mapper.writeValueAsString(((TextSegment) embedded).metadata().toMap());
-        } catch (JsonProcessingException e) {
-            metadata = "";
-        }
-        doc.add(new StoredField(METADATA, metadata));
-
-        float[] vector = embedding.vector();
-        FieldType vectorFieldType = KnnFloatVectorField.createFieldType(vector.length, VectorSimilarityFunction.COSINE);
-        doc.add(new KnnFloatVectorField(VECTOR, vector, vectorFieldType));
-
-        return doc;
-    }
-
     public List<String> addAll(List<Embedding> embeddings) {
         return addAll(embeddings, Collections.emptyList());
     }
@@ -180,26 +633,379 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
         try {
             List<Document> documents = new ArrayList<>(embeddings.size());
             List<String> ids = new ArrayList<>(embeddings.size());
+            Map<String, Integer> ordinals = new HashMap<>();
 
             for (int i = 0; i < embeddings.size(); i++) {
                 EMBEDDED embedded = i < metadataList.size() ? metadataList.get(i) : null;
                 String id = getUniqueId(embedded, UUID.randomUUID().toString());
                 ids.add(id);
 
+                String filePath = filePathOf(embedded);
+                int ordinal = filePath == null ? 0 : ordinals.merge(filePath, 1, Integer::sum) - 1;
                 documents.add(createDocument(
                         embeddings.get(i),
                         embedded,
-                        id
+                        id,
+                        filePath,
+                        ordinal,
+                        null
                 ));
             }
-            if (indexWriter == null) {
-                indexWriter = retrieveIndexWriter();
+            IndexWriter writer = targetWriter();
+            checkVectors(writer, embeddings);
+            writer.addDocuments(documents);
+            if (!embeddings.isEmpty()) {
+                recordVectorDimension(writer, embeddings.get(0).dimension());
             }
-            indexWriter.addDocuments(documents);
-            indexWriter.commit();
+            onWrite(documents.size());
             return ids;
         } catch (Exception exception) {
-            throw new CorruptedIndexException();
+            throw writeFailure(exception);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces every segment of a file with the given ones in a single writer operation,
+     * so searches see either the previous or the new version of the file, never both or neither.
+     *
+     * @param contentHash {@link ContentHash} of the file content, returned later by {@link #indexedContentHash(String)}
+     */
+    @SuppressWarnings("unchecked")
+    public void replaceFile(String filePath, String contentHash, List<TextSegment> segments, List<Embedding> embeddings) {
+        rwLock.writeLock().lock();
+        try {
+            String normalizedPath = SegmentFields.normalizePath(filePath);
+            List<Document> documents = new ArrayList<>(segments.size());
+            for (int i = 0; i < segments.size(); i++) {
+                EMBEDDED embedded = (EMBEDDED) segments.get(i);
+                String id = getUniqueId(embedded, UUID.randomUUID().toString());
+                documents.add(createDocument(embeddings.get(i), embedded, id, normalizedPath, i, contentHash));
+            }
+            IndexWriter writer = targetWriter();
+            checkVectors(writer, embeddings);
+            writer.updateDocuments(new Term(SegmentFields.FILE_PATH, normalizedPath), documents);
+            if (!embeddings.isEmpty()) {
+                recordVectorDimension(writer, embeddings.get(0).dimension());
+            }
+            onWrite(documents.size());
+        } catch (Exception exception) {
+            throw writeFailure(exception);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rejects vectors the current index cannot hold next to its own, from another embedding model or of another
+     * dimension, and asks for a rebuild instead. The index being rebuilt takes the vectors of the current model.
+     * Must be called while holding the write lock.
+     */
+    private void checkVectors(IndexWriter writer, List<Embedding> embeddings) {
+        if (writer != indexWriter || embeddings.isEmpty()) {
+            return;
+        }
+        int dimension = indexedVectorDimension;
+        boolean otherDimension = dimension > 0 && dimension != embeddings.get(0).dimension();
+        if (!otherDimension && !isEmbeddingModelOutdated()) {
+            return;
+        }
+        vectorDimensionMismatch |= otherDimension;
+        if (requestRebuild()) {
+            log.info("Vectors do not match the knowledge index built with {} ({} dimensions), rebuilding it",
+                    indexedEmbeddingModel, dimension);
+        }
+        throw new IllegalStateException("The knowledge index was built with another embedding model, it is being rebuilt");
+    }
+
+    /**
+     * A write failing on a corrupted index asks for a rebuild: the index keeps serving searches until the rebuilt
+     * one replaces it. Other failures are left to the caller, which retries the file.
+     */
+    private RuntimeException writeFailure(Exception exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CorruptIndexException) {
+                corruptionDetected = true;
+                if (requestRebuild()) {
+                    log.warn("The knowledge index is corrupted, rebuilding it", exception);
+                }
+                return new CorruptedIndexException(exception);
+            }
+        }
+        if (exception instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return exception instanceof IOException ioException
+                ? new UncheckedIOException(ioException)
+                : new IllegalStateException(exception);
+    }
+
+    /**
+     * @return the content hash the file was indexed with, or null when the file is not indexed
+     * or was indexed without a hash.
+     */
+    public String indexedContentHash(String filePath) {
+        Rebuild current = rebuild;
+        SearcherManager manager = current != null ? current.searcherManager : searcherManager;
+        if (manager == null) {
+            return null;
+        }
+        IndexSearcher searcher;
+        try {
+            // no forced refresh: only the pipeline writes files, and a stale answer merely re-embeds the file
+            searcher = manager.acquire();
+        } catch (AlreadyClosedException | IOException e) {
+            return null;
+        }
+        try {
+            Query fileQuery = new TermQuery(new Term(SegmentFields.FILE_PATH, SegmentFields.normalizePath(filePath)));
+            TopDocs topDocs = searcher.search(fileQuery, 1);
+            if (topDocs.scoreDocs.length == 0) {
+                return null;
+            }
+            return searcher.storedFields()
+                    .document(topDocs.scoreDocs[0].doc, Set.of(SegmentFields.CONTENT_HASH))
+                    .get(SegmentFields.CONTENT_HASH);
+        } catch (IOException e) {
+            log.warn("Unable to read the indexed hash of {}", filePath, e);
+            return null;
+        } finally {
+            releaseSearcher(manager, searcher);
+        }
+    }
+
+    /**
+     * Records that a file was modified at {@code lastModified} without its content changing, so that it is listed
+     * with that time by {@link #indexedFileVersions()} and skipped without being read from then on.
+     *
+     * @return false when the version cannot be updated in place: the index holds no {@link SegmentFields#FILE_VERSION}
+     * yet, having been written before versions were recorded
+     */
+    public boolean updateFileVersion(String filePath, long lastModified) {
+        rwLock.writeLock().lock();
+        try {
+            Term file = new Term(SegmentFields.FILE_PATH, SegmentFields.normalizePath(filePath));
+            targetWriter().updateNumericDocValue(file, SegmentFields.FILE_VERSION, lastModified);
+            onWrite(1);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } catch (Exception exception) {
+            throw writeFailure(exception);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the {@link SegmentFields#FILE_VERSION} of each indexed file, keyed by normalized path.
+     * Files indexed without a modification time are absent.
+     */
+    public Map<String, Long> indexedFileVersions() {
+        rwLock.readLock().lock();
+        try {
+            Rebuild current = rebuild;
+            IndexWriter writer = current != null ? current.writer : indexWriter;
+            if (writer == null) {
+                return Map.of();
+            }
+            try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                return SegmentFields.fileVersions(reader);
+            }
+        } catch (IOException | AlreadyClosedException e) {
+            log.warn("Unable to read the indexed file versions", e);
+            return Map.of();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments of every indexed file that is not part of {@code filePaths},
+     * typically files deleted or excluded since the previous full indexation.
+     */
+    public void removeFilesNotIn(Collection<String> filePaths) {
+        Set<String> retained = new HashSet<>();
+        filePaths.forEach(path -> retained.add(SegmentFields.normalizePath(path)));
+        int removed = removeFilesIf(path -> !retained.contains(path));
+        if (removed > 0) {
+            log.info("Removed {} files no longer part of the project from the knowledge index", removed);
+        }
+    }
+
+    /**
+     * Deletes the segments of every indexed file whose normalized path matches {@code stale}.
+     * <p>
+     * {@code stale} may be slow, checking the file system for instance: it is tested against point-in-time readers
+     * outside the lock, which is only taken to delete the files it matched.
+     *
+     * @return the number of files removed
+     */
+    public int removeFilesIf(Predicate<String> stale) {
+        List<IndexWriter> writers;
+        List<DirectoryReader> readers = new ArrayList<>();
+        rwLock.readLock().lock();
+        try {
+            writers = writers();
+            for (IndexWriter writer : writers) {
+                readers.add(DirectoryReader.open(writer));
+            }
+        } catch (IOException | AlreadyClosedException e) {
+            closeReaders(readers);
+            log.error("Failed to read the files of the knowledge index", e);
+            return 0;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        List<Term[]> staleFiles = new ArrayList<>();
+        try {
+            for (DirectoryReader reader : readers) {
+                staleFiles.add(staleFiles(reader, stale));
+            }
+        } catch (IOException e) {
+            log.error("Failed to read the files of the knowledge index", e);
+            return 0;
+        } finally {
+            closeReaders(readers);
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int i = 0; i < writers.size(); i++) {
+                IndexWriter writer = writers.get(i);
+                Term[] files = staleFiles.get(i);
+                // a writer closed meanwhile belongs to an index replaced or cleared since
+                if (files.length > 0 && writer.isOpen()) {
+                    writer.deleteDocuments(files);
+                    onWrite(files.length);
+                }
+                // the count of the index being rebuilt, which comes last, is the one that lasts
+                removed = files.length;
+            }
+            return removed;
+        } catch (IOException | AlreadyClosedException e) {
+            log.error("Failed to remove stale files from the knowledge index", e);
+            return 0;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private static Term[] staleFiles(DirectoryReader reader, Predicate<String> stale) throws IOException {
+        List<Term> staleFiles = new ArrayList<>();
+        Terms terms = MultiTerms.getTerms(reader, SegmentFields.FILE_PATH);
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator();
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                String path = term.utf8ToString();
+                if (stale.test(path)) {
+                    staleFiles.add(new Term(SegmentFields.FILE_PATH, path));
+                }
+            }
+        }
+        return staleFiles.toArray(Term[]::new);
+    }
+
+    private static void closeReaders(List<DirectoryReader> readers) {
+        for (DirectoryReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.debug("Failed to close a reader of the knowledge index", e);
+            }
+        }
+    }
+
+    /**
+     * Merges away the documents deleted or replaced since they were written, then commits. The writer keeps
+     * accepting writes while segments merge, so only the final commit waits for the write lock.
+     */
+    public void mergeDeletes() {
+        IndexWriter writer = indexWriter;
+        if (writer == null || !writer.isOpen()) {
+            return;
+        }
+        try {
+            writer.forceMergeDeletes(true);
+        } catch (AlreadyClosedException e) {
+            log.debug("IndexWriter closed during the merge of deleted documents");
+            return;
+        } catch (IOException e) {
+            log.warn("Failed to merge deleted documents of the knowledge index", e);
+            return;
+        }
+        rwLock.writeLock().lock();
+        try {
+            if (indexWriter == writer && writer.isOpen()) {
+                commit();
+                searcherStale = true;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to commit the merge of deleted documents", e);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the current size and composition of the index, including writes not committed yet
+     */
+    public KnowledgeIndexStats stats() {
+        rwLock.readLock().lock();
+        try {
+            if (indexWriter == null || !indexWriter.isOpen()) {
+                return KnowledgeIndexStats.EMPTY;
+            }
+            IndexWriter.DocStats docStats = indexWriter.getDocStats();
+            int segments;
+            try (DirectoryReader reader = DirectoryReader.open(indexWriter)) {
+                segments = reader.leaves().size();
+            }
+            long sizeBytes = 0;
+            for (String file : directory.listAll()) {
+                try {
+                    sizeBytes += directory.fileLength(file);
+                } catch (NoSuchFileException | FileNotFoundException e) {
+                    // deleted by a merge meanwhile
+                }
+            }
+            return new KnowledgeIndexStats(sizeBytes, docStats.numDocs, docStats.maxDoc - docStats.numDocs, segments);
+        } catch (IOException | AlreadyClosedException e) {
+            log.warn("Unable to read the knowledge index stats", e);
+            return KnowledgeIndexStats.EMPTY;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments of the given files and of every file under the given directories in a single writer
+     * operation.
+     */
+    public void removeFiles(Collection<String> filePaths, Collection<String> directories) {
+        if (filePaths.isEmpty() && directories.isEmpty()) {
+            return;
+        }
+        rwLock.writeLock().lock();
+        try {
+            List<Query> queries = new ArrayList<>(filePaths.size() + directories.size());
+            for (String filePath : filePaths) {
+                queries.add(new TermQuery(new Term(SegmentFields.FILE_PATH, SegmentFields.normalizePath(filePath))));
+            }
+            for (String directory : directories) {
+                String prefix = SegmentFields.normalizePath(directory);
+                queries.add(new PrefixQuery(new Term(SegmentFields.FILE_PATH, prefix.endsWith("/") ? prefix : prefix + "/")));
+            }
+            for (IndexWriter writer : writers()) {
+                writer.deleteDocuments(queries.toArray(Query[]::new));
+            }
+            onWrite(queries.size());
+        } catch (IOException e) {
+            log.error("Failed to remove deleted files from the knowledge index", e);
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -209,10 +1015,12 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
     public void removeAll() {
         rwLock.writeLock().lock();
         try {
-            retrieveIndexWriter();
             Query query = new MatchAllDocsQuery();
-            indexWriter.deleteDocuments(query);
-            indexWriter.commit();
+            for (IndexWriter writer : writers()) {
+                writer.deleteDocuments(query);
+            }
+            commit();
+            searcherStale = true;
         } catch (IOException e) {
             log.error("Failed to remove all documents, resetting IndexWriter", e);
             recreateIndex();
@@ -229,11 +1037,10 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
             for (String id : ids) {
                 builder.add(new TermQuery(new Term(ID, id)), BooleanClause.Occur.SHOULD);
             }
-            if (indexWriter == null) {
-                indexWriter = retrieveIndexWriter();
+            for (IndexWriter writer : writers()) {
+                writer.deleteDocuments(builder.build());
             }
-            indexWriter.deleteDocuments(builder.build());
-            indexWriter.commit();
+            onWrite(ids.size());
         } catch (IOException e) {
             log.error("Failed to remove documents with specified IDs", e);
         } finally {
@@ -246,11 +1053,10 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
         rwLock.writeLock().lock();
         try {
             if (filter instanceof IdStartWithFilter idStartWithFilter) {
-                if (indexWriter == null) {
-                    indexWriter = retrieveIndexWriter();
+                for (IndexWriter writer : writers()) {
+                    writer.deleteDocuments(idStartWithFilter.toLuceneQuery());
                 }
-                indexWriter.deleteDocuments(idStartWithFilter.toLuceneQuery());
-                indexWriter.commit();
+                onWrite(1);
             } else {
                 throw new UnsupportedOperationException("Filter type not supported: " + filter.getClass());
             }
@@ -263,53 +1069,213 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
 
     @Override
     public EmbeddingSearchResult<EMBEDDED> search(EmbeddingSearchRequest request) {
-        try (DirectoryReader reader = DirectoryReader.open(directory)) {
-            IndexSearcher searcher = new IndexSearcher(reader);
+        return search(request, null);
+    }
 
+    /**
+     * Searches the index with the query embedding and, when {@code queryText} is not blank, with BM25 on the
+     * segment text as well. Both result lists come from the same searcher and are ordered by reciprocal rank
+     * fusion, while the score of each match stays the cosine similarity of its vector with the query.
+     * {@link EmbeddingSearchRequest#minScore()} filters the vector candidates, and lexical matches are only returned
+     * along with at least one vector candidate above it: common words of a question match most segments, so a query
+     * with nothing relevant in the index returns nothing rather than its best BM25 matches.
+     * <p>
+     * A query embedding of another model or dimension than the indexed vectors returns nothing, and requests a
+     * rebuild of the index.
+     */
+    public EmbeddingSearchResult<EMBEDDED> search(EmbeddingSearchRequest request, String queryText) {
+        SearcherManager manager = searcherManager;
+        if (manager == null) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        IndexSearcher searcher;
+        try {
+            searcher = manager.acquire();
+        } catch (AlreadyClosedException e) {
+            log.debug("Search skipped, index is being recreated");
+            return new EmbeddingSearchResult<>(List.of());
+        } catch (IOException e) {
+            log.error("Unable to acquire Lucene searcher", e);
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        try {
             float[] queryVector = request.queryEmbedding().vector();
-            Query vectorQuery = KnnFloatVectorField.newVectorQuery(VECTOR, queryVector, request.maxResults());
+            if (!areComparable(queryVector)) {
+                // without the vector similarity, nothing tells relevant segments from the others
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            if (schemaOutdated) {
+                // segments of an older schema cannot be decoded: the rebuilt index replaces them
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            int candidates = request.maxResults() * options.getSearchOverFetchFactor();
+            Query vectorQuery = KnnFloatVectorField.newVectorQuery(VECTOR, queryVector, candidates);
+            Query lexicalQuery = queryText == null || queryText.isBlank()
+                    ? null
+                    : new QueryBuilder(queryAnalyzer).createBooleanQuery(TEXT, queryText);
 
             TopDocs topDocs;
+            TopDocs lexicalTopDocs = null;
             try {
-                topDocs = searcher.search(vectorQuery, request.maxResults());
+                topDocs = searcher.search(vectorQuery, lexicalQuery == null ? request.maxResults() : candidates);
+                if (lexicalQuery != null) {
+                    lexicalTopDocs = searcher.search(lexicalQuery, candidates);
+                }
             } catch (Exception exception) {
-                recreateIndex();
-                project.getMessageBus()
-                        .syncPublisher(StoreNotifier.TOPIC)
-                        .clearDatabaseAndRunIndexation();
-
+                // the index keeps serving what it can: a rebuilt one replaces it once complete
+                log.error("Knowledge index search failed", exception);
+                searchFailed = true;
+                if (requestRebuild()) {
+                    log.info("Rebuilding the knowledge index after a failed search");
+                }
                 return new EmbeddingSearchResult<>(List.of());
             }
 
-            double[] scores = Arrays.stream(topDocs.scoreDocs)
-                    .mapToDouble(sd -> sd.score)
-                    .toArray();
-            double dynamicThreshold = calculateDynamicThreshold(
-                    scores,
-                    request.minScore(),
-                    topDocs.scoreDocs[0].score
-            );
+            List<ScoreDoc> relevantDocs = relevantVectorDocs(topDocs.scoreDocs, request.minScore());
+            if (lexicalTopDocs != null) {
+                return new EmbeddingSearchResult<>(fuse(searcher, queryVector, relevantDocs, lexicalTopDocs, request));
+            }
 
             List<EmbeddingMatch<EMBEDDED>> matches = new ArrayList<>();
-
-            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-                Document doc = searcher.storedFields().document(scoreDoc.doc);
-
-                String id = doc.get(ID);
-                String lastIndexedDate = doc.get(LAST_INDEXED_DATE);
-                String embeddedText = doc.get(EMBEDDED);
-
-                Metadata metadata = new Metadata(mapper.readValue(doc.get(METADATA), Map.class));
-                metadata.put(LAST_INDEXED_DATE, lastIndexedDate);
-
-                if (scoreDoc.score > dynamicThreshold) {
-                    matches.add(new EmbeddingMatch<>((double) scoreDoc.score, id, null, (EMBEDDED) TextSegment.from(embeddedText, metadata)));
-                }
+            for (ScoreDoc scoreDoc : relevantDocs) {
+                matches.add(toMatch(searcher, scoreDoc.doc, scoreDoc.score));
             }
             return new EmbeddingSearchResult<>(matches);
         } catch (Exception e) {
             log.error("Exception during lucene embedding request", e);
             return new EmbeddingSearchResult<>(List.of());
+        } finally {
+            releaseSearcher(manager, searcher);
+        }
+    }
+
+    private boolean areComparable(float[] queryVector) {
+        int dimension = indexedVectorDimension;
+        boolean sameDimension = dimension <= 0 || dimension == queryVector.length;
+        if (sameDimension && !isEmbeddingModelOutdated()) {
+            return true;
+        }
+        if (!sameDimension) {
+            vectorDimensionMismatch = true;
+        }
+        if (requestRebuild()) {
+            log.info("Query vectors do not match the knowledge index built with {} ({} dimensions), rebuilding it",
+                    indexedEmbeddingModel, dimension);
+        }
+        return false;
+    }
+
+    /**
+     * Asks the project, once until the next completed indexation, to rebuild the index in the background.
+     *
+     * @return whether this call requested it
+     */
+    private boolean requestRebuild() {
+        if (rebuild != null || !rebuildRequested.compareAndSet(false, true)) {
+            return false;
+        }
+        project.getMessageBus()
+                .syncPublisher(StoreNotifier.TOPIC)
+                .embeddingModelChanged();
+        return true;
+    }
+
+    /**
+     * Asks again for a rebuild requested while an indexation was running, which the project could not start then.
+     */
+    public void requestPendingRebuild() {
+        if (rebuild == null && isRebuildRequired()) {
+            rebuildRequested.set(false);
+            requestRebuild();
+        }
+    }
+
+    /**
+     * @return the vector candidates above the dynamic threshold, best first
+     */
+    private List<ScoreDoc> relevantVectorDocs(ScoreDoc[] vectorDocs, double minScore) {
+        if (vectorDocs.length == 0) {
+            return List.of();
+        }
+        double[] scores = Arrays.stream(vectorDocs)
+                .mapToDouble(sd -> sd.score)
+                .toArray();
+        double dynamicThreshold = calculateDynamicThreshold(scores, minScore, vectorDocs[0].score);
+        return Arrays.stream(vectorDocs)
+                .filter(scoreDoc -> scoreDoc.score > dynamicThreshold)
+                .toList();
+    }
+
+    /**
+     * Reciprocal rank fusion: each list contributes {@code 1 / (60 + rank)} to the documents it returned. The fused
+     * score only orders the matches: each reports the similarity of its vector with the query, so lexical matches
+     * may score under the minimum score. Without a relevant vector candidate, the lexical matches are dropped: common
+     * words alone do not make a segment relevant.
+     */
+    private List<EmbeddingMatch<EMBEDDED>> fuse(IndexSearcher searcher, float[] queryVector, List<ScoreDoc> vectorDocs,
+                                                TopDocs lexicalTopDocs, EmbeddingSearchRequest request)
+            throws IOException {
+        if (vectorDocs.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, Double> fusedScores = new HashMap<>();
+        Map<Integer, Double> similarities = new HashMap<>();
+        for (int rank = 0; rank < vectorDocs.size(); rank++) {
+            ScoreDoc scoreDoc = vectorDocs.get(rank);
+            fusedScores.merge(scoreDoc.doc, reciprocalRank(rank), Double::sum);
+            similarities.put(scoreDoc.doc, (double) scoreDoc.score);
+        }
+        ScoreDoc[] lexicalDocs = lexicalTopDocs.scoreDocs;
+        for (int rank = 0; rank < lexicalDocs.length; rank++) {
+            fusedScores.merge(lexicalDocs[rank].doc, reciprocalRank(rank), Double::sum);
+        }
+
+        List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(fusedScores.entrySet());
+        ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed());
+
+        List<EmbeddingMatch<EMBEDDED>> matches = new ArrayList<>();
+        for (Map.Entry<Integer, Double> entry : ranked.subList(0, Math.min(request.maxResults(), ranked.size()))) {
+            int docId = entry.getKey();
+            Double similarity = similarities.get(docId);
+            matches.add(toMatch(searcher, docId, similarity != null ? similarity : similarity(searcher, docId, queryVector)));
+        }
+        return matches;
+    }
+
+    /**
+     * @return the similarity of the vector of a document with the query vector, scaled like the scores of the
+     * vector search, 0 when the document has no vector
+     */
+    private static double similarity(IndexSearcher searcher, int docId, float[] queryVector) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        FloatVectorValues vectors = leaf.reader().getFloatVectorValues(VECTOR);
+        int leafDocId = docId - leaf.docBase;
+        if (vectors == null || vectors.advance(leafDocId) != leafDocId) {
+            return 0;
+        }
+        return VectorSimilarityFunction.COSINE.compare(queryVector, vectors.vectorValue());
+    }
+
+    private static double reciprocalRank(int rank) {
+        return 1.0 / (RRF_RANK_CONSTANT + rank + 1);
+    }
+
+    private EmbeddingMatch<EMBEDDED> toMatch(IndexSearcher searcher, int docId, double score) throws IOException {
+        Document doc = searcher.storedFields().document(docId);
+
+        String id = doc.get(ID);
+        String embeddedText = doc.get(EMBEDDED);
+        Metadata metadata = SegmentFields.read(doc);
+
+        return new EmbeddingMatch<>(score, id, null, (EMBEDDED) TextSegment.from(embeddedText, metadata));
+    }
+
+    private void releaseSearcher(SearcherManager manager, IndexSearcher searcher) {
+        try {
+            manager.release(searcher);
+        } catch (IOException | AlreadyClosedException e) {
+            log.debug("Failed to release Lucene searcher", e);
         }
     }
 
@@ -355,8 +1321,16 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
 
     @Override
     public void close() {
+        backgroundScheduler.shutdownNow();
+        flush();
         rwLock.writeLock().lock();
         try {
+            Rebuild current = rebuild;
+            rebuild = null;
+            if (current != null) {
+                // kept on disk: the rebuild resumes when the project is opened again
+                current.close();
+            }
             closeIndexWriter();
             directory.close();
         } catch (IOException e) {
@@ -367,20 +1341,27 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
     }
 
     public void recreateIndex() {
+        rwLock.writeLock().lock();
         try {
             log.info("Recreating index...");
+            abortRebuild();
+            rebuildRequested.set(false);
             closeIndexWriter();
             deleteAllIndexFiles();
+            options = optionsSupplier.get();
             initIndexWriter();
+            uncommittedChanges.set(0);
+            searcherStale = false;
             log.info("Index recreated successfully");
         } catch (IOException e) {
             log.error("Échec de la recréation de l'index", e);
+        } finally {
+            rwLock.writeLock().unlock();
         }
     }
 
     private void deleteAllIndexFiles() throws IOException {
         closeIndexWriter();
-        Path indexPath = Paths.get(OLLAMASSIST_DIR, project.getName(), DATABASE_KNOWLEDGE_INDEX);
         cleanDirectory(indexPath);
     }
 
@@ -428,19 +1409,24 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
         return defaultId;
     }
 
-    private Document createDocument(Embedding embedding, EMBEDDED embedded, String filePath) {
+    private String filePathOf(EMBEDDED embedded) {
+        return embedded instanceof TextSegment segment ? SegmentFields.filePath(segment.metadata()) : null;
+    }
+
+    private Document createDocument(Embedding embedding, EMBEDDED embedded, String id, String filePath, int ordinal,
+                                    String contentHash) {
         Document doc = new Document();
 
-        doc.add(new StringField(ID, filePath, Field.Store.YES));
+        doc.add(new StringField(ID, id, Field.Store.YES));
+        if (filePath != null) {
+            String segmentHash = embedded instanceof TextSegment segment ? ContentHash.of(segment.text()) : null;
+            SegmentFields.writeIdentity(doc, filePath, ordinal, contentHash, segmentHash);
+        }
 
         if (embedded instanceof TextSegment segment) {
             doc.add(new StoredField(EMBEDDED, segment.text()));
-
-            String lastIndexedDate = ZonedDateTime.now().toString();
-            doc.add(new StringField(LAST_INDEXED_DATE, lastIndexedDate, Field.Store.YES));
-
-            String metadata = serializeMetadata(segment.metadata());
-            doc.add(new StoredField(METADATA, metadata));
+            doc.add(new TextField(TEXT, segment.text(), Field.Store.NO));
+            SegmentFields.write(doc, segment.metadata(), System.currentTimeMillis());
         }
 
         float[] vector = embedding.vector();
@@ -450,13 +1436,24 @@ public final class LuceneEmbeddingStore<EMBEDDED> implements EmbeddingStore<EMBE
         return doc;
     }
 
-    private String serializeMetadata(Metadata metadata) {
-        try {
-            return mapper.writeValueAsString(metadata.toMap());
-        } catch (JsonProcessingException e) {
-            log.error("Metadata serialization failed", e);
-            return "{}";
+    /**
+     * Index being built next to the current one, in {@link IndexDirectories#rebuildPath(Path)}.
+     */
+    private static final class Rebuild implements Closeable {
+
+        private final Directory directory;
+        private final IndexWriter writer;
+        private final SearcherManager searcherManager;
+
+        private Rebuild(Directory directory, IndexWriter writer, SearcherManager searcherManager) {
+            this.directory = directory;
+            this.writer = writer;
+            this.searcherManager = searcherManager;
         }
-    }
 
+        @Override
+        public void close() throws IOException {
+            IOUtils.close(searcherManager, writer, directory);
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Chooses the files of a collection capped at {@code maxFiles} whatever the order in which parallel walks find them:
+ * source files first, then the other files, each in the order the walks were started and, within a walk, in the
+ * order it found them.
+ * <p>
+ * The source files of a walk are handed over as soon as every walk started before it is done. The other files are
+ * only handed over by {@link #finish()}, once every walk is done, since any source file found until then comes
+ * before them.
+ */
+final class OrderedFileSelection {
+
+    private final int maxFiles;
+    private final Consumer<String> consumer;
+    private final List<Walk> walks = new ArrayList<>();
+    private int nextWalk;
+    private int handedSources;
+
+    OrderedFileSelection(int maxFiles, Consumer<String> consumer) {
+        this.maxFiles = maxFiles;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return the number of the new walk, which ranks after the walks started before
+     */
+    synchronized int startWalk() {
+        walks.add(new Walk());
+        return walks.size() - 1;
+    }
+
+    /**
+     * Forgets the files found by a walk that starts over.
+     */
+    synchronized void restartWalk(int walk) {
+        walks.get(walk).sources.clear();
+        walks.get(walk).others.clear();
+    }
+
+    synchronized void add(int walk, String path, boolean source) {
+        List<String> files = source ? walks.get(walk).sources : walks.get(walk).others;
+        if (files.size() < maxFiles) {
+            files.add(path);
+        }
+    }
+
+    /**
+     * @return true when nothing the walk could still find would be handed over
+     */
+    synchronized boolean isSettled(int walk) {
+        return handedSources >= maxFiles || walks.get(walk).sources.size() >= maxFiles;
+    }
+
+    synchronized void walkDone(int walk) {
+        walks.get(walk).done = true;
+        while (nextWalk < walks.size() && walks.get(nextWalk).done) {
+            List<String> sources = walks.get(nextWalk++).sources;
+            for (int i = 0; i < sources.size() && handedSources < maxFiles; i++) {
+                consumer.accept(sources.get(i));
+                handedSources++;
+            }
+            sources.clear();
+        }
+    }
+
+    /**
+     * Hands over the other files, once every walk is done.
+     *
+     * @return the number of files handed over, {@code maxFiles} once the limit is reached
+     */
+    synchronized int finish() {
+        int handed = handedSources;
+        for (Walk walk : walks) {
+            for (int i = 0; i < walk.others.size() && handed < maxFiles; i++) {
+                consumer.accept(walk.others.get(i));
+                handed++;
+            }
+            walk.others.clear();
+        }
+        return handed;
+    }
+
+    private static final class Walk {
+        private final List<String> sources = new ArrayList<>();
+        private final List<String> others = new ArrayList<>();
+        private boolean done;
+    }
+}
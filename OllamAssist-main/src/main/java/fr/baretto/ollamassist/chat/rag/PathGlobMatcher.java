@@ -0,0 +1,236 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Matches normalized paths against a set of patterns compiled once into deterministic automata, so a path is
+ * checked in one pass over its characters whatever the number of patterns.
+ * <p>
+ * A pattern holding one of {@code * ? [ {} is a glob matched against the end of the path from a segment boundary:
+ * {@code *} and {@code ?} stay within a segment, {@code **} crosses segments, {@code [a-z]}, {@code [!a-z]} and
+ * {@code {java,kt}} work as usual. Any other pattern matches when the path contains it, as sources always did.
+ * Globs share one automaton that runs to the end of the path. A few plain patterns are looked up with
+ * {@link String#contains}, whose vectorized search beats a table-driven automaton; past
+ * {@link #FRAGMENT_AUTOMATON_THRESHOLD} of them, they share an automaton that stops at the first match and whose cost
+ * no longer depends on the number of patterns.
+ */
+public final class PathGlobMatcher {
+
+    private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+    private static final char SEPARATOR = '/';
+    static final int FRAGMENT_AUTOMATON_THRESHOLD = 16;
+
+    private final List<String> fragments;
+    private final List<CharacterRunAutomaton> fragmentAutomata;
+    private final List<CharacterRunAutomaton> globs;
+
+    private PathGlobMatcher(List<String> fragments, List<CharacterRunAutomaton> fragmentAutomata,
+                            List<CharacterRunAutomaton> globs) {
+        this.fragments = fragments;
+        this.fragmentAutomata = fragmentAutomata;
+        this.globs = globs;
+    }
+
+    public static PathGlobMatcher compile(Collection<String> patterns) {
+        List<String> fragments = new ArrayList<>();
+        List<Automaton> globs = new ArrayList<>();
+        for (String pattern : patterns) {
+            String stripped = pattern.strip();
+            if (stripped.isEmpty()) {
+                continue;
+            }
+            if (isGlob(stripped)) {
+                globs.add(parse(stripped.startsWith("/") ? stripped.substring(1) : stripped));
+            } else {
+                fragments.add(stripped);
+            }
+        }
+        List<CharacterRunAutomaton> globAutomata = determinize(globs,
+                union -> Operations.concatenate(anyParent(), union));
+        if (fragments.size() < FRAGMENT_AUTOMATON_THRESHOLD) {
+            return new PathGlobMatcher(List.copyOf(fragments), List.of(), globAutomata);
+        }
+        // a shared prefix and suffix keep the union small once determinized, unlike a union of "contains" automata
+        List<Automaton> literals = fragments.stream().map(Automata::makeString).toList();
+        return new PathGlobMatcher(List.of(), determinize(literals, union -> Operations.concatenate(List.of(
+                Automata.makeAnyString(), union, Automata.makeAnyString()))), globAutomata);
+    }
+
+    private static List<CharacterRunAutomaton> determinize(List<Automaton> patterns, UnaryOperator<Automaton> anchor) {
+        if (patterns.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return List.of(new CharacterRunAutomaton(anchor.apply(Operations.union(patterns))));
+        } catch (TooComplexToDeterminizeException e) {
+            // too many patterns to merge: run them one by one
+            return patterns.stream().map(pattern -> new CharacterRunAutomaton(anchor.apply(pattern))).toList();
+        }
+    }
+
+    public boolean isEmpty() {
+        return fragments.isEmpty() && fragmentAutomata.isEmpty() && globs.isEmpty();
+    }
+
+    /**
+     * @param normalizedPath a path using '/' as separator
+     */
+    public boolean matches(String normalizedPath) {
+        for (String fragment : fragments) {
+            if (normalizedPath.contains(fragment)) {
+                return true;
+            }
+        }
+        for (CharacterRunAutomaton automaton : fragmentAutomata) {
+            if (run(automaton, normalizedPath, true)) {
+                return true;
+            }
+        }
+        for (CharacterRunAutomaton automaton : globs) {
+            if (run(automaton, normalizedPath, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param acceptEarly whether the automaton accepts any suffix once it reached an accept state
+     */
+    private static boolean run(CharacterRunAutomaton automaton, String path, boolean acceptEarly) {
+        int state = 0;
+        for (int i = 0; i < path.length(); ) {
+            int codePoint = path.codePointAt(i);
+            state = automaton.step(state, codePoint);
+            if (state == -1) {
+                return false;
+            }
+            if (acceptEarly && automaton.isAccept(state)) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return automaton.isAccept(state);
+    }
+
+    static boolean isGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lets a glob start at the beginning of the path or right after a separator.
+     */
+    private static Automaton anyParent() {
+        return Operations.optional(Operations.concatenate(Automata.makeAnyString(), Automata.makeChar(SEPARATOR)));
+    }
+
+    private static Automaton parse(String glob) {
+        List<Automaton> parts = new ArrayList<>();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                boolean wholeSegments = i + 2 < glob.length() && glob.charAt(i + 2) == SEPARATOR;
+                parts.add(wholeSegments ? anyParent() : Automata.makeAnyString());
+                i += wholeSegments ? 3 : 2;
+            } else if (c == '*') {
+                parts.add(Operations.repeat(segmentChar()));
+                i++;
+            } else if (c == '?') {
+                parts.add(segmentChar());
+                i++;
+            } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                int end = glob.indexOf(']', i + 2);
+                parts.add(characterClass(glob.substring(i + 1, end)));
+                i = end + 1;
+            } else if (c == '{' && glob.indexOf('}', i) > 0) {
+                int end = glob.indexOf('}', i);
+                List<Automaton> alternatives = new ArrayList<>();
+                for (String alternative : glob.substring(i + 1, end).split(",", -1)) {
+                    alternatives.add(parse(alternative));
+                }
+                parts.add(Operations.union(alternatives));
+                i = end + 1;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                parts.add(Automata.makeChar(glob.charAt(i + 1)));
+                i += 2;
+            } else {
+                parts.add(Automata.makeChar(c));
+                i++;
+            }
+        }
+        return parts.isEmpty() ? Automata.makeEmptyString() : Operations.concatenate(parts);
+    }
+
+    private static Automaton segmentChar() {
+        return Operations.union(
+                Automata.makeCharRange(0, SEPARATOR - 1),
+                Automata.makeCharRange(SEPARATOR + 1, MAX_CODE_POINT));
+    }
+
+    /**
+     * {@code [abc]}, {@code [a-z]} and their negations {@code [!...]} or {@code [^...]}, never matching a separator.
+     */
+    private static Automaton characterClass(String body) {
+        boolean negated = body.startsWith("!") || body.startsWith("^");
+        String ranges = negated ? body.substring(1) : body;
+        List<int[]> included = new ArrayList<>();
+        for (int i = 0; i < ranges.length(); i++) {
+            char start = ranges.charAt(i);
+            if (i + 2 < ranges.length() && ranges.charAt(i + 1) == '-') {
+                included.add(new int[]{start, ranges.charAt(i + 2)});
+                i += 2;
+            } else {
+                included.add(new int[]{start, start});
+            }
+        }
+        included.add(new int[]{SEPARATOR, SEPARATOR});
+        List<int[]> matched = negated ? complement(included) : included.subList(0, included.size() - 1);
+        List<Automaton> automata = new ArrayList<>();
+        for (int[] range : matched) {
+            if (!negated && range[0] <= SEPARATOR && SEPARATOR <= range[1]) {
+                if (range[0] < SEPARATOR) {
+                    automata.add(Automata.makeCharRange(range[0], SEPARATOR - 1));
+                }
+                if (range[1] > SEPARATOR) {
+                    automata.add(Automata.makeCharRange(SEPARATOR + 1, range[1]));
+                }
+            } else {
+                automata.add(Automata.makeCharRange(range[0], range[1]));
+            }
+        }
+        return automata.isEmpty() ? Automata.makeEmpty() : Operations.union(automata);
+    }
+
+    private static List<int[]> complement(List<int[]> ranges) {
+        List<int[]> sorted = new ArrayList<>(ranges);
+        sorted.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> gaps = new ArrayList<>();
+        int next = 0;
+        for (int[] range : sorted) {
+            if (range[0] > next) {
+                gaps.add(new int[]{next, range[0] - 1});
+            }
+            next = Math.max(next, range[1] + 1);
+        }
+        if (next <= MAX_CODE_POINT) {
+            gaps.add(new int[]{next, MAX_CODE_POINT});
+        }
+        return gaps;
+    }
+}
@@ -1 +1 @@
-package fr.baretto.ollamassist.chat.rag;import com.intellij.notification.Notification;import com.intellij.notification.NotificationType;import com.intellij.notification.Notifications;import com.intellij.openapi.Disposable;import com.intellij.openapi.application.ApplicationManager;import com.intellij.openapi.project.Project;import com.intellij.openapi.vfs.VirtualFile;import com.intellij.openapi.vfs.VirtualFileEvent;import com.intellij.openapi.vfs.VirtualFileListener;import com.intellij.openapi.vfs.VirtualFileManager;import com.intellij.util.messages.MessageBusConnection;import dev.langchain4j.data.segment.TextSegment;import fr.baretto.ollamassist.events.StoreNotifier;import fr.baretto.ollamassist.setting.OllamAssistSettings;import lombok.extern.slf4j.Slf4j;import org.jetbrains.annotations.NotNull;import java.util.Collections;import java.util.Set;import java.util.concurrent.ConcurrentHashMap;import java.util.concurrent.TimeUnit;@Slf4jpublic class ProjectFileListener implements Disposable, StoreNotifier {    private final IndexRegistry indexationRegistry;    private final Project project;    private final LuceneEmbeddingStore<TextSegment> store;    private final DocumentIndexingPipeline documentIndexingPipeline;    private final Set<String> currentModifiedFiles;    private final Debouncer<String> debouncer;    private final VirtualFileListener virtualFileListener;    private final MessageBusConnection connection;    private final FilesUtil filesUtil;    public ProjectFileListener(@NotNull Project project, LuceneEmbeddingStore<TextSegment> store) {        this.project = project;        this.store = store;        this.virtualFileListener = createFileListener();        this.connection = project.getMessageBus().connect();        this.debouncer = new Debouncer<>(1, TimeUnit.MINUTES);        this.currentModifiedFiles = Collections.newSetFromMap(new ConcurrentHashMap<>());        this.filesUtil = project.getService(FilesUtil.class);        this.indexationRegistry = ApplicationManager.getApplication().getService(IndexRegistry.class);        this.documentIndexingPipeline = project.getService(DocumentIndexingPipeline.class);        setupFileWatcher();        subscribeToEvents();    }    private void setupFileWatcher() {        VirtualFileManager.getInstance().addVirtualFileListener(virtualFileListener, this);    }    private VirtualFileListener createFileListener() {        return new VirtualFileListener() {            @Override            public void fileCreated(@NotNull VirtualFileEvent event) {                handleFileCreated(event);            }            @Override            public void contentsChanged(@NotNull VirtualFileEvent event) {                handleContentsChanged(event);            }            @Override            public void fileDeleted(@NotNull VirtualFileEvent event) {                handleFileDeleted(event);            }        };    }    private void subscribeToEvents() {        connection.subscribe(StoreNotifier.TOPIC, this);    }    public void clear() {        indexationRegistry.removeProject(project.getName());        load();    }    @Override    public void clearDatabaseAndRunIndexation() {        indexationRegistry.markAllAsCorrupted();        project.getMessageBus().syncPublisher(Notifications.TOPIC)                .notify(new Notification(                        "RAG_Indexation",                        "RAG Indexing",                        "Configuration change detected. Index was corrupted and is now being reindexed.",                        NotificationType.INFORMATION                ));        load();    }    private void handleFileCreated(@NotNull VirtualFileEvent event) {        if (OllamAssistSettings.getInstance().ragEnabled() &&                filesUtil.shouldBeIndexed(event.getFile())) {            debouncer.debounce(event.getFile().getName(), () -> {                VirtualFile file = event.getFile();                if (file.getLength() > 0) {                    documentIndexingPipeline.addDocument(file.getPath());                }            });        }    }    private void handleContentsChanged(@NotNull VirtualFileEvent event) {        if (OllamAssistSettings.getInstance().ragEnabled() &&                filesUtil.shouldBeIndexed(event.getFile())) {            debouncer.debounce(event.getFile().getName(), () -> {                store.removeAll(new IdStartWithFilter(event.getFile().getPath()));                if (event.getFile().getLength() > 0) {                    documentIndexingPipeline.addDocument(event.getFile().getPath());                    currentModifiedFiles.remove(event.getFile().getPath());                }            });        }    }    private void handleFileDeleted(@NotNull VirtualFileEvent event) {        if (OllamAssistSettings.getInstance().ragEnabled()) {            store.removeAll(new IdStartWithFilter(event.getFile().getPath()));        }    }    public void load() {        if (indexationRegistry.indexationIsProcessing(project.getName())                || !OllamAssistSettings.getInstance().ragEnabled()) {            return;        }        if (!indexationRegistry.isIndexed(project.getName())) {            new InitEmbeddingStoreTask(project, indexationRegistry).queue();        }    }    @Override    public void dispose() {        connection.disconnect();        debouncer.shutdown();        VirtualFileManager.getInstance().removeVirtualFileListener(virtualFileListener);    }}
\ No newline at end of file
+package fr.baretto.ollamassist.chat.rag;import com.intellij.notification.Notification;import com.intellij.notification.NotificationType;import com.intellij.notification.Notifications;import com.intellij.openapi.Disposable;import com.intellij.openapi.application.ApplicationManager;import com.intellij.openapi.project.Project;import com.intellij.openapi.roots.ProjectFileIndex;import com.intellij.openapi.vfs.LocalFileSystem;import com.intellij.openapi.vfs.VirtualFile;import com.intellij.openapi.vfs.VirtualFileManager;import com.intellij.openapi.vfs.newvfs.BulkFileListener;import com.intellij.openapi.vfs.newvfs.events.*;import com.intellij.util.concurrency.AppExecutorUtil;import com.intellij.util.messages.MessageBusConnection;import dev.langchain4j.data.segment.TextSegment;import fr.baretto.ollamassist.events.StoreNotifier;import fr.baretto.ollamassist.setting.OllamAssistSettings;import lombok.extern.slf4j.Slf4j;import org.jetbrains.annotations.NotNull;import java.util.IdentityHashMap;import java.util.LinkedHashSet;import java.util.List;import java.util.Map;import java.util.Set;import java.util.concurrent.ScheduledFuture;import java.util.concurrent.TimeUnit;import java.util.concurrent.atomic.AtomicBoolean;@Slf4jpublic class ProjectFileListener implements Disposable, StoreNotifier {    /**     * Events are gathered for this long after the first one, so a branch switch or a refactoring ends up in a     * single index update.     */    private static final long BATCH_DELAY_SECONDS = 2;    private final IndexRegistry indexationRegistry;    private final Project project;    private final String projectKey;    private final LuceneEmbeddingStore<TextSegment> store;    private final DocumentIndexingPipeline documentIndexingPipeline;    private final FileChangeBatcher changes = new FileChangeBatcher();    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);    /**     * Old path of the moves and renames out of a project file, from {@code before} to {@code after} of the same     * events. Both run in the write action, hence no synchronization.     */    private final Map<VFileEvent, String> movedFromProject = new IdentityHashMap<>();    private final MessageBusConnection connection;    private final FilesUtil filesUtil;    private volatile ScheduledFuture<?> scheduledUpdate;    public ProjectFileListener(@NotNull Project project, LuceneEmbeddingStore<TextSegment> store) {        this.project = project;        this.projectKey = IndexRegistry.projectKey(project);        this.store = store;        this.connection = project.getMessageBus().connect();        this.filesUtil = project.getService(FilesUtil.class);        this.indexationRegistry = ApplicationManager.getApplication().getService(IndexRegistry.class);        this.documentIndexingPipeline = project.getService(DocumentIndexingPipeline.class);        setupFileWatcher();        subscribeToEvents();    }    private void setupFileWatcher() {        connection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {            @Override            public void before(@NotNull List<? extends VFileEvent> events) {                recordRemovals(events);            }            @Override            public void after(@NotNull List<? extends VFileEvent> events) {                recordAdditions(events);            }        });    }    private void subscribeToEvents() {        connection.subscribe(StoreNotifier.TOPIC, this);    }    public void clear() {        indexationRegistry.removeProject(projectKey);        load();    }    @Override    public void clearDatabaseAndRunIndexation() {        indexationRegistry.markAllAsCorrupted();        project.getMessageBus().syncPublisher(Notifications.TOPIC)                .notify(new Notification(                        "RAG_Indexation",                        "RAG Indexing",                        "Configuration change detected. Index was corrupted and is now being reindexed.",                        NotificationType.INFORMATION                ));        load();    }    @Override    public void embeddingModelChanged() {        load();    }    /**     * Deletions are recorded before they happen, while the files can still be checked against the project, and so     * is the old path of moves and renames: {@link #recordAdditions} records them once the new path is known.     */    private void recordRemovals(List<? extends VFileEvent> events) {        if (!OllamAssistSettings.getInstance().ragEnabled()) {            return;        }        for (VFileEvent event : events) {            VirtualFile file = event.getFile();            if (file == null || !isInProject(file)) {                continue;            }            if (event instanceof VFileDeleteEvent) {                changes.deleted(file.getPath(), file.isDirectory());            } else if (event instanceof VFileMoveEvent || isRename(event)) {                movedFromProject.put(event, file.getPath());            }        }    }    private void recordAdditions(List<? extends VFileEvent> events) {        if (!OllamAssistSettings.getInstance().ragEnabled()) {            movedFromProject.clear();            return;        }        for (VFileEvent event : events) {            String movedFrom = movedFromProject.remove(event);            VirtualFile file = event.getFile();            if (file == null || !isInProject(file)) {                if (movedFrom != null && file != null) {                    // moved out of the project                    changes.deleted(movedFrom, file.isDirectory());                }                continue;            }            if (event instanceof VFileContentChangeEvent) {                if (file.getLength() == 0) {                    changes.deleted(file.getPath(), false);                } else if (filesUtil.shouldBeIndexed(file)) {                    changes.changed(file.getPath());                }            } else if (event instanceof VFileCreateEvent || event instanceof VFileMoveEvent || isRename(event)) {                recordAddition(file, movedFrom);            }        }        movedFromProject.clear();        if (!changes.isEmpty()) {            scheduleUpdate();        }    }    /**     * @param movedFrom the old path of a file moved or renamed within the project, null for a new file     */    private void recordAddition(VirtualFile file, String movedFrom) {        boolean directory = file.isDirectory();        boolean indexed = directory || filesUtil.shouldBeIndexed(file);        if (movedFrom == null) {            if (indexed) {                changes.created(file.getPath(), directory);            }        } else if (indexed) {            changes.moved(movedFrom, file.getPath(), directory);        } else {            changes.deleted(movedFrom, false);        }    }    private static boolean isRename(VFileEvent event) {        return event instanceof VFilePropertyChangeEvent propertyChange && propertyChange.isRename();    }    private boolean isInProject(VirtualFile file) {        return file.isValid() && ProjectFileIndex.getInstance(project).isInContent(file);    }    private void scheduleUpdate() {        if (updateScheduled.compareAndSet(false, true)) {            scheduledUpdate = AppExecutorUtil.getAppScheduledExecutorService()                    .schedule(this::applyChanges, BATCH_DELAY_SECONDS, TimeUnit.SECONDS);        }    }    /**     * Submits the net changes gathered since the previous update in one batch: files created, changed or moved in     * are queued once each, ahead of any running bulk indexation, and deleted files leave the queue and the index.     */    private void applyChanges() {        // events recorded from now on go to the next update        updateScheduled.set(false);        FileChangeBatcher.ChangeSet changeSet = changes.drain();        if (changeSet.isEmpty() || project.isDisposed()) {            return;        }        Set<String> updatedFiles = new LinkedHashSet<>(changeSet.updatedFiles());        for (String directoryPath : changeSet.createdDirectories()) {            VirtualFile directory = LocalFileSystem.getInstance().findFileByPath(directoryPath);            if (directory != null && directory.isValid()) {                updatedFiles.addAll(filesUtil.collectFilePaths(directory));            }        }        int queued = documentIndexingPipeline.applyFileChanges(                updatedFiles, changeSet.deletedFiles(), changeSet.deletedDirectories());        log.debug("Applied file changes: {} updated ({} newly queued), {} deleted files, {} deleted directories",                updatedFiles.size(), queued, changeSet.deletedFiles().size(), changeSet.deletedDirectories().size());    }    public void load() {        if (indexationRegistry.indexationIsProcessing(projectKey)                || !OllamAssistSettings.getInstance().ragEnabled()) {            return;        }        if (store.isIndexationInterrupted()) {            // the indexation resumes, skipping the files it already committed            indexationRegistry.removeProject(projectKey);        }        if (store.isRebuildRequired()) {            if (store.startRebuild()) {                // the current index keeps serving until the rebuilt one replaces it                indexationRegistry.removeProject(projectKey);            } else if (store.isIndexFormatOutdated()) {                indexationRegistry.markAsCorrupted(projectKey);            }        }        if (!indexationRegistry.isIndexed(projectKey)) {            new InitEmbeddingStoreTask(project, indexationRegistry).queue();        }    }    @Override    public void dispose() {        connection.disconnect();        ScheduledFuture<?> pending = scheduledUpdate;        if (pending != null) {            pending.cancel(false);        }    }}
\ No newline at end of file
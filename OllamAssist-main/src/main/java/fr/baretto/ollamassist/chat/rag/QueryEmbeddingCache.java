@@ -0,0 +1,122 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory LRU of query embeddings: chat questions and completion windows, which are embedded on every request.
+ * <p>
+ * Entries are keyed by the embedding model and the hash of the text with whitespace runs collapsed, so a query
+ * asked again, or a caret window that only differs by indentation or blank lines, skips the embedding round-trip.
+ * Unlike the {@link EmbeddingCache} of segments, queries are short-lived and not persisted.
+ */
+public class QueryEmbeddingCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final AsyncCache<Key, Embedding> cache;
+
+    public QueryEmbeddingCache(long maxEntries) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxEntries))
+                // evictions are cheap at this size: keep them off the common pool and the bound exact
+                .executor(Runnable::run)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * @return {@code delegate} with its single-text embeddings served by this cache; batches go to the delegate.
+     * Concurrent requests for the same query share a single computation, which runs on the thread of the first one
+     * and outside of the cache's locks.
+     */
+    public EmbeddingModel wrap(EmbeddingModel delegate, String modelName) {
+        return new CachingModel(delegate, modelName);
+    }
+
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    public void clear() {
+        cache.synchronous().invalidateAll();
+    }
+
+    static String keyOf(String text) {
+        return ContentHash.of(normalize(text));
+    }
+
+    static String normalize(String text) {
+        return WHITESPACE.matcher(text.strip()).replaceAll(" ");
+    }
+
+    private record Key(String modelName, String textHash) {
+    }
+
+    private final class CachingModel implements EmbeddingModel {
+
+        private final EmbeddingModel delegate;
+        private final String modelName;
+
+        private CachingModel(EmbeddingModel delegate, String modelName) {
+            this.delegate = delegate;
+            this.modelName = modelName;
+        }
+
+        @Override
+        public Response<Embedding> embed(String text) {
+            Key key = new Key(modelName, keyOf(text));
+            CompletableFuture<Embedding> pending = new CompletableFuture<>();
+            CompletableFuture<Embedding> entry = cache.get(key, (ignored, executor) -> pending);
+            if (entry != pending) {
+                try {
+                    return Response.from(entry.join());
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException cause ? cause : e;
+                }
+            }
+            try {
+                Response<Embedding> response = delegate.embed(text);
+                // an embedding from a fallback model would be served for this model long after the fallback ended
+                if (!EmbeddingRouter.producedBy(response, modelName)) {
+                    cache.asMap().remove(key, pending);
+                }
+                pending.complete(response.content());
+                return response;
+            } catch (RuntimeException e) {
+                cache.asMap().remove(key, pending);
+                pending.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public Response<Embedding> embed(TextSegment textSegment) {
+            return embed(textSegment.text());
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            return delegate.embedAll(textSegments);
+        }
+
+        @Override
+        public int dimension() {
+            return delegate.dimension();
+        }
+    }
+}
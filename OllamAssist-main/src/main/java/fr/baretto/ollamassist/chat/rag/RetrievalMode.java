@@ -0,0 +1,18 @@
+package fr.baretto.ollamassist.chat.rag;
+
+/**
+ * How the knowledge index is queried by the chat.
+ */
+public enum RetrievalMode {
+
+    /**
+     * Nearest neighbours of the query embedding only.
+     */
+    VECTOR,
+
+    /**
+     * Nearest neighbours and BM25 matches on the segment text, merged with reciprocal rank fusion.
+     * Recovers segments quoting identifiers that the embedding model does not capture well.
+     */
+    HYBRID
+}
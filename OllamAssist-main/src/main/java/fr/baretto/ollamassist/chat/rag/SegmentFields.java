@@ -0,0 +1,200 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.KeywordField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typed stored fields holding the metadata of a knowledge index segment.
+ * <p>
+ * The well-known keys (file name, directory, segment index) get dedicated fields, the indexing time is an
+ * epoch-millis long with doc values, and any other metadata entry is stored under {@value #EXTRA_PREFIX} with its
+ * own type. Reading a hit therefore needs no JSON parsing. Documents written before this layout, with a JSON
+ * metadata field and an ISO {@link #LAST_INDEXED_DATE}, only exist in indexes of an older schema: those are not
+ * searched, and are rebuilt instead of migrated.
+ */
+final class SegmentFields {
+
+    static final String FILE_NAME = "file_name";
+    static final String DIRECTORY = "absolute_directory_path";
+    static final String SEGMENT_INDEX = "index";
+    static final String LAST_INDEXED_DATE = "last_indexed_date";
+    static final String INDEXED_AT = "indexed_at";
+    static final String FILE_PATH = "file_path";
+    static final String SEGMENT_ORDINAL = "segment_ordinal";
+    static final String CONTENT_HASH = "content_hash";
+    static final String SEGMENT_HASH = "segment_hash";
+    /**
+     * Modification time of the file when it was read for indexing, in epoch millis.
+     */
+    static final String FILE_LAST_MODIFIED = "file_last_modified";
+    /**
+     * Modification time the indexed content of the file was last seen with, in epoch millis: the
+     * {@link #FILE_LAST_MODIFIED} it was read at, then updated in place when the file is touched without changing.
+     */
+    static final String FILE_VERSION = "file_version";
+
+    private static final String SEGMENT_INDEX_FIELD = "segment_index";
+    private static final String EXTRA_PREFIX = "meta.";
+
+    private SegmentFields() {
+    }
+
+    /**
+     * @return the normalized path of the file a segment comes from, or null when its metadata does not say.
+     */
+    static String filePath(Metadata metadata) {
+        String directory = metadata.getString(DIRECTORY);
+        String fileName = metadata.getString(FILE_NAME);
+        if (directory == null || fileName == null) {
+            return null;
+        }
+        return normalizePath(directory + "/" + fileName);
+    }
+
+    static String normalizePath(String path) {
+        return path.replace('\\', '/');
+    }
+
+    /**
+     * Adds the keyword identifying the file of the segment and the position of the segment in that file,
+     * along with the hash of the whole file content (when known) and of the segment text.
+     */
+    static void writeIdentity(Document doc, String filePath, int ordinal, String contentHash, String segmentHash) {
+        doc.add(new KeywordField(FILE_PATH, filePath, Field.Store.NO));
+        doc.add(new IntField(SEGMENT_ORDINAL, ordinal, Field.Store.YES));
+        if (contentHash != null) {
+            doc.add(new StoredField(CONTENT_HASH, contentHash));
+        }
+        if (segmentHash != null) {
+            doc.add(new StoredField(SEGMENT_HASH, segmentHash));
+        }
+    }
+
+    static void write(Document doc, Metadata metadata, long indexedAtMillis) {
+        doc.add(new LongField(INDEXED_AT, indexedAtMillis, Field.Store.YES));
+        for (Map.Entry<String, Object> entry : metadata.toMap().entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (FILE_NAME.equals(key) || DIRECTORY.equals(key)) {
+                doc.add(new StoredField(key, value.toString()));
+            } else if (SEGMENT_INDEX.equals(key) && isInteger(value)) {
+                doc.add(new StoredField(SEGMENT_INDEX_FIELD, Integer.parseInt(value.toString())));
+            } else if (FILE_LAST_MODIFIED.equals(key) && value instanceof Long lastModified) {
+                doc.add(new LongField(FILE_LAST_MODIFIED, lastModified, Field.Store.YES));
+                doc.add(new NumericDocValuesField(FILE_VERSION, lastModified));
+            } else {
+                doc.add(extraField(EXTRA_PREFIX + key, value));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the segment metadata of a stored document. {@link #LAST_INDEXED_DATE} holds the indexing time in
+     * epoch millis.
+     */
+    static Metadata read(Document doc) {
+        Metadata metadata = new Metadata();
+        for (IndexableField field : doc) {
+            String name = field.name();
+            if (FILE_NAME.equals(name) || DIRECTORY.equals(name)) {
+                metadata.put(name, field.stringValue());
+            } else if (SEGMENT_INDEX_FIELD.equals(name)) {
+                metadata.put(SEGMENT_INDEX, String.valueOf(field.numericValue().intValue()));
+            } else if (INDEXED_AT.equals(name)) {
+                metadata.put(LAST_INDEXED_DATE, field.numericValue().longValue());
+            } else if (FILE_LAST_MODIFIED.equals(name)) {
+                metadata.put(FILE_LAST_MODIFIED, field.numericValue().longValue());
+            } else if (name.startsWith(EXTRA_PREFIX)) {
+                putExtra(metadata, name.substring(EXTRA_PREFIX.length()), field);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Reads, from doc values, the {@link #FILE_VERSION} of every indexed file that has one, or its
+     * {@link #FILE_LAST_MODIFIED} when it was indexed before versions were recorded.
+     */
+    static Map<String, Long> fileVersions(IndexReader reader) throws IOException {
+        Map<String, Long> versions = new HashMap<>();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            SortedSetDocValues paths = DocValues.getSortedSet(leaf.reader(), FILE_PATH);
+            NumericDocValues version = DocValues.getNumeric(leaf.reader(), FILE_VERSION);
+            SortedNumericDocValues lastModified = DocValues.getSortedNumeric(leaf.reader(), FILE_LAST_MODIFIED);
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int doc = paths.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = paths.nextDoc()) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                if (version.advanceExact(doc)) {
+                    versions.put(paths.lookupOrd(paths.nextOrd()).utf8ToString(), version.longValue());
+                } else if (lastModified.advanceExact(doc)) {
+                    versions.put(paths.lookupOrd(paths.nextOrd()).utf8ToString(), lastModified.nextValue());
+                }
+            }
+        }
+        return versions;
+    }
+
+    private static StoredField extraField(String name, Object value) {
+        if (value instanceof Integer intValue) {
+            return new StoredField(name, intValue);
+        }
+        if (value instanceof Long longValue) {
+            return new StoredField(name, longValue);
+        }
+        if (value instanceof Float floatValue) {
+            return new StoredField(name, floatValue);
+        }
+        if (value instanceof Double doubleValue) {
+            return new StoredField(name, doubleValue);
+        }
+        return new StoredField(name, value.toString());
+    }
+
+    private static void putExtra(Metadata metadata, String key, IndexableField field) {
+        Number number = field.numericValue();
+        if (number instanceof Integer intValue) {
+            metadata.put(key, intValue);
+        } else if (number instanceof Long longValue) {
+            metadata.put(key, longValue);
+        } else if (number instanceof Float floatValue) {
+            metadata.put(key, floatValue);
+        } else if (number instanceof Double doubleValue) {
+            metadata.put(key, doubleValue);
+        } else {
+            metadata.put(key, field.stringValue());
+        }
+    }
+
+    private static boolean isInteger(Object value) {
+        if (value instanceof Integer) {
+            return true;
+        }
+        try {
+            Integer.parseInt(value.toString());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
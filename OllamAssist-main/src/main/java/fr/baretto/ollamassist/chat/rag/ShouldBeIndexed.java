@@ -2,49 +2,76 @@ package fr.baretto.ollamassist.chat.rag;
 
 import fr.baretto.ollamassist.setting.OllamAssistSettings;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * Matches the paths selected by the sources setting: entries separated by ';', each one either a plain fragment
+ * contained in the path or a glob such as {@code src/**}{@code /*.java}; entries starting with '!' exclude the
+ * paths they match.
+ * <p>
+ * Only the path is checked: the caller already knows whether the file exists and is empty from its
+ * {@link com.intellij.openapi.vfs.VirtualFile}.
+ */
 public class ShouldBeIndexed implements PathMatcher {
 
     private static final String SEPARATOR = ";";
+    private static final String EXCLUSION = "!";
     protected Set<String> includedPaths;
     protected Set<String> excludedPaths;
 
+    private volatile Compiled compiled;
+
     ShouldBeIndexed() {
-        this.includedPaths = getSourcePatterns();
-        this.excludedPaths = Set.of();
+        Set<String> sources = getSourcePatterns();
+        this.includedPaths = sources.stream()
+                .filter(source -> !source.startsWith(EXCLUSION))
+                .collect(Collectors.toSet());
+        this.excludedPaths = sources.stream()
+                .filter(source -> source.startsWith(EXCLUSION))
+                .map(source -> source.substring(EXCLUSION.length()))
+                .filter(source -> !source.isBlank())
+                .collect(Collectors.toSet());
     }
 
     @Override
     public boolean matches(Path path) {
         String normalizedPath = path.toString().replace('\\', '/');
-        boolean isIncluded = includedPaths.isEmpty();
-        for (String inclusion : includedPaths) {
-            if (normalizedPath.contains(inclusion)) {
-                isIncluded = true;
-                break;
-            }
-        }
-        if (!isIncluded) {
-            return false;
-        }
-        try {
-            return Files.isRegularFile(path) && path.toFile().length() > 0;
-        } catch (SecurityException e) {
-            return false;
+        Compiled matchers = compiled();
+        return (matchers.included.isEmpty() || matchers.included.matches(normalizedPath))
+                && !matchers.excluded.matches(normalizedPath);
+    }
+
+    /**
+     * @return true when an exclusion entry matches the path, whatever the included entries
+     */
+    public boolean excludes(Path path) {
+        return compiled().excluded.matches(path.toString().replace('\\', '/'));
+    }
+
+    private Compiled compiled() {
+        Compiled current = compiled;
+        if (current == null || current.includedPaths != includedPaths || current.excludedPaths != excludedPaths) {
+            current = new Compiled(includedPaths, excludedPaths,
+                    PathGlobMatcher.compile(includedPaths), PathGlobMatcher.compile(excludedPaths));
+            compiled = current;
         }
+        return current;
     }
 
     private Set<String> getSourcePatterns() {
         return Arrays.stream(OllamAssistSettings.getInstance()
                         .getSources()
                         .split(SEPARATOR))
+                .map(String::strip)
                 .filter(s -> !s.isBlank())
                 .collect(Collectors.toSet());
     }
+
+    private record Compiled(Set<String> includedPaths, Set<String> excludedPaths,
+                            PathGlobMatcher included, PathGlobMatcher excluded) {
+    }
 }
@@ -0,0 +1,381 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One run of the staged indexing pipeline:
+ * <ol>
+ *     <li>read and parse files on an I/O pool, dropping the unchanged ones,</li>
+ *     <li>split documents into segments on a CPU pool,</li>
+ *     <li>embed segments of several files per call, sized by {@link EmbeddingBatchSizer}, with a bounded number of
+ *     concurrent calls,</li>
+ *     <li>write each file to the index from a single thread.</li>
+ * </ol>
+ * Every stage hands over to the next one through a bounded buffer and blocks when it is full, so a slow
+ * embedding backend throttles file reading instead of the whole project piling up in memory. The stages run on
+ * {@link Pools} that outlive the run, so the small runs of file changes do not start threads of their own.
+ */
+@Slf4j
+final class StagedIndexingRun implements AutoCloseable {
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    /**
+     * @return the parsed file, or null when it does not need to be indexed again.
+     */
+    @FunctionalInterface
+    interface Reader {
+        ParsedFile read(String filePath) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Splitter {
+        List<TextSegment> split(ParsedFile file) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(EmbeddedFile file) throws Exception;
+    }
+
+    interface Listener {
+        void onIndexed(String filePath);
+
+        void onFailed(String filePath, Exception exception);
+    }
+
+    record ParsedFile(String path, String contentHash, Document document) {
+    }
+
+    record SplitFile(String path, String contentHash, List<TextSegment> segments) {
+    }
+
+    record EmbeddedFile(String path, String contentHash, List<TextSegment> segments, List<Embedding> embeddings) {
+    }
+
+    record Options(int readerThreads, int splitterThreads, int embeddingConcurrency, int bufferCapacity,
+                   int maxSegmentsPerEmbeddingCall) {
+
+        static Options forCurrentMachine(int embeddingConcurrency, int maxSegmentsPerEmbeddingCall) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            return new Options(Math.min(4, processors), Math.max(1, processors / 2), Math.max(1, embeddingConcurrency),
+                    64, Math.max(1, maxSegmentsPerEmbeddingCall));
+        }
+    }
+
+    private final Options options;
+    private final Reader reader;
+    private final Splitter splitter;
+    private final EmbeddingModel embeddingModel;
+    private final String modelName;
+    private final EmbeddingBatchSizer batchSizer;
+    private final Writer writer;
+    private final Listener listener;
+
+    private final Pools pools;
+    private final CountDownLatch stoppedLoops;
+    private final Semaphore readerSlots;
+    private final Semaphore splitterSlots;
+    private final BlockingQueue<SplitFile> embeddingQueue;
+    private final BlockingQueue<EmbeddedFile> writeQueue;
+    private final Object completionLock = new Object();
+    private int pendingFiles;
+    private volatile boolean running = true;
+
+    /**
+     * @param modelName the model the index holds vectors of: embeddings produced by another one fail their files
+     */
+    StagedIndexingRun(Pools pools, Reader reader, Splitter splitter, EmbeddingModel embeddingModel,
+                      String modelName, EmbeddingBatchSizer batchSizer, Writer writer, Listener listener) {
+        this.pools = pools;
+        this.options = pools.options();
+        this.reader = reader;
+        this.splitter = splitter;
+        this.embeddingModel = embeddingModel;
+        this.modelName = modelName;
+        this.batchSizer = batchSizer;
+        this.writer = writer;
+        this.listener = listener;
+
+        this.stoppedLoops = new CountDownLatch(options.embeddingConcurrency() + 1);
+        this.readerSlots = new Semaphore(options.readerThreads() + options.bufferCapacity());
+        this.splitterSlots = new Semaphore(options.splitterThreads() + options.bufferCapacity());
+        this.embeddingQueue = new ArrayBlockingQueue<>(options.bufferCapacity());
+        this.writeQueue = new ArrayBlockingQueue<>(options.bufferCapacity());
+
+        for (int i = 0; i < options.embeddingConcurrency(); i++) {
+            pools.embedders.execute(() -> runLoop(this::embedLoop));
+        }
+        pools.writer.execute(() -> runLoop(this::writeLoop));
+    }
+
+    /**
+     * Queues a file, blocking while the read stage is full.
+     */
+    void submit(String filePath) throws InterruptedException {
+        readerSlots.acquire();
+        synchronized (completionLock) {
+            pendingFiles++;
+        }
+        pools.readers.execute(() -> {
+            try {
+                ParsedFile parsed = reader.read(filePath);
+                if (parsed == null) {
+                    indexed(filePath);
+                    return;
+                }
+                splitterSlots.acquire();
+                pools.splitters.execute(() -> split(parsed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed(filePath, e);
+            } catch (Exception e) {
+                failed(filePath, e);
+            } finally {
+                readerSlots.release();
+            }
+        });
+    }
+
+    /**
+     * Waits until every submitted file has been indexed or has failed.
+     */
+    void awaitCompletion() throws InterruptedException {
+        synchronized (completionLock) {
+            while (pendingFiles > 0) {
+                completionLock.wait();
+            }
+        }
+    }
+
+    private void split(ParsedFile parsed) {
+        try {
+            List<TextSegment> segments = splitter.split(parsed);
+            if (segments.isEmpty()) {
+                indexed(parsed.path());
+                return;
+            }
+            if (!handOver(embeddingQueue, new SplitFile(parsed.path(), parsed.contentHash(), segments))) {
+                failed(parsed.path(), new CancellationException("Indexing run closed"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(parsed.path(), e);
+        } catch (Exception e) {
+            failed(parsed.path(), e);
+        } finally {
+            splitterSlots.release();
+        }
+    }
+
+    private void embedLoop() {
+        while (running) {
+            List<SplitFile> batch = new ArrayList<>();
+            try {
+                SplitFile first = embeddingQueue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int segmentCount = first.segments().size();
+                int tokens = EmbeddingBatchSizer.estimateTokens(first.segments());
+                int tokenBudget = batchSizer.tokenBudget();
+                SplitFile next;
+                while (segmentCount < options.maxSegmentsPerEmbeddingCall() && tokens < tokenBudget
+                        && (next = embeddingQueue.poll()) != null) {
+                    batch.add(next);
+                    segmentCount += next.segments().size();
+                    tokens += EmbeddingBatchSizer.estimateTokens(next.segments());
+                }
+                embed(batch, segmentCount);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(file -> failed(file.path(), e));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Embeds the segments of the batch in as many calls as the current budget requires, then hands every file
+     * its own slice of the vectors.
+     */
+    private void embed(List<SplitFile> batch, int segmentCount) throws InterruptedException {
+        List<Embedding> embeddings = new ArrayList<>(segmentCount);
+        try {
+            List<TextSegment> segments = new ArrayList<>(segmentCount);
+            batch.forEach(file -> segments.addAll(file.segments()));
+            int from = 0;
+            while (from < segments.size()) {
+                int to = batchSizer.nextCallEnd(segments, from, options.maxSegmentsPerEmbeddingCall());
+                List<TextSegment> call = segments.subList(from, to);
+                long start = System.nanoTime();
+                Response<List<Embedding>> response = embeddingModel.embedAll(call);
+                batchSizer.record(EmbeddingBatchSizer.estimateTokens(call), System.nanoTime() - start);
+                if (!EmbeddingRouter.producedBy(response, modelName)) {
+                    throw new IllegalStateException("Embeddings produced by "
+                            + response.metadata().get(EmbeddingRouter.MODEL_METADATA_KEY) + " instead of " + modelName);
+                }
+                List<Embedding> result = response.content();
+                if (result.size() != call.size()) {
+                    throw new IllegalStateException("Expected " + call.size() + " embeddings but got " + result.size());
+                }
+                embeddings.addAll(result);
+                from = to;
+            }
+        } catch (Exception e) {
+            batch.forEach(file -> failed(file.path(), e));
+            return;
+        }
+        int offset = 0;
+        for (SplitFile file : batch) {
+            int count = file.segments().size();
+            if (!handOver(writeQueue, new EmbeddedFile(file.path(), file.contentHash(), file.segments(),
+                    embeddings.subList(offset, offset + count)))) {
+                failed(file.path(), new CancellationException("Indexing run closed"));
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Puts the file in the buffer of the next stage, blocking while it is full.
+     *
+     * @return false when the run was closed meanwhile: nothing takes files from the buffer anymore
+     */
+    private <T> boolean handOver(BlockingQueue<T> buffer, T file) throws InterruptedException {
+        while (running) {
+            if (buffer.offer(file, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runLoop(Runnable loop) {
+        try {
+            loop.run();
+        } finally {
+            stoppedLoops.countDown();
+        }
+    }
+
+    private void writeLoop() {
+        while (running) {
+            EmbeddedFile file;
+            try {
+                file = writeQueue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (file == null) {
+                continue;
+            }
+            try {
+                writer.write(file);
+                indexed(file.path());
+            } catch (Exception e) {
+                failed(file.path(), e);
+            }
+        }
+    }
+
+    private void indexed(String filePath) {
+        try {
+            listener.onIndexed(filePath);
+        } finally {
+            fileDone();
+        }
+    }
+
+    private void failed(String filePath, Exception exception) {
+        try {
+            listener.onFailed(filePath, exception);
+        } finally {
+            fileDone();
+        }
+    }
+
+    private void fileDone() {
+        synchronized (completionLock) {
+            pendingFiles--;
+            completionLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the embedding and writing loops of this run, leaving the pools to the next one.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (!stoppedLoops.await(5, TimeUnit.SECONDS)) {
+                log.warn("Indexing stage did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Threads of the stages, shared by the successive runs of a pipeline and sized by its {@link Options}.
+     * The embedding threads only issue the calls: the inferences of the bundled model run on the shared executor of
+     * {@link EmbeddingService}, which the calls wait on and therefore cannot run on.
+     */
+    static final class Pools implements AutoCloseable {
+
+        private final Options options;
+        private final ExecutorService readers;
+        private final ExecutorService splitters;
+        private final ExecutorService embedders;
+        private final ExecutorService writer;
+
+        Pools(Options options) {
+            this.options = options;
+            this.readers = Executors.newFixedThreadPool(options.readerThreads(), threadFactory("indexing-reader"));
+            this.splitters = Executors.newFixedThreadPool(options.splitterThreads(), threadFactory("indexing-splitter"));
+            this.embedders = Executors.newFixedThreadPool(options.embeddingConcurrency(), threadFactory("indexing-embedder"));
+            this.writer = Executors.newSingleThreadExecutor(threadFactory("indexing-writer"));
+        }
+
+        Options options() {
+            return options;
+        }
+
+        @Override
+        public void close() {
+            List<ExecutorService> pools = List.of(readers, splitters, embedders, writer);
+            pools.forEach(ExecutorService::shutdownNow);
+            try {
+                for (ExecutorService pool : pools) {
+                    if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                        log.warn("Indexing stage did not stop in time");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswScalarQuantizedVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+
+/**
+ * Storage format of the embedding vectors in the knowledge index.
+ * <p>
+ * Quantized modes keep the raw float32 vectors on disk for merges and rescoring, but the HNSW graph
+ * is searched over the quantized copy, which is 4x (int8) or 8x (int4) smaller and therefore much
+ * friendlier to the page cache.
+ */
+public enum VectorQuantization {
+
+    NONE {
+        @Override
+        public KnnVectorsFormat format(int maxConn, int beamWidth) {
+            return new Lucene99HnswVectorsFormat(maxConn, beamWidth);
+        }
+    },
+
+    INT8 {
+        @Override
+        public KnnVectorsFormat format(int maxConn, int beamWidth) {
+            return new Lucene99HnswScalarQuantizedVectorsFormat(maxConn, beamWidth, 1, 7, false, null, null);
+        }
+    },
+
+    INT4 {
+        @Override
+        public KnnVectorsFormat format(int maxConn, int beamWidth) {
+            return new Lucene99HnswScalarQuantizedVectorsFormat(maxConn, beamWidth, 1, 4, true, 0f, null);
+        }
+    };
+
+    public abstract KnnVectorsFormat format(int maxConn, int beamWidth);
+}
@@ -0,0 +1,197 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * BERT WordPiece tokenizer, read from the Hugging Face {@code tokenizer.json} of the bundled embedding model.
+ * <p>
+ * Text is cleaned of control characters, lowercased and stripped of accents when the normalizer says so, split on
+ * whitespace, punctuation and CJK characters, then each word is split into the longest vocabulary pieces.
+ */
+final class WordPieceTokenizer {
+
+    private static final String CLS = "[CLS]";
+    private static final String SEP = "[SEP]";
+    private static final String PAD = "[PAD]";
+    private static final String UNK = "[UNK]";
+    private static final String CONTINUATION = "##";
+    private static final int DEFAULT_MAX_INPUT_CHARS_PER_WORD = 100;
+
+    private final Map<String, Integer> vocab;
+    private final boolean lowercase;
+    private final int maxInputCharsPerWord;
+    private final int clsId;
+    private final int sepId;
+    private final int padId;
+    private final int unkId;
+
+    WordPieceTokenizer(Map<String, Integer> vocab, boolean lowercase, String unkToken, int maxInputCharsPerWord) {
+        this.vocab = vocab;
+        this.lowercase = lowercase;
+        this.maxInputCharsPerWord = maxInputCharsPerWord;
+        this.clsId = idOf(CLS);
+        this.sepId = idOf(SEP);
+        this.padId = vocab.getOrDefault(PAD, 0);
+        this.unkId = idOf(unkToken);
+    }
+
+    static WordPieceTokenizer fromJson(InputStream tokenizerJson) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(tokenizerJson);
+        JsonNode model = root.path("model");
+        Map<String, Integer> vocab = new HashMap<>();
+        model.path("vocab").properties().forEach(entry -> vocab.put(entry.getKey(), entry.getValue().asInt()));
+        if (vocab.isEmpty()) {
+            throw new IOException("The tokenizer has no WordPiece vocabulary");
+        }
+        return new WordPieceTokenizer(vocab,
+                root.path("normalizer").path("lowercase").asBoolean(true),
+                model.path("unk_token").asText(UNK),
+                model.path("max_input_chars_per_word").asInt(DEFAULT_MAX_INPUT_CHARS_PER_WORD));
+    }
+
+    /**
+     * @return the token ids of {@code text} between {@code [CLS]} and {@code [SEP]}, truncated to {@code maxLength}
+     * ids in total
+     */
+    long[] encode(String text, int maxLength) {
+        long[] ids = new long[maxLength];
+        int count = 0;
+        ids[count++] = clsId;
+        int limit = maxLength - 1;
+        for (String word : words(text)) {
+            for (int piece : pieces(word)) {
+                if (count == limit) {
+                    ids[count++] = sepId;
+                    return ids;
+                }
+                ids[count++] = piece;
+            }
+        }
+        ids[count++] = sepId;
+        return Arrays.copyOf(ids, count);
+    }
+
+    int padId() {
+        return padId;
+    }
+
+    private List<String> words(String text) {
+        String normalized = lowercase ? stripAccents(text.toLowerCase(Locale.ROOT)) : text;
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isWhitespace(codePoint)) {
+                flush(word, words);
+            } else if (codePoint == 0 || codePoint == 0xFFFD || isControl(codePoint)) {
+                // dropped, as the clean_text step of the BERT normalizer does
+            } else if (isPunctuation(codePoint) || isCjk(codePoint)) {
+                flush(word, words);
+                words.add(Character.toString(codePoint));
+            } else {
+                word.appendCodePoint(codePoint);
+            }
+        }
+        flush(word, words);
+        return words;
+    }
+
+    /**
+     * Greedy longest-match-first split of a word into vocabulary pieces. A word that cannot be split entirely is
+     * a single unknown token.
+     */
+    private List<Integer> pieces(String word) {
+        if (word.codePointCount(0, word.length()) > maxInputCharsPerWord) {
+            return List.of(unkId);
+        }
+        List<Integer> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < word.length()) {
+            int end = word.length();
+            Integer piece = null;
+            while (start < end) {
+                String candidate = word.substring(start, end);
+                piece = vocab.get(start > 0 ? CONTINUATION + candidate : candidate);
+                if (piece != null) {
+                    break;
+                }
+                end--;
+            }
+            if (piece == null) {
+                return List.of(unkId);
+            }
+            pieces.add(piece);
+            start = end;
+        }
+        return pieces;
+    }
+
+    private int idOf(String token) {
+        Integer id = vocab.get(token);
+        if (id == null) {
+            throw new IllegalArgumentException("Token " + token + " is missing from the vocabulary");
+        }
+        return id;
+    }
+
+    private static void flush(StringBuilder word, List<String> words) {
+        if (!word.isEmpty()) {
+            words.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static String stripAccents(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        decomposed.codePoints()
+                .filter(codePoint -> Character.getType(codePoint) != Character.NON_SPACING_MARK)
+                .forEach(stripped::appendCodePoint);
+        return stripped.toString();
+    }
+
+    private static boolean isWhitespace(int codePoint) {
+        return codePoint == ' ' || codePoint == '\t' || codePoint == '\n' || codePoint == '\r'
+                || Character.getType(codePoint) == Character.SPACE_SEPARATOR;
+    }
+
+    private static boolean isControl(int codePoint) {
+        int type = Character.getType(codePoint);
+        return type == Character.CONTROL || type == Character.FORMAT || type == Character.UNASSIGNED
+                || type == Character.PRIVATE_USE || type == Character.SURROGATE;
+    }
+
+    private static boolean isPunctuation(int codePoint) {
+        if ((codePoint >= 33 && codePoint <= 47) || (codePoint >= 58 && codePoint <= 64)
+                || (codePoint >= 91 && codePoint <= 96) || (codePoint >= 123 && codePoint <= 126)) {
+            return true;
+        }
+        return switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                 Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION, Character.FINAL_QUOTE_PUNCTUATION,
+                 Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isCjk(int codePoint) {
+        return (codePoint >= 0x4E00 && codePoint <= 0x9FFF)
+                || (codePoint >= 0x3400 && codePoint <= 0x4DBF)
+                || (codePoint >= 0x20000 && codePoint <= 0x2A6DF)
+                || (codePoint >= 0x2A700 && codePoint <= 0x2CEAF)
+                || (codePoint >= 0xF900 && codePoint <= 0xFAFF)
+                || (codePoint >= 0x2F800 && codePoint <= 0x2FA1F);
+    }
+}
@@ -12,7 +12,6 @@ import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
 import fr.baretto.ollamassist.auth.AuthenticationHelper;
 import fr.baretto.ollamassist.chat.rag.*;
@@ -22,6 +21,7 @@ import fr.baretto.ollamassist.events.ConversationNotifier;
 import fr.baretto.ollamassist.setting.ActionsSettings;
 import fr.baretto.ollamassist.setting.ModelListener;
 import fr.baretto.ollamassist.setting.OllamAssistSettings;
+import fr.baretto.ollamassist.setting.RAGSettings;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
@@ -67,6 +67,7 @@ public final class OllamaService implements Disposable, ModelListener {
     private void initialize() {
         this.embeddingStore = project.getService(LuceneEmbeddingStore.class);
         this.projectFileListener = new ProjectFileListener(project, embeddingStore);
+        project.getService(KnowledgeIndexMaintenance.class).start();
         this.messageBusConnection = ApplicationManager.getApplication().getMessageBus().connect();
         this.messageBusConnection.setDefaultHandler(() -> {
         });
@@ -113,13 +114,12 @@ public final class OllamaService implements Disposable, ModelListener {
 
             return aiServicesBuilder
                     .contentRetriever(new ContextRetriever(
-                            EmbeddingStoreContentRetriever
-                                    .builder()
-                                    .embeddingModel(DocumentIngestFactory.createEmbeddingModel())
-                                    .dynamicMaxResults(query -> 2)
-                                    .dynamicMinScore(query -> 0.80)
-                                    .embeddingStore(embeddingStore)
-                                    .build(),
+                            new KnowledgeIndexContentRetriever(
+                                    embeddingStore,
+                                    EmbeddingService.getInstance().model(),
+                                    2,
+                                    0.80,
+                                    RAGSettings.getInstance().getRetrievalMode()),
                             project))
                     .build();
         } finally {
@@ -9,6 +9,8 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Computable;
+import fr.baretto.ollamassist.chat.rag.EmbeddingService;
+import fr.baretto.ollamassist.chat.rag.QueryEmbeddingCache;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 
@@ -390,8 +392,10 @@ public class EnhancedCompletionService {
      */
     @NotNull
     public ServiceStats getStats() {
+        QueryEmbeddingCache queryEmbeddingCache = EmbeddingService.getInstance().queryCache();
         return new ServiceStats(
             cache.getStats(),
+            SuggestionCache.CacheStats.of(queryEmbeddingCache.size(), queryEmbeddingCache.stats()),
             OptimizedLightModelAssistant.getPoolStats(),
             debouncer.getPendingRequestCount()
         );
@@ -412,21 +416,24 @@ public class EnhancedCompletionService {
      */
     public static class ServiceStats {
         public final SuggestionCache.CacheStats cacheStats;
+        public final SuggestionCache.CacheStats queryEmbeddingCacheStats;
         public final OptimizedLightModelAssistant.ConnectionPoolStats poolStats;
         public final int pendingRequests;
         
         public ServiceStats(SuggestionCache.CacheStats cacheStats, 
+                           SuggestionCache.CacheStats queryEmbeddingCacheStats,
                            OptimizedLightModelAssistant.ConnectionPoolStats poolStats, 
                            int pendingRequests) {
             this.cacheStats = cacheStats;
+            this.queryEmbeddingCacheStats = queryEmbeddingCacheStats;
             this.poolStats = poolStats;
             this.pendingRequests = pendingRequests;
         }
         
         @Override
         public String toString() {
-            return String.format("EnhancedCompletionService Stats: Cache: %s , - Pool: %s , - Pending: %d",
-                cacheStats, poolStats, pendingRequests);
+            return String.format("EnhancedCompletionService Stats: Cache: %s , - Query embeddings: %s , - Pool: %s , - Pending: %d",
+                cacheStats, queryEmbeddingCacheStats, poolStats, pendingRequests);
         }
     }
 }
\ No newline at end of file
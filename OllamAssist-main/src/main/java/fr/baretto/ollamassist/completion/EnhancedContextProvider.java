@@ -9,20 +9,14 @@ import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.ollama.OllamaEmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingSearchResult;
-import fr.baretto.ollamassist.auth.AuthenticationHelper;
+import fr.baretto.ollamassist.chat.rag.EmbeddingService;
 import fr.baretto.ollamassist.chat.rag.LuceneEmbeddingStore;
-import fr.baretto.ollamassist.setting.OllamAssistSettings;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.time.Duration;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -42,12 +36,10 @@ public class EnhancedContextProvider {
     
     private final Project project;
     private final LuceneEmbeddingStore<?> embeddingStore;
-    private EmbeddingModel embeddingModel;
     
     public EnhancedContextProvider(@NotNull Project project) {
         this.project = project;
         this.embeddingStore = project.getService(LuceneEmbeddingStore.class);
-        initializeEmbeddingModel();
     }
     
     /**
@@ -177,14 +169,14 @@ public class EnhancedContextProvider {
      */
     @Nullable
     private String getSimilarCodePatterns(@NotNull String queryContext) {
-        if (embeddingModel == null || embeddingStore == null) {
-            log.debug("Embedding model or store not available for similar patterns retrieval");
+        if (embeddingStore == null) {
+            log.debug("Embedding store not available for similar patterns retrieval");
             return null;
         }
         
         try {
             // Create embedding for the query context
-            Embedding queryEmbedding = embeddingModel.embed(queryContext).content();
+            Embedding queryEmbedding = EmbeddingService.getInstance().model().embed(queryContext).content();
             
             // Search for similar patterns
             EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
@@ -272,30 +264,4 @@ public class EnhancedContextProvider {
             .cursorOffset(offset)
             .build();
     }
-    
-    /**
-     * Initializes the embedding model for semantic search.
-     */
-    private void initializeEmbeddingModel() {
-        try {
-            OllamAssistSettings settings = OllamAssistSettings.getInstance();
-            OllamaEmbeddingModel.OllamaEmbeddingModelBuilder builder = OllamaEmbeddingModel.builder()
-                .baseUrl(settings.getEmbeddingOllamaUrl())
-                .modelName(settings.getEmbeddingModelName())
-                .timeout(Duration.ofSeconds(TIMEOUT_SECONDS));
-            
-            // Add authentication if configured
-            if (AuthenticationHelper.isAuthenticationConfigured()) {
-                Map<String, String> customHeaders = new HashMap<>();
-                customHeaders.put("Authorization", "Basic " + AuthenticationHelper.createBasicAuthHeader());
-                builder.customHeaders(customHeaders);
-            }
-            
-            this.embeddingModel = builder.build();
-                
-        } catch (Exception e) {
-            log.warn("Failed to initialize embedding model for similar patterns retrieval", e);
-            this.embeddingModel = null;
-        }
-    }
 }
\ No newline at end of file
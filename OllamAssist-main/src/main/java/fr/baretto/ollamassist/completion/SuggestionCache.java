@@ -113,15 +113,7 @@ public class SuggestionCache {
      */
     @NotNull
     public CacheStats getStats() {
-        var stats = cache.stats();
-        return new CacheStats(
-            cache.estimatedSize(),
-            stats.hitCount(),
-            stats.missCount(),
-            stats.hitRate(),
-            stats.evictionCount(),
-            stats.loadCount()
-        );
+        return CacheStats.of(cache.estimatedSize(), cache.stats());
     }
     
     /**
@@ -175,6 +167,21 @@ public class SuggestionCache {
             this.loadCount = loadCount;
         }
         
+        /**
+         * Snapshot of any Caffeine cache, so the completion caches report their statistics the same way.
+         */
+        @NotNull
+        public static CacheStats of(long size, @NotNull com.github.benmanes.caffeine.cache.stats.CacheStats stats) {
+            return new CacheStats(
+                size,
+                stats.hitCount(),
+                stats.missCount(),
+                stats.hitRate(),
+                stats.evictionCount(),
+                stats.loadCount()
+            );
+        }
+        
         @Override
         public String toString() {
             return String.format(
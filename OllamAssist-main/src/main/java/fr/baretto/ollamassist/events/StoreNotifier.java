@@ -9,4 +9,9 @@ public interface StoreNotifier {
     void clear();
 
     void clearDatabaseAndRunIndexation();
+
+    /**
+     * The embedding model changed: the index is rebuilt in the background while the current one keeps serving.
+     */
+    void embeddingModelChanged();
 }
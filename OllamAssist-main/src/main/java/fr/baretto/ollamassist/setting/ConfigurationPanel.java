@@ -2,6 +2,7 @@ package fr.baretto.ollamassist.setting;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.components.JBTabbedPane;
+import fr.baretto.ollamassist.chat.rag.VectorQuantization;
 import fr.baretto.ollamassist.setting.panels.ActionsConfigPanel;
 import fr.baretto.ollamassist.setting.panels.OllamaConfigPanel;
 import fr.baretto.ollamassist.setting.panels.PromptConfigPanel;
@@ -97,6 +98,7 @@ public class ConfigurationPanel extends JPanel {
         // RAG panel listeners
         ragPanel.getSourcesField().getDocument().addDocumentListener(documentListener);
         ragPanel.getMaxDocumentsField().getDocument().addDocumentListener(documentListener);
+        ragPanel.getVectorQuantizationComboBox().addItemListener(itemListener);
 
         // Actions panel listeners
         actionsPanel.getAutoApproveFileCreationCheckbox().addItemListener(e -> {
@@ -202,6 +204,14 @@ public class ConfigurationPanel extends JPanel {
         ragPanel.setMaxDocuments(maxDocuments);
     }
 
+    public VectorQuantization getVectorQuantization() {
+        return ragPanel.getVectorQuantization();
+    }
+
+    public void setVectorQuantization(VectorQuantization vectorQuantization) {
+        ragPanel.setVectorQuantization(vectorQuantization);
+    }
+
     public void triggerClearLocalStorage() {
         ragPanel.triggerClearLocalStorage();
     }
@@ -210,6 +220,10 @@ public class ConfigurationPanel extends JPanel {
         ragPanel.triggerCleanAllDatabase();
     }
 
+    public void triggerEmbeddingModelChanged() {
+        ragPanel.triggerEmbeddingModelChanged();
+    }
+
     // Actions settings
     public boolean isAutoApproveFileCreation() {
         return actionsPanel.isAutoApproveFileCreation();
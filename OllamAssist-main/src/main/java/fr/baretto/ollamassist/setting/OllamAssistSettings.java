@@ -84,6 +84,14 @@ public class OllamAssistSettings implements PersistentStateComponent<OllamAssist
         OllamaSettings.getInstance().setCompletionModelName(modelName);
     }
 
+    public String getEmbeddingFallbackOllamaUrls() {
+        return OllamaSettings.getInstance().getEmbeddingFallbackOllamaUrls();
+    }
+
+    public void setEmbeddingFallbackOllamaUrls(String urls) {
+        OllamaSettings.getInstance().setEmbeddingFallbackOllamaUrls(urls);
+    }
+
     public String getEmbeddingModelName() {
         return OllamaSettings.getInstance().getEmbeddingModelName();
     }
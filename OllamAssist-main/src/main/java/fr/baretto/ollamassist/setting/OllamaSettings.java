@@ -77,6 +77,14 @@ public class OllamaSettings implements PersistentStateComponent<OllamaSettings.S
         myState.embeddingOllamaUrl = url;
     }
 
+    public String getEmbeddingFallbackOllamaUrls() {
+        return myState.embeddingFallbackOllamaUrls;
+    }
+
+    public void setEmbeddingFallbackOllamaUrls(String urls) {
+        myState.embeddingFallbackOllamaUrls = urls;
+    }
+
     public String getChatModelName() {
         if (myState.chatModelName == null || myState.chatModelName.isEmpty()) {
             return DEFAULT_MODEL;
@@ -147,6 +155,7 @@ public class OllamaSettings implements PersistentStateComponent<OllamaSettings.S
         public String chatOllamaUrl = DEFAULT_URL;
         public String completionOllamaUrl = DEFAULT_URL;
         public String embeddingOllamaUrl = DEFAULT_URL;
+        public String embeddingFallbackOllamaUrls = "";
         public String chatModelName = DEFAULT_MODEL;
         public String completionModelName = DEFAULT_MODEL;
         public String embeddingModelName = DEFAULT_EMBEDDING_MODEL;
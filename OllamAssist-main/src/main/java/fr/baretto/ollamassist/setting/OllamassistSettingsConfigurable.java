@@ -76,6 +76,7 @@ public class OllamassistSettingsConfigurable implements Configurable, Disposable
                 || !ollamaSettings.getTimeout().equals(configurationPanel.getTimeout())
                 || !ragSettings.getSources().equals(configurationPanel.getSources())
                 || ragSettings.getIndexationSize() != configurationPanel.getMaxDocuments()
+                || ragSettings.getVectorQuantization() != configurationPanel.getVectorQuantization()
                 || actionsSettings.isAutoApproveFileCreation() != configurationPanel.isAutoApproveFileCreation()
                 || actionsSettings.isToolsEnabled() != configurationPanel.isToolsEnabled()
                 || !promptSettings.getChatSystemPrompt().equals(configurationPanel.getChatSystemPrompt())
@@ -93,6 +94,7 @@ public class OllamassistSettingsConfigurable implements Configurable, Disposable
 
             boolean needIndexation = needIndexation();
             boolean shouldCleanAllDatabase = shouldCleanAllDatabase();
+            boolean embeddingModelChanged = embeddingModelChanged();
 
             // Save to OllamaSettings
             OllamaSettings ollamaSettings = OllamaSettings.getInstance();
@@ -110,6 +112,7 @@ public class OllamassistSettingsConfigurable implements Configurable, Disposable
             RAGSettings ragSettings = RAGSettings.getInstance();
             ragSettings.setSources(configurationPanel.getSources());
             ragSettings.setIndexationSize(configurationPanel.getMaxDocuments());
+            ragSettings.setVectorQuantization(configurationPanel.getVectorQuantization());
 
             // Save to ActionsSettings
             ActionsSettings actionsSettings = ActionsSettings.getInstance();
@@ -130,6 +133,11 @@ public class OllamassistSettingsConfigurable implements Configurable, Disposable
                 return;
             }
 
+            if (embeddingModelChanged) {
+                configurationPanel.triggerEmbeddingModelChanged();
+                return;
+            }
+
             if (needIndexation) {
                 configurationPanel.triggerClearLocalStorage();
             }
@@ -142,18 +150,19 @@ public class OllamassistSettingsConfigurable implements Configurable, Disposable
     }
 
     private boolean shouldCleanAllDatabase() {
-        OllamaSettings ollamaSettings = OllamaSettings.getInstance();
+        return RAGSettings.getInstance().getVectorQuantization() != configurationPanel.getVectorQuantization();
+    }
 
+    /**
+     * The index is rebuilt in the background for another model. Another server of the same model produces the same
+     * vectors, so a URL change alone keeps the index.
+     */
+    private boolean embeddingModelChanged() {
         String panelEmbeddingModel = configurationPanel.getEmbeddingModel();
-        String panelEmbeddingUrl = configurationPanel.getEmbeddingOllamaUrl();
-
-        // Null-safe comparison: if panel values are null (async loading), no cleaning needed
-        if (panelEmbeddingModel == null || panelEmbeddingUrl == null) {
-            return false;
-        }
 
-        return !ollamaSettings.getEmbeddingModelName().equals(panelEmbeddingModel) ||
-                !ollamaSettings.getEmbeddingOllamaUrl().equals(panelEmbeddingUrl);
+        // Null-safe comparison: if the panel value is null (async loading), no rebuild needed
+        return panelEmbeddingModel != null
+                && !OllamaSettings.getInstance().getEmbeddingModelName().equals(panelEmbeddingModel);
     }
 
     @Override
@@ -179,6 +188,7 @@ public class OllamassistSettingsConfigurable implements Configurable, Disposable
         RAGSettings ragSettings = RAGSettings.getInstance();
         configurationPanel.setSources(ragSettings.getSources());
         configurationPanel.setMaxDocuments(ragSettings.getIndexationSize());
+        configurationPanel.setVectorQuantization(ragSettings.getVectorQuantization());
 
         // Load from ActionsSettings
         ActionsSettings actionsSettings = ActionsSettings.getInstance();
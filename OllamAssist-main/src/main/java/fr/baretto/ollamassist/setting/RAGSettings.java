@@ -4,6 +4,11 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
+import fr.baretto.ollamassist.chat.rag.IndexDirectoryStrategy;
+import fr.baretto.ollamassist.chat.rag.IndexDurability;
+import fr.baretto.ollamassist.chat.rag.KnowledgeIndexOptions;
+import fr.baretto.ollamassist.chat.rag.RetrievalMode;
+import fr.baretto.ollamassist.chat.rag.VectorQuantization;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -69,11 +74,200 @@ public class RAGSettings implements PersistentStateComponent<RAGSettings.State>
         myState.ragEnabled = ragEnabled;
     }
 
+    public IndexDurability getIndexDurability() {
+        return myState.indexDurability != null ? myState.indexDurability : IndexDurability.GROUP_COMMIT;
+    }
+
+    public void setIndexDurability(IndexDurability indexDurability) {
+        myState.indexDurability = indexDurability;
+    }
+
+    public int getIndexCommitIntervalSeconds() {
+        return myState.indexCommitIntervalSeconds;
+    }
+
+    public void setIndexCommitIntervalSeconds(int indexCommitIntervalSeconds) {
+        myState.indexCommitIntervalSeconds = indexCommitIntervalSeconds;
+    }
+
+    public int getIndexMaxUncommittedDocuments() {
+        return myState.indexMaxUncommittedDocuments;
+    }
+
+    public void setIndexMaxUncommittedDocuments(int indexMaxUncommittedDocuments) {
+        myState.indexMaxUncommittedDocuments = indexMaxUncommittedDocuments;
+    }
+
+    public IndexDirectoryStrategy getIndexDirectoryStrategy() {
+        return myState.indexDirectoryStrategy != null ? myState.indexDirectoryStrategy : IndexDirectoryStrategy.HYBRID;
+    }
+
+    public void setIndexDirectoryStrategy(IndexDirectoryStrategy indexDirectoryStrategy) {
+        myState.indexDirectoryStrategy = indexDirectoryStrategy;
+    }
+
+    public VectorQuantization getVectorQuantization() {
+        return myState.vectorQuantization != null ? myState.vectorQuantization : VectorQuantization.NONE;
+    }
+
+    public void setVectorQuantization(VectorQuantization vectorQuantization) {
+        myState.vectorQuantization = vectorQuantization;
+    }
+
+    public int getHnswMaxConn() {
+        return myState.hnswMaxConn;
+    }
+
+    public void setHnswMaxConn(int hnswMaxConn) {
+        myState.hnswMaxConn = hnswMaxConn;
+    }
+
+    public int getHnswBeamWidth() {
+        return myState.hnswBeamWidth;
+    }
+
+    public void setHnswBeamWidth(int hnswBeamWidth) {
+        myState.hnswBeamWidth = hnswBeamWidth;
+    }
+
+    public int getSearchOverFetchFactor() {
+        return myState.searchOverFetchFactor;
+    }
+
+    public void setSearchOverFetchFactor(int searchOverFetchFactor) {
+        myState.searchOverFetchFactor = searchOverFetchFactor;
+    }
+
+    public RetrievalMode getRetrievalMode() {
+        return myState.retrievalMode != null ? myState.retrievalMode : RetrievalMode.HYBRID;
+    }
+
+    public void setRetrievalMode(RetrievalMode retrievalMode) {
+        myState.retrievalMode = retrievalMode;
+    }
+
+    public long getEmbeddingCacheMaxEntries() {
+        return myState.embeddingCacheMaxEntries;
+    }
+
+    public void setEmbeddingCacheMaxEntries(long embeddingCacheMaxEntries) {
+        myState.embeddingCacheMaxEntries = embeddingCacheMaxEntries;
+    }
+
+    public int getQueryEmbeddingCacheMaxEntries() {
+        return myState.queryEmbeddingCacheMaxEntries;
+    }
+
+    public void setQueryEmbeddingCacheMaxEntries(int queryEmbeddingCacheMaxEntries) {
+        myState.queryEmbeddingCacheMaxEntries = queryEmbeddingCacheMaxEntries;
+    }
+
+    public boolean isEmbeddingLocalFallbackEnabled() {
+        return myState.embeddingLocalFallbackEnabled;
+    }
+
+    public void setEmbeddingLocalFallbackEnabled(boolean embeddingLocalFallbackEnabled) {
+        myState.embeddingLocalFallbackEnabled = embeddingLocalFallbackEnabled;
+    }
+
+    public int getOnnxIntraOpThreads() {
+        return myState.onnxIntraOpThreads;
+    }
+
+    public void setOnnxIntraOpThreads(int onnxIntraOpThreads) {
+        myState.onnxIntraOpThreads = onnxIntraOpThreads;
+    }
+
+    public int getOnnxInterOpThreads() {
+        return myState.onnxInterOpThreads;
+    }
+
+    public void setOnnxInterOpThreads(int onnxInterOpThreads) {
+        myState.onnxInterOpThreads = onnxInterOpThreads;
+    }
+
+    public int getOnnxMaxSequenceLength() {
+        return myState.onnxMaxSequenceLength;
+    }
+
+    public void setOnnxMaxSequenceLength(int onnxMaxSequenceLength) {
+        myState.onnxMaxSequenceLength = onnxMaxSequenceLength;
+    }
+
+    public int getOnnxBatchSize() {
+        return myState.onnxBatchSize;
+    }
+
+    public void setOnnxBatchSize(int onnxBatchSize) {
+        myState.onnxBatchSize = onnxBatchSize;
+    }
+
+    public int getIndexingEmbeddingConcurrency() {
+        return myState.indexingEmbeddingConcurrency;
+    }
+
+    public void setIndexingEmbeddingConcurrency(int indexingEmbeddingConcurrency) {
+        myState.indexingEmbeddingConcurrency = indexingEmbeddingConcurrency;
+    }
+
+    public int getIndexingEmbeddingBatchSize() {
+        return myState.indexingEmbeddingBatchSize;
+    }
+
+    public void setIndexingEmbeddingBatchSize(int indexingEmbeddingBatchSize) {
+        myState.indexingEmbeddingBatchSize = indexingEmbeddingBatchSize;
+    }
+
+    public int getIndexingChunkMaxTokens() {
+        return myState.indexingChunkMaxTokens;
+    }
+
+    public void setIndexingChunkMaxTokens(int indexingChunkMaxTokens) {
+        myState.indexingChunkMaxTokens = indexingChunkMaxTokens;
+    }
+
+    public int getIndexMaintenanceIntervalMinutes() {
+        return myState.indexMaintenanceIntervalMinutes;
+    }
+
+    public void setIndexMaintenanceIntervalMinutes(int indexMaintenanceIntervalMinutes) {
+        myState.indexMaintenanceIntervalMinutes = indexMaintenanceIntervalMinutes;
+    }
+
+    public double getIndexMaintenanceMaxDeletedRatio() {
+        return myState.indexMaintenanceMaxDeletedRatio;
+    }
+
+    public void setIndexMaintenanceMaxDeletedRatio(double indexMaintenanceMaxDeletedRatio) {
+        myState.indexMaintenanceMaxDeletedRatio = indexMaintenanceMaxDeletedRatio;
+    }
+
     @Getter
     public static class State {
         public String sources = "src/";
         public int indexationSize = 5000;
         public boolean webSearchEnabled = false;
         public boolean ragEnabled = false;
+        public IndexDurability indexDurability = IndexDurability.GROUP_COMMIT;
+        public int indexCommitIntervalSeconds = KnowledgeIndexOptions.DEFAULT_COMMIT_INTERVAL_SECONDS;
+        public int indexMaxUncommittedDocuments = KnowledgeIndexOptions.DEFAULT_MAX_UNCOMMITTED_DOCUMENTS;
+        public IndexDirectoryStrategy indexDirectoryStrategy = IndexDirectoryStrategy.HYBRID;
+        public VectorQuantization vectorQuantization = VectorQuantization.NONE;
+        public int hnswMaxConn = KnowledgeIndexOptions.DEFAULT_HNSW_MAX_CONN;
+        public int hnswBeamWidth = KnowledgeIndexOptions.DEFAULT_HNSW_BEAM_WIDTH;
+        public int searchOverFetchFactor = KnowledgeIndexOptions.DEFAULT_SEARCH_OVER_FETCH_FACTOR;
+        public RetrievalMode retrievalMode = RetrievalMode.HYBRID;
+        public long embeddingCacheMaxEntries = 50_000;
+        public int queryEmbeddingCacheMaxEntries = 1_000;
+        public boolean embeddingLocalFallbackEnabled = false;
+        public int onnxIntraOpThreads = 1;
+        public int onnxInterOpThreads = 1;
+        public int onnxMaxSequenceLength = 512;
+        public int onnxBatchSize = 8;
+        public int indexingEmbeddingConcurrency = 2;
+        public int indexingEmbeddingBatchSize = 32;
+        public int indexingChunkMaxTokens = 400;
+        public int indexMaintenanceIntervalMinutes = 30;
+        public double indexMaintenanceMaxDeletedRatio = 0.2;
     }
 }
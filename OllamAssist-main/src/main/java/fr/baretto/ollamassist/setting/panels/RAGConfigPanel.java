@@ -1,12 +1,16 @@
 package fr.baretto.ollamassist.setting.panels;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBPanel;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.ui.components.fields.IntegerField;
 import com.intellij.util.ui.JBUI;
+import fr.baretto.ollamassist.chat.rag.KnowledgeIndexMaintenance;
+import fr.baretto.ollamassist.chat.rag.VectorQuantization;
 import fr.baretto.ollamassist.component.ComponentCustomizer;
 import fr.baretto.ollamassist.events.StoreNotifier;
 
@@ -17,6 +21,8 @@ public class RAGConfigPanel extends JBPanel<RAGConfigPanel> {
 
     private final JBTextField sources = new JBTextField();
     private final IntegerField maxDocuments = new IntegerField(null, 1, 100000);
+    private final ComboBox<VectorQuantization> vectorQuantization = new ComboBox<>(VectorQuantization.values());
+    private final JBLabel indexStats = new JBLabel();
     private final transient Project project;
 
     public RAGConfigPanel(Project project) {
@@ -24,11 +30,30 @@ public class RAGConfigPanel extends JBPanel<RAGConfigPanel> {
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
         setBorder(JBUI.Borders.empty(10));
 
-        add(createLabeledField("Indexed Folders:", sources, "Separated by ';'"));
+        add(createLabeledField("Indexed Folders:", sources, "Separated by ';'. Globs such as src/**/*.java are supported, prefix an entry with '!' to exclude it"));
         add(createLabeledField("Maximum number of documents indexed at once", maxDocuments,
                 "The maximum number of documents indexed during a batch indexation"));
+        add(createLabeledField("Vector storage", vectorQuantization,
+                "INT8/INT4 quantize the embeddings to shrink the index at a small recall cost. Changing it triggers a reindexation"));
+        add(createLabeledField("Knowledge index", indexStats,
+                "Files deleted from the project are removed and deleted documents are merged away periodically"));
 
         add(createClearEmbeddingButton());
+        loadIndexStatsAsync();
+    }
+
+    private void loadIndexStatsAsync() {
+        if (project == null || project.isDefault()) {
+            indexStats.setText("No project open");
+            return;
+        }
+        indexStats.setText("Loading...");
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            String description = project.isDisposed()
+                    ? "No project open"
+                    : project.getService(KnowledgeIndexMaintenance.class).stats().describe();
+            SwingUtilities.invokeLater(() -> indexStats.setText(description));
+        });
     }
 
     private JPanel createLabeledField(String label, JComponent component, String message) {
@@ -113,6 +138,12 @@ public class RAGConfigPanel extends JBPanel<RAGConfigPanel> {
                 .clearDatabaseAndRunIndexation();
     }
 
+    public void triggerEmbeddingModelChanged() {
+        project.getMessageBus()
+                .syncPublisher(StoreNotifier.TOPIC)
+                .embeddingModelChanged();
+    }
+
     // Getters and setters
     public String getSources() {
         return sources.getText().trim();
@@ -130,6 +161,14 @@ public class RAGConfigPanel extends JBPanel<RAGConfigPanel> {
         maxDocuments.setValue(maxDocumentsValue);
     }
 
+    public VectorQuantization getVectorQuantization() {
+        return (VectorQuantization) vectorQuantization.getSelectedItem();
+    }
+
+    public void setVectorQuantization(VectorQuantization value) {
+        vectorQuantization.setSelectedItem(value);
+    }
+
     public JBTextField getSourcesField() {
         return sources;
     }
@@ -137,4 +176,8 @@ public class RAGConfigPanel extends JBPanel<RAGConfigPanel> {
     public IntegerField getMaxDocumentsField() {
         return maxDocuments;
     }
+
+    public ComboBox<VectorQuantization> getVectorQuantizationComboBox() {
+        return vectorQuantization;
+    }
 }
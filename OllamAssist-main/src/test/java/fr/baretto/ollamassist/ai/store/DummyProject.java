@@ -10,11 +10,13 @@ import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.NlsSafe;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.messages.MessageBus;
+import com.intellij.util.messages.Topic;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.SystemIndependent;
 
+import java.lang.reflect.Proxy;
 import java.util.Map;
 
 public class DummyProject implements Project {
@@ -85,7 +87,15 @@ public class DummyProject implements Project {
 
     @Override
     public @NotNull MessageBus getMessageBus() {
-        return null;
+        // events published by the store, such as rebuild requests, go nowhere
+        return (MessageBus) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{MessageBus.class},
+                (bus, method, args) -> "syncPublisher".equals(method.getName()) ? publisher((Topic<?>) args[0]) : null);
+    }
+
+    private static Object publisher(Topic<?> topic) {
+        Class<?> listenerClass = topic.getListenerClass();
+        return Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[]{listenerClass},
+                (listener, method, args) -> null);
     }
 
     @Override
@@ -9,8 +9,17 @@ import dev.langchain4j.model.embedding.onnx.bgesmallenv15q.BgeSmallEnV15Quantize
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingSearchResult;
 import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
+import fr.baretto.ollamassist.chat.rag.ContentHash;
+import fr.baretto.ollamassist.chat.rag.IndexDurability;
+import fr.baretto.ollamassist.chat.rag.IndexRegistry;
+import fr.baretto.ollamassist.chat.rag.KnowledgeIndexOptions;
 import fr.baretto.ollamassist.chat.rag.LuceneEmbeddingStore;
 import fr.baretto.ollamassist.setting.OllamAssistSettings;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,9 +27,13 @@ import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
+import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -58,6 +71,7 @@ class LuceneEmbeddingStoreTest {
 
             List<Document> documents = List.of(doc1, doc2);
             EmbeddingStoreIngestor.ingest(documents, store);
+            store.flush();
 
 
             EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
@@ -91,6 +105,7 @@ class LuceneEmbeddingStoreTest {
         TextSegment segment1 = TextSegment.from("Test text 1", Metadata.from("source", "test1"));
         Embedding embedding3D = new Embedding(new float[]{0.1f, 0.2f, 0.3f}); // Non-zero 3D vector
         String id1 = store.add(embedding3D, segment1);
+        store.flush();
 
         EmbeddingSearchRequest request1 = EmbeddingSearchRequest.builder()
                 .queryEmbedding(embedding3D)
@@ -104,6 +119,7 @@ class LuceneEmbeddingStoreTest {
         TextSegment segment2 = TextSegment.from("Test text 2", Metadata.from("source", "test2"));
         Embedding embedding4D = new Embedding(new float[]{0.1f, 0.2f, 0.3f, 0.4f}); // Non-zero 4D vector
         String id2 = store.add(embedding4D, segment2);
+        store.flush();
 
         EmbeddingSearchRequest request2 = EmbeddingSearchRequest.builder()
                 .queryEmbedding(embedding4D)
@@ -117,6 +133,364 @@ class LuceneEmbeddingStoreTest {
 
     }
 
+    @Test
+    void testSearchSeesDocumentsAddedAfterPreviousSearches() {
+        Embedding first = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        Embedding second = new Embedding(new float[]{0.1f, 0.9f, 0.1f});
+
+        String firstId = store.add(first, TextSegment.from("first", Metadata.from("source", "first")));
+        store.flush();
+        EmbeddingSearchResult<TextSegment> before = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(second)
+                .maxResults(1)
+                .build());
+        assertEquals(firstId, before.matches().get(0).embeddingId(), "Only the first document is indexed yet");
+
+        String secondId = store.add(second, TextSegment.from("second", Metadata.from("source", "second")));
+        store.flush();
+        EmbeddingSearchResult<TextSegment> after = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(second)
+                .maxResults(1)
+                .build());
+
+        assertEquals(secondId, after.matches().get(0).embeddingId(), "Shared searcher should be refreshed after a flush");
+    }
+
+    @Test
+    void testGroupCommitCommitsOnceEnoughDocumentsArePending() throws Exception {
+        reopen(KnowledgeIndexOptions.builder().maxUncommittedDocuments(2).commitIntervalSeconds(3600).build());
+
+        store.add(new Embedding(new float[]{0.9f, 0.1f, 0.1f}), TextSegment.from("first", Metadata.from("source", "first")));
+        assertEquals(0, committedDocuments(), "A single pending document stays buffered");
+
+        store.add(new Embedding(new float[]{0.1f, 0.9f, 0.1f}), TextSegment.from("second", Metadata.from("source", "second")));
+        assertEquals(2, committedDocuments(), "Reaching the pending limit commits");
+    }
+
+    @Test
+    void testGroupCommitCommitsPeriodically() throws Exception {
+        reopen(KnowledgeIndexOptions.builder().commitIntervalSeconds(1).build());
+
+        store.add(new Embedding(new float[]{0.9f, 0.1f, 0.1f}), TextSegment.from("periodic", Metadata.from("source", "periodic")));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (committedDocuments() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, committedDocuments(), "The pending document should be committed within the interval");
+    }
+
+    @Test
+    void testCommitOnWriteCommitsEveryWrite() throws Exception {
+        reopen(KnowledgeIndexOptions.builder().durability(IndexDurability.COMMIT_ON_WRITE).build());
+
+        store.add(new Embedding(new float[]{0.9f, 0.1f, 0.1f}), TextSegment.from("durable", Metadata.from("source", "durable")));
+
+        assertEquals(1, committedDocuments());
+    }
+
+    @Test
+    void testFlushCommitsBufferedWrites() throws Exception {
+        store.add(new Embedding(new float[]{0.9f, 0.1f, 0.1f}), TextSegment.from("buffered", Metadata.from("source", "buffered")));
+        assertEquals(0, committedDocuments());
+
+        store.flush();
+
+        assertEquals(1, committedDocuments());
+    }
+
+    @Test
+    void testCloseCommitsBufferedWrites() throws Exception {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        String firstId = store.add(query, TextSegment.from("first", Metadata.from("source", "first")));
+        String secondId = store.add(new Embedding(new float[]{0.8f, 0.2f, 0.1f}),
+                TextSegment.from("second", Metadata.from("source", "second")));
+        assertEquals(0, committedDocuments());
+
+        reopen(KnowledgeIndexOptions.defaults());
+
+        List<String> survivors = store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(query)
+                        .maxResults(10)
+                        .build())
+                .matches().stream().map(m -> m.embeddingId()).toList();
+        assertEquals(List.of(firstId, secondId), survivors);
+    }
+
+    @Test
+    void testBufferedWritesAreVisibleToSearchesBeforeCommit() throws Exception {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        String id = store.add(query, TextSegment.from("near real time", Metadata.from("source", "nrt")));
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(1)
+                .build();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.search(request).matches().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(id, store.search(request).matches().get(0).embeddingId(),
+                "The background refresh should expose buffered writes");
+        assertEquals(0, committedDocuments(), "The document should still be uncommitted");
+    }
+
+    @Test
+    void testSearchHonoursMaxResultsAfterOverFetch() {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        for (int i = 0; i < 8; i++) {
+            store.add(new Embedding(new float[]{0.9f, 0.1f + i * 0.01f, 0.1f}),
+                    TextSegment.from("widget number " + i, Metadata.from("source", "widget" + i)));
+        }
+        store.flush();
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(3)
+                .build();
+
+        List<String> vectorIds = store.search(request).matches().stream().map(m -> m.embeddingId()).toList();
+        // every segment is both a vector and a lexical candidate: fusing the lists must not duplicate them
+        List<String> hybridIds = store.search(request, "widget").matches().stream().map(m -> m.embeddingId()).toList();
+
+        assertEquals(3, vectorIds.size());
+        assertEquals(3, hybridIds.size());
+        assertEquals(3, hybridIds.stream().distinct().count());
+    }
+
+    @Test
+    void testIndexOfAnOlderSchemaIsNotSearched() throws Exception {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        store.add(query, TextSegment.from("older schema", Metadata.from("source", "older")));
+        store.close();
+        try (Directory directory = FSDirectory.open(indexPath());
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            Map<String, String> commitData = new HashMap<>();
+            writer.getLiveCommitData().forEach(entry -> commitData.put(entry.getKey(), entry.getValue()));
+            commitData.put("schema_version", "3");
+            writer.setLiveCommitData(commitData.entrySet());
+            writer.commit();
+        }
+
+        store = new LuceneEmbeddingStore<>(new DummyProject());
+
+        assertTrue(store.isIndexFormatOutdated());
+        assertTrue(store.isRebuildRequired());
+        assertTrue(store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(1)
+                .build()).matches().isEmpty(), "Segments of an older schema are discarded, not decoded");
+    }
+
+    @Test
+    void testHybridSearchFindsIdentifierMissedByVectorSearch() {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        String nearId = store.add(query, TextSegment.from("near the query", Metadata.from("source", "near")));
+        String identifierId = store.add(new Embedding(new float[]{0.1f, 0.1f, 0.9f}),
+                TextSegment.from("double threshold = calculateDynamicThreshold(scores);", Metadata.from("source", "code")));
+        store.flush();
+
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(2)
+                .minScore(0.9)
+                .build();
+
+        List<String> vectorIds = store.search(request).matches().stream().map(m -> m.embeddingId()).toList();
+        assertEquals(List.of(nearId), vectorIds);
+
+        List<String> hybridIds = store.search(request, "where is dynamic threshold calculated").matches().stream()
+                .map(m -> m.embeddingId()).toList();
+        assertTrue(hybridIds.contains(nearId));
+        assertTrue(hybridIds.contains(identifierId), "camelCase identifier should match its words");
+    }
+
+    @Test
+    void testHybridSearchReportsTheVectorSimilarity() {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        store.add(query, TextSegment.from("near the query", Metadata.from("source", "near")));
+        store.add(new Embedding(new float[]{0.1f, 0.1f, 0.9f}),
+                TextSegment.from("double threshold = calculateDynamicThreshold(scores);", Metadata.from("source", "code")));
+        store.flush();
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(2)
+                .minScore(0.9)
+                .build();
+
+        Map<String, Double> scores = store.search(request, "where is dynamic threshold calculated").matches().stream()
+                .collect(Collectors.toMap(m -> m.embedded().text(), m -> m.score()));
+
+        assertEquals(1.0, scores.get("near the query"), 1e-4);
+        assertEquals((1 + cosine(query.vector(), new float[]{0.1f, 0.1f, 0.9f})) / 2,
+                scores.get("double threshold = calculateDynamicThreshold(scores);"), 1e-4,
+                "Lexical matches report their vector similarity, not their fused rank");
+    }
+
+    @Test
+    void testHybridSearchReturnsNothingWithoutRelevantVectorCandidate() {
+        store.add(new Embedding(new float[]{0.1f, 0.1f, 0.9f}),
+                TextSegment.from("the threshold is calculated when the scores are known", Metadata.from("source", "code")));
+        store.flush();
+
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(new Embedding(new float[]{0.9f, 0.1f, 0.1f}))
+                .maxResults(2)
+                .minScore(0.9)
+                .build();
+
+        assertTrue(store.search(request, "what is the weather like in the mountains").matches().isEmpty(),
+                "Common words alone should not return irrelevant segments");
+    }
+
+    @Test
+    void testIndexRebuiltForAnotherEmbeddingModelReplacesTheCurrentOne() throws Exception {
+        Embedding previousModel = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        store.add(previousModel, TextSegment.from("indexed with the previous model", Metadata.from("source", "previous")));
+        store.close();
+        store = new LuceneEmbeddingStore<>(new DummyProject(),
+                KnowledgeIndexOptions.builder().embeddingModel("nomic-embed-text").build());
+        assertTrue(store.isRebuildRequired());
+
+        assertTrue(store.startRebuild());
+        Embedding nextModel = new Embedding(new float[]{0.1f, 0.2f, 0.3f, 0.4f});
+        String nextId = store.add(nextModel, TextSegment.from("indexed with the next model", Metadata.from("source", "next")));
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(nextModel)
+                .maxResults(2)
+                .build();
+        assertTrue(store.search(request, "indexed model").matches().isEmpty(),
+                "Lexical matches cannot be told relevant without comparable vectors");
+
+        store.markIndexationCompleted();
+
+        assertFalse(store.isRebuildRequired());
+        List<String> afterRebuild = store.search(request).matches().stream().map(m -> m.embeddingId()).toList();
+        assertEquals(List.of(nextId), afterRebuild);
+    }
+
+    @Test
+    void testWriteOfAnotherDimensionKeepsTheIndexAndRequiresRebuild() {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        store.replaceFile("/project/src/Kept.java", "kept",
+                List.of(TextSegment.from("kept", Metadata.from("source", "kept"))), List.of(query));
+
+        assertThrows(IllegalStateException.class, () -> store.replaceFile("/project/src/Other.java", "other",
+                List.of(TextSegment.from("other", Metadata.from("source", "other"))),
+                List.of(new Embedding(new float[]{0.1f, 0.2f, 0.3f, 0.4f}))));
+
+        assertTrue(store.isRebuildRequired());
+        store.flush();
+        List<String> texts = store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(query)
+                        .maxResults(2)
+                        .build())
+                .matches().stream().map(m -> m.embedded().text()).toList();
+        assertEquals(List.of("kept"), texts, "The index keeps serving until it is rebuilt");
+    }
+
+    @Test
+    void testTouchedFileVersionIsUpdatedInPlace() {
+        Embedding vector = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        Metadata metadata = new Metadata().put("file_last_modified", 100L);
+        store.replaceFile("/project/src/Touched.java", "touched",
+                List.of(TextSegment.from("touched", metadata)), List.of(vector));
+
+        assertTrue(store.updateFileVersion("/project/src/Touched.java", 200L));
+
+        assertEquals(Map.of("/project/src/Touched.java", 200L), store.indexedFileVersions());
+        assertEquals("touched", store.indexedContentHash("/project/src/Touched.java"));
+    }
+
+    @Test
+    void testIndexChunkedWithAnotherSizeRequiresRebuild() throws Exception {
+        store.add(new Embedding(new float[]{0.9f, 0.1f, 0.1f}), TextSegment.from("chunked", Metadata.from("source", "chunked")));
+        store.close();
+
+        store = new LuceneEmbeddingStore<>(new DummyProject(), KnowledgeIndexOptions.builder().chunkMaxTokens(200).build());
+
+        assertTrue(store.isChunkingOutdated());
+        assertTrue(store.isRebuildRequired());
+    }
+
+    @Test
+    void testRemoveFilesIfDeletesOnlyTheMatchingFiles() {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        store.replaceFile("/project/src/Kept.java", "kept",
+                List.of(TextSegment.from("kept", Metadata.from("source", "kept"))), List.of(query));
+        store.replaceFile("/project/src/Deleted.java", "deleted",
+                List.of(TextSegment.from("deleted", Metadata.from("source", "deleted")),
+                        TextSegment.from("deleted too", Metadata.from("source", "deleted"))),
+                List.of(query, query));
+
+        assertEquals(1, store.removeFilesIf(path -> path.endsWith("/Deleted.java")));
+        store.flush();
+
+        List<String> texts = store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(query)
+                        .maxResults(3)
+                        .build())
+                .matches().stream().map(m -> m.embedded().text()).toList();
+        assertEquals(List.of("kept"), texts);
+    }
+
+    @Test
+    void testMergeDeletesKeepsTheLiveDocumentsAndCommits() throws Exception {
+        Embedding query = new Embedding(new float[]{0.9f, 0.1f, 0.1f});
+        store.replaceFile("/project/src/Kept.java", "kept",
+                List.of(TextSegment.from("kept", Metadata.from("source", "kept"))), List.of(query));
+        store.replaceFile("/project/src/Deleted.java", "deleted",
+                List.of(TextSegment.from("deleted", Metadata.from("source", "deleted"))), List.of(query));
+        store.removeFilesIf(path -> path.endsWith("/Deleted.java"));
+
+        store.mergeDeletes();
+        store.close();
+        store = new LuceneEmbeddingStore<>(new DummyProject());
+
+        assertEquals(1, store.stats().documents());
+        assertEquals(0, store.stats().deletedDocuments());
+        assertEquals("kept", store.indexedContentHash("/project/src/Kept.java"));
+    }
+
+    private static double cosine(float[] first, float[] second) {
+        double dot = 0;
+        double firstNorm = 0;
+        double secondNorm = 0;
+        for (int i = 0; i < first.length; i++) {
+            dot += first[i] * second[i];
+            firstNorm += first[i] * first[i];
+            secondNorm += second[i] * second[i];
+        }
+        return dot / Math.sqrt(firstNorm * secondNorm);
+    }
+
+    private void reopen(KnowledgeIndexOptions options) throws Exception {
+        store.close();
+        store = new LuceneEmbeddingStore<>(new DummyProject(), options);
+    }
+
+    /**
+     * @return the documents of the last commit, those that would survive the IDE crashing
+     */
+    private static int committedDocuments() throws IOException {
+        try (Directory directory = FSDirectory.open(indexPath())) {
+            if (!DirectoryReader.indexExists(directory)) {
+                return 0;
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                return reader.numDocs();
+            }
+        }
+    }
+
+    private static Path indexPath() {
+        DummyProject project = new DummyProject();
+        // mirrors the project directory naming of the store: name, then the start of the hash of its key
+        return Path.of(IndexRegistry.OLLAMASSIST_DIR,
+                project.getName() + "-" + ContentHash.of(IndexRegistry.projectKey(project)).substring(0, 12),
+                LuceneEmbeddingStore.DATABASE_KNOWLEDGE_INDEX);
+    }
+
     private @NotNull Embedding embed(String string) {
         return EMBEDDING_FACTORY.create().embed(string).content();
     }
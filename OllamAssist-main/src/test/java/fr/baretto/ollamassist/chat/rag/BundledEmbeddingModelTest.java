@@ -0,0 +1,74 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.onnx.bgesmallenv15q.BgeSmallEnV15QuantizedEmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BundledEmbeddingModelTest {
+
+    @Test
+    void batches_should_group_segments_of_similar_lengths() {
+        List<long[]> tokenIds = List.of(new long[9], new long[2], new long[7], new long[3], new long[8]);
+
+        List<int[]> batches = BundledEmbeddingModel.batches(tokenIds, 2);
+
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{1, 3}, batches.get(0));
+        assertArrayEquals(new int[]{2, 4}, batches.get(1));
+        assertArrayEquals(new int[]{0}, batches.get(2));
+    }
+
+    @Test
+    void options_should_stay_within_what_the_model_supports() {
+        BundledEmbeddingModel.Options options = new BundledEmbeddingModel.Options(-1, 0, 4096, 0);
+
+        assertEquals(0, options.intraOpThreads());
+        assertEquals(1, options.interOpThreads());
+        assertEquals(BundledEmbeddingModel.Options.MAX_SEQUENCE_LENGTH, options.maxSequenceLength());
+        assertEquals(1, options.batchSize());
+    }
+
+    @Test
+    void vectors_should_match_the_library_runner_within_the_sequence_length() throws Exception {
+        List<TextSegment> segments = List.of(
+                TextSegment.from("""
+                        public int removeFilesIf(Predicate<String> stale) {
+                            int removed = 0;
+                            for (IndexWriter writer : writers()) {
+                                removed = removeFilesIf(writer, stale);
+                            }
+                            return removed;
+                        }
+                        """),
+                TextSegment.from("The knowledge index is rebuilt in the background when the embedding model "
+                        + "changes, and keeps serving searches until the new one replaces it."),
+                TextSegment.from("where is the index committed?"));
+        BundledEmbeddingModel bundled = BundledEmbeddingModel.load(BundledEmbeddingModel.Options.defaults(), Runnable::run);
+        BgeSmallEnV15QuantizedEmbeddingModel library = new BgeSmallEnV15QuantizedEmbeddingModel();
+
+        List<Embedding> tuned = bundled.embedAll(segments).content();
+        List<Embedding> reference = library.embedAll(segments).content();
+
+        for (int i = 0; i < segments.size(); i++) {
+            assertTrue(CosineSimilarity.between(tuned.get(i), reference.get(i)) >= 0.999,
+                    "Vectors differ for " + segments.get(i).text());
+        }
+    }
+
+    @Test
+    void model_id_should_change_with_the_runner_and_the_truncation() {
+        BundledEmbeddingModel.Options defaults = BundledEmbeddingModel.Options.defaults();
+        BundledEmbeddingModel.Options truncated = new BundledEmbeddingModel.Options(1, 1, 256, 8);
+
+        assertNotEquals(BundledEmbeddingModel.modelId("bge", defaults), BundledEmbeddingModel.modelId("bge", truncated));
+        assertNotEquals(BundledEmbeddingModel.modelId("bge", defaults), BundledEmbeddingModel.libraryModelId("bge"));
+        assertEquals(BundledEmbeddingModel.modelId("bge", defaults),
+                BundledEmbeddingModel.modelId("bge", new BundledEmbeddingModel.Options(4, 2, 512, 32)));
+    }
+}
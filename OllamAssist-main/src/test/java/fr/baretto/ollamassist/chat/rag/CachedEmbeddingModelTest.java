@@ -0,0 +1,60 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class CachedEmbeddingModelTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void only_unseen_segments_should_reach_the_model() {
+        CountingModel model = new CountingModel();
+        CachedEmbeddingModel cachedModel = new CachedEmbeddingModel(model, new EmbeddingCache(tempDir, 100), "model");
+
+        cachedModel.embedAll(List.of(TextSegment.from("license header"), TextSegment.from("class A")));
+        List<Embedding> embeddings = cachedModel.embedAll(List.of(
+                TextSegment.from("class B"), TextSegment.from("license header"), TextSegment.from("class A"))).content();
+
+        assertEquals(List.of("license header", "class A", "class B"), model.embeddedTexts);
+        assertEquals(List.of(7f, 14f, 7f), embeddings.stream().map(e -> e.vector()[0]).toList());
+    }
+
+    @Test
+    void the_model_which_produced_the_embeddings_should_be_reported() {
+        EmbeddingModel fallback = segments -> Response.from(
+                segments.stream().map(segment -> Embedding.from(new float[]{1})).toList(),
+                null, null, Map.of(EmbeddingRouter.MODEL_METADATA_KEY, "fallback"));
+        CachedEmbeddingModel cachedModel = new CachedEmbeddingModel(fallback, new EmbeddingCache(tempDir, 100), "model");
+
+        Response<List<Embedding>> response = cachedModel.embedAll(List.of(TextSegment.from("class A")));
+
+        assertFalse(EmbeddingRouter.producedBy(response, "model"));
+    }
+
+    private static final class CountingModel implements EmbeddingModel {
+
+        private final List<String> embeddedTexts = new ArrayList<>();
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            segments.forEach(segment -> embeddedTexts.add(segment.text()));
+            return Response.from(segments.stream()
+                    .map(segment -> Embedding.from(new float[]{segment.text().length()}))
+                    .toList());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CodeAnalyzerTest {
+
+    private final Analyzer analyzer = new CodeAnalyzer();
+
+    @Test
+    void camel_case_identifiers_should_be_indexed_whole_and_split() throws IOException {
+        assertEquals(List.of("calculatedynamicthreshold", "calculate", "dynamic", "threshold"),
+                tokens("calculateDynamicThreshold"));
+    }
+
+    @Test
+    void snake_case_and_qualified_names_should_be_split() throws IOException {
+        assertEquals(List.of("max_batch_size", "max", "batch", "size"), tokens("MAX_BATCH_SIZE"));
+        assertEquals(List.of("store.search", "store", "search"), tokens("store.search"));
+    }
+
+    @Test
+    void acronyms_should_stay_together() throws IOException {
+        assertEquals(List.of("httpserverv2", "http", "server", "v2"), tokens("HTTPServerV2"));
+    }
+
+    @Test
+    void plain_words_should_be_left_untouched() throws IOException {
+        assertEquals(List.of("where", "is", "the", "index"), tokens("Where is the index"));
+    }
+
+    @Test
+    void queries_should_drop_the_words_of_the_question() throws IOException {
+        assertEquals(List.of("dynamic", "threshold", "calculated"),
+                tokens(CodeAnalyzer.forQueries(), "Where is the dynamic threshold calculated?"));
+        assertEquals(List.of("isempty", "empty"), tokens(CodeAnalyzer.forQueries(), "isEmpty"));
+    }
+
+    private List<String> tokens(String text) throws IOException {
+        return tokens(analyzer, text);
+    }
+
+    private static List<String> tokens(Analyzer analyzer, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("text", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            stream.end();
+        }
+        return tokens;
+    }
+}
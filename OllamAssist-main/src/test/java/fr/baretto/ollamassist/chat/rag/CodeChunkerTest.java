@@ -0,0 +1,116 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodeChunkerTest {
+
+    private static final String JAVA = """
+            package demo;
+
+            import java.util.List;
+
+            public class Invoice {
+                private final List<String> lines;
+
+                /**
+                 * Creates an invoice, see {@link List}.
+                 */
+                @Deprecated
+                public Invoice(List<String> lines) {
+                    this.lines = lines;
+                }
+
+                public String render() {
+                    String brace = "}";
+                    if (lines.isEmpty()) {
+                        return brace;
+                    }
+                    return String.join(",",
+                            lines);
+                }
+            }
+            """;
+
+    private static final String PYTHON = """
+            import os
+
+            class Invoice:
+                def __init__(self, lines):
+                    self.lines = lines
+
+                    self.total = 0
+
+                @property
+                def render(self):
+                    return ",".join(self.lines)
+
+            def main():
+                print(Invoice([]).render)
+            """;
+
+    @Test
+    void brace_languages_should_be_cut_before_declarations_with_their_comments() {
+        List<String> lines = CodeChunker.lines(JAVA);
+
+        SortedSet<Integer> cuts = CodeChunker.heuristicCutLines(lines);
+
+        assertEquals(Set.of(0, 2, 4, 5, 7, 15), cuts);
+    }
+
+    @Test
+    void indented_languages_should_be_cut_before_top_level_and_member_declarations() {
+        List<String> lines = CodeChunker.lines(PYTHON);
+
+        SortedSet<Integer> cuts = CodeChunker.heuristicCutLines(lines);
+
+        assertEquals(Set.of(0, 2, 8, 12), cuts);
+    }
+
+    @Test
+    void small_declarations_should_be_packed_up_to_the_budget() {
+        List<String> lines = List.of("a".repeat(40), "b".repeat(40), "c".repeat(40), "d".repeat(40));
+
+        List<int[]> ranges = CodeChunker.pack(lines, new TreeSet<>(List.of(0, 1, 2, 3)), 20);
+
+        assertArrayEquals(new int[]{0, 2}, ranges.get(0));
+        assertArrayEquals(new int[]{2, 4}, ranges.get(1));
+        assertEquals(2, ranges.size());
+    }
+
+    @Test
+    void oversized_declarations_should_be_split_on_lines() {
+        List<String> lines = List.of("header", "x".repeat(60), "y".repeat(60), "z".repeat(60), "footer");
+
+        List<int[]> ranges = CodeChunker.pack(lines, new TreeSet<>(List.of(0, 1, 4)), 20);
+
+        assertEquals(List.of("0-1", "1-2", "2-3", "3-4", "4-5"),
+                ranges.stream().map(range -> range[0] + "-" + range[1]).toList());
+    }
+
+    @Test
+    void segments_should_carry_document_metadata_and_position() {
+        Document document = Document.from(JAVA, Metadata.from("file_name", "Invoice.java"));
+        List<String> lines = CodeChunker.lines(JAVA);
+
+        List<TextSegment> segments = CodeChunker.split(document, lines, CodeChunker.heuristicCutLines(lines), 60);
+
+        assertTrue(segments.size() > 1);
+        TextSegment render = segments.stream()
+                .filter(segment -> segment.text().startsWith("public String render()"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals("Invoice.java", render.metadata().getString("file_name"));
+        assertEquals(16, render.metadata().getInteger(CodeChunker.START_LINE));
+        assertEquals(segments.indexOf(render), render.metadata().getInteger(SegmentFields.SEGMENT_INDEX));
+    }
+}
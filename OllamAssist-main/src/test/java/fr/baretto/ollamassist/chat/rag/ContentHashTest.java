@@ -0,0 +1,20 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ContentHashTest {
+
+    @Test
+    void same_content_should_have_same_hash() {
+        assertEquals(ContentHash.of("class A {}"), ContentHash.of("class A {}"));
+        assertEquals(64, ContentHash.of("class A {}").length());
+    }
+
+    @Test
+    void any_change_should_change_the_hash() {
+        assertNotEquals(ContentHash.of("class A {}"), ContentHash.of("class A { }"));
+    }
+}
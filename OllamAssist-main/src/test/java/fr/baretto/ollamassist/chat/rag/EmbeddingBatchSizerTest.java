@@ -0,0 +1,59 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EmbeddingBatchSizerTest {
+
+    private static final long FAST = 10_000_000L;
+    private static final long SLOW = 5_000_000_000L;
+
+    @Test
+    void budget_should_grow_while_full_calls_are_fast() {
+        EmbeddingBatchSizer sizer = new EmbeddingBatchSizer(1_000, 1_600, 1_000);
+
+        sizer.record(1_000, FAST);
+        assertEquals(1_250, sizer.tokenBudget());
+        sizer.record(1_250, FAST);
+        sizer.record(1_562, FAST);
+        assertEquals(1_600, sizer.tokenBudget());
+    }
+
+    @Test
+    void small_fast_calls_should_not_grow_the_budget() {
+        EmbeddingBatchSizer sizer = new EmbeddingBatchSizer(1_000, 4_000, 1_000);
+
+        sizer.record(100, FAST);
+
+        assertEquals(1_000, sizer.tokenBudget());
+    }
+
+    @Test
+    void budget_should_be_halved_by_slow_calls_down_to_the_minimum() {
+        EmbeddingBatchSizer sizer = new EmbeddingBatchSizer(1_000, 4_000, 1_000);
+
+        sizer.record(1_000, SLOW);
+        assertEquals(500, sizer.tokenBudget());
+        sizer.record(500, SLOW);
+        sizer.record(250, SLOW);
+        assertEquals(EmbeddingBatchSizer.MIN_TOKENS, sizer.tokenBudget());
+    }
+
+    @Test
+    void calls_should_be_cut_by_tokens_and_segment_count() {
+        EmbeddingBatchSizer sizer = new EmbeddingBatchSizer(EmbeddingBatchSizer.MIN_TOKENS, 4_000, 1_000);
+        TextSegment hundredTokens = TextSegment.from("x".repeat(400));
+        TextSegment oneToken = TextSegment.from("x");
+        TextSegment oversized = TextSegment.from("x".repeat(4_000));
+        List<TextSegment> segments = List.of(hundredTokens, hundredTokens, hundredTokens, oversized,
+                oneToken, oneToken, oneToken, oneToken);
+
+        assertEquals(2, sizer.nextCallEnd(segments, 0, 10));
+        assertEquals(4, sizer.nextCallEnd(segments, 3, 10));
+        assertEquals(7, sizer.nextCallEnd(segments, 4, 3));
+    }
+}
@@ -0,0 +1,83 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingCacheTest {
+
+    private static final String MODEL = "bge-small-en-v1.5";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void entries_should_survive_a_restart() {
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 100);
+        cache.put(MODEL, "public class A {}", new float[]{0.1f, 0.2f});
+        cache.dispose();
+
+        EmbeddingCache reloaded = new EmbeddingCache(tempDir, 100);
+
+        assertArrayEquals(new float[]{0.1f, 0.2f}, reloaded.get(MODEL, "public class A {}"));
+        assertNull(reloaded.get("nomic-embed-text", "public class A {}"), "entries are scoped by model");
+    }
+
+    @Test
+    void line_endings_and_trailing_whitespace_should_not_matter() {
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 100);
+        cache.put(MODEL, "/*\n * Licensed under the Apache License\n */\n", new float[]{1f});
+
+        assertNotNull(cache.get(MODEL, "/*  \r\n * Licensed under the Apache License\r\n */"));
+    }
+
+    @Test
+    void stats_should_report_hits_and_misses() {
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 100);
+        cache.put(MODEL, "a", new float[]{1f});
+        cache.get(MODEL, "a");
+        cache.get(MODEL, "b");
+
+        EmbeddingCache.Stats stats = cache.stats();
+
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(0.5, stats.hitRate());
+    }
+
+    @Test
+    void file_should_be_compacted_when_it_outgrows_the_cache() throws IOException {
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 10);
+        for (int i = 0; i < 100; i++) {
+            cache.put(MODEL, "segment " + i, new float[]{i});
+        }
+        cache.dispose();
+
+        long records = Files.size(tempDir.resolve(MODEL + ".bin")) / (2 + 64 + 4 + 4);
+        assertTrue(records <= 3 * 10, "file should be rewritten with live entries, found " + records + " records");
+        assertNotNull(new EmbeddingCache(tempDir, 10).get(MODEL, "segment 99"));
+    }
+
+    @Test
+    void a_truncated_file_should_keep_its_complete_records() throws IOException {
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 100);
+        cache.put(MODEL, "complete", new float[]{1f, 2f});
+        cache.put(MODEL, "truncated", new float[]{3f, 4f});
+        cache.dispose();
+        Path file = tempDir.resolve(MODEL + ".bin");
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(content, content.length - 3));
+
+        EmbeddingCache reloaded = new EmbeddingCache(tempDir, 100);
+        assertArrayEquals(new float[]{1f, 2f}, reloaded.get(MODEL, "complete"));
+        reloaded.put(MODEL, "after restart", new float[]{5f});
+        reloaded.dispose();
+
+        assertNotNull(new EmbeddingCache(tempDir, 100).get(MODEL, "after restart"));
+    }
+}
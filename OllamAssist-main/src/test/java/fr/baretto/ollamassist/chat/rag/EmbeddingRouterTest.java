@@ -0,0 +1,183 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingRouterTest {
+
+    private static final List<TextSegment> SEGMENTS = List.of(TextSegment.from("class A"));
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    void requests_should_go_to_the_fastest_backend() {
+        FakeBackend slow = new FakeBackend("slow", 384, 300);
+        FakeBackend fast = new FakeBackend("fast", 384, 20);
+        EmbeddingRouter router = router(List.of(slow, fast), null);
+
+        router.embedAll(SEGMENTS);
+        router.embedAll(SEGMENTS);
+        calls.clear();
+        for (int i = 0; i < 5; i++) {
+            router.embedAll(SEGMENTS);
+        }
+
+        assertEquals(List.of("fast", "fast", "fast", "fast", "fast"), calls);
+    }
+
+    @Test
+    void failing_backend_should_be_benched_then_retried_after_its_cooldown() {
+        FakeBackend primary = new FakeBackend("primary", 384, 10);
+        FakeBackend secondary = new FakeBackend("secondary", 384, 50);
+        EmbeddingRouter router = router(List.of(primary, secondary), null);
+        router.embedAll(SEGMENTS);
+        router.embedAll(SEGMENTS);
+
+        primary.failing = true;
+        calls.clear();
+        router.embedAll(SEGMENTS);
+        router.embedAll(SEGMENTS);
+        assertEquals(List.of("primary", "secondary", "secondary"), calls);
+
+        primary.failing = false;
+        clock.addAndGet(EmbeddingRouter.BASE_COOLDOWN_NANOS);
+        calls.clear();
+        router.embedAll(SEGMENTS);
+        assertEquals(List.of("primary"), calls);
+        assertEquals(0, router.stats().get("primary").consecutiveFailures());
+    }
+
+    @Test
+    void benched_backends_should_still_be_tried_when_every_healthy_one_fails() {
+        FakeBackend primary = new FakeBackend("primary", 384, 10);
+        FakeBackend secondary = new FakeBackend("secondary", 384, 50);
+        EmbeddingRouter router = router(List.of(primary, secondary), null);
+        router.embedAll(SEGMENTS);
+        router.embedAll(SEGMENTS);
+        primary.failing = true;
+        router.embedAll(SEGMENTS);
+
+        primary.failing = false;
+        secondary.failing = true;
+        calls.clear();
+        Response<List<Embedding>> response = router.embedAll(SEGMENTS);
+
+        assertEquals(List.of("secondary", "primary"), calls);
+        assertTrue(EmbeddingRouter.producedBy(response, "model"));
+    }
+
+    @Test
+    void fallback_should_only_serve_models_of_the_same_dimension() {
+        FakeBackend ollama = new FakeBackend("ollama", 384, 10);
+        FakeBackend bundled = new FakeBackend("bundled", 384, 5);
+        EmbeddingRouter router = router(List.of(ollama), bundled);
+        router.embedAll(SEGMENTS);
+
+        ollama.failing = true;
+        Response<List<Embedding>> response = router.embedAll(SEGMENTS);
+
+        assertEquals("bundled", response.metadata().get(EmbeddingRouter.MODEL_METADATA_KEY));
+        assertFalse(EmbeddingRouter.producedBy(response, "model"));
+    }
+
+    @Test
+    void fallback_of_another_dimension_should_never_be_used() {
+        FakeBackend ollama = new FakeBackend("ollama", 768, 10);
+        FakeBackend bundled = new FakeBackend("bundled", 384, 5);
+        EmbeddingRouter router = router(List.of(ollama), bundled);
+        router.embedAll(SEGMENTS);
+
+        ollama.failing = true;
+
+        assertThrows(IllegalStateException.class, () -> router.embedAll(SEGMENTS));
+        assertFalse(calls.contains("bundled"));
+    }
+
+    @Test
+    void fallback_should_not_be_used_before_the_dimension_of_the_backends_is_known() {
+        FakeBackend ollama = new FakeBackend("ollama", 384, 10);
+        ollama.failing = true;
+        EmbeddingRouter router = router(List.of(ollama), new FakeBackend("bundled", 384, 5));
+
+        assertThrows(IllegalStateException.class, () -> router.embedAll(SEGMENTS));
+    }
+
+    @Test
+    void router_without_fallback_should_fail_when_every_backend_failed() {
+        FakeBackend ollama = new FakeBackend("ollama", 384, 10);
+        FakeBackend bundled = new FakeBackend("bundled", 384, 5);
+        EmbeddingRouter router = router(List.of(ollama), bundled);
+        router.embedAll(SEGMENTS);
+
+        ollama.failing = true;
+
+        assertThrows(IllegalStateException.class, () -> router.withoutFallback().embedAll(SEGMENTS));
+        assertFalse(calls.contains("bundled"));
+        assertEquals(1, router.stats().get("ollama").consecutiveFailures(), "Backend health is shared");
+    }
+
+    @Test
+    void cached_model_should_not_store_fallback_embeddings() {
+        FakeBackend ollama = new FakeBackend("ollama", 384, 10);
+        EmbeddingRouter router = router(List.of(ollama), new FakeBackend("bundled", 384, 5));
+        router.embedAll(SEGMENTS);
+        ollama.failing = true;
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 10);
+
+        new CachedEmbeddingModel(router, cache, "model").embedAll(List.of(TextSegment.from("class B")));
+
+        assertNull(cache.get("model", "class B"));
+        cache.dispose();
+    }
+
+    private EmbeddingRouter router(List<FakeBackend> backends, FakeBackend fallback) {
+        return new EmbeddingRouter(
+                backends.stream().map(backend -> new EmbeddingRouter.Backend(backend.name, "model", backend)).toList(),
+                fallback != null ? new EmbeddingRouter.Backend(fallback.name, fallback.name, fallback) : null,
+                clock::get);
+    }
+
+    private final class FakeBackend implements EmbeddingModel {
+
+        private final String name;
+        private final int dimension;
+        private final long latencyNanos;
+        private boolean failing;
+
+        FakeBackend(String name, int dimension, long latencyMillis) {
+            this.name = name;
+            this.dimension = dimension;
+            this.latencyNanos = latencyMillis * 1_000_000;
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            calls.add(name);
+            clock.addAndGet(latencyNanos);
+            if (failing) {
+                throw new IllegalStateException(name + " is down");
+            }
+            return Response.from(segments.stream().map(segment -> Embedding.from(new float[dimension])).toList());
+        }
+
+        @Override
+        public int dimension() {
+            return dimension;
+        }
+    }
+}
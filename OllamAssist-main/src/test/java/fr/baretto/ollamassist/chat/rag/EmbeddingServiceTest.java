@@ -0,0 +1,138 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicReference<EmbeddingService.ModelSpec> spec =
+            new AtomicReference<>(EmbeddingService.ModelSpec.local("bge"));
+    private final List<EmbeddingService.ModelSpec> createdModels = new ArrayList<>();
+    private final List<EmbeddingModel> models = new ArrayList<>();
+    private EmbeddingService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.dispose();
+        }
+    }
+
+    @Test
+    void model_should_be_created_once_and_shared() {
+        service = newService();
+
+        EmbeddingModel model = service.model();
+
+        assertSame(model, service.model());
+        assertSame(service.cachedModel(), service.cachedModel());
+        assertEquals(List.of(spec.get()), createdModels);
+    }
+
+    @Test
+    void model_should_be_recreated_when_the_settings_change() {
+        service = newService();
+        EmbeddingModel local = service.model();
+        EmbeddingModel cachedLocal = service.cachedModel();
+
+        spec.set(new EmbeddingService.ModelSpec("nomic-embed-text", List.of("http://localhost:11434"),
+                Duration.ofSeconds(30), null, false, BundledEmbeddingModel.Options.defaults()));
+
+        assertNotSame(local, service.model());
+        assertNotSame(cachedLocal, service.cachedModel());
+        assertEquals(2, createdModels.size());
+    }
+
+    @Test
+    void repeated_queries_should_not_reach_the_model() {
+        service = newService();
+        ConstantModel model = (ConstantModel) modelFor(service);
+
+        service.model().embed("where is the index committed?");
+        service.model().embed("where is the index committed?");
+
+        assertEquals(1, model.calls);
+        assertEquals(1, service.queryCache().stats().hitCount());
+    }
+
+    @Test
+    void model_id_should_identify_the_loaded_model() {
+        service = newService();
+
+        assertEquals(BundledEmbeddingModel.libraryModelId("bge"), service.modelId(),
+                "The bundled model runs on the library runner when the tuned one is not loaded");
+        assertEquals(1, createdModels.size(), "The id loads the model, which is then shared");
+
+        spec.set(new EmbeddingService.ModelSpec("nomic-embed-text", List.of("http://localhost:11434"),
+                Duration.ofSeconds(30), null, false, BundledEmbeddingModel.Options.defaults()));
+
+        assertEquals("nomic-embed-text", service.modelId());
+    }
+
+    @Test
+    void spec_should_not_expose_credentials() {
+        EmbeddingService.ModelSpec remote = new EmbeddingService.ModelSpec("nomic-embed-text",
+                List.of("http://localhost:11434"), Duration.ofSeconds(30), "Basic c2VjcmV0", false,
+                BundledEmbeddingModel.Options.defaults());
+
+        assertFalse(remote.toString().contains("c2VjcmV0"));
+        assertFalse(remote.isLocal());
+    }
+
+    @Test
+    void fallback_urls_should_follow_the_configured_server() {
+        assertEquals(List.of("http://gpu:11434", "http://cpu:11434", "http://backup:11434"),
+                EmbeddingService.ollamaUrls("http://gpu:11434",
+                        " http://cpu:11434 ;;http://gpu:11434; http://backup:11434"));
+        assertEquals(List.of("http://gpu:11434"), EmbeddingService.ollamaUrls("http://gpu:11434", null));
+    }
+
+    @Test
+    void executor_should_use_half_of_the_cores() {
+        assertEquals(1, EmbeddingService.executorThreads(1));
+        assertEquals(1, EmbeddingService.executorThreads(2));
+        assertEquals(4, EmbeddingService.executorThreads(8));
+    }
+
+    private EmbeddingModel modelFor(EmbeddingService service) {
+        service.model();
+        return models.get(models.size() - 1);
+    }
+
+    private EmbeddingService newService() {
+        EmbeddingCache cache = new EmbeddingCache(tempDir, 100);
+        return new EmbeddingService(spec::get, modelSpec -> {
+            createdModels.add(modelSpec);
+            ConstantModel model = new ConstantModel();
+            models.add(model);
+            return model;
+        }, () -> cache, new QueryEmbeddingCache(10));
+    }
+
+    private static final class ConstantModel implements EmbeddingModel {
+
+        private int calls;
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            calls++;
+            return Response.from(segments.stream().map(segment -> Embedding.from(new float[]{1f})).toList());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChangeBatcherTest {
+
+    private final FileChangeBatcher batcher = new FileChangeBatcher();
+
+    @Test
+    void repeated_changes_should_index_a_file_once() {
+        batcher.changed("/p/src/Util.java");
+        batcher.changed("/p/src/Util.java");
+        batcher.changed("/p/lib/Util.java");
+
+        FileChangeBatcher.ChangeSet changes = batcher.drain();
+
+        assertEquals(Set.of("/p/src/Util.java", "/p/lib/Util.java"), changes.updatedFiles());
+        assertTrue(changes.deletedFiles().isEmpty());
+    }
+
+    @Test
+    void a_file_created_then_deleted_should_not_be_touched() {
+        batcher.created("/p/src/Tmp.java", false);
+        batcher.changed("/p/src/Tmp.java");
+        batcher.deleted("/p/src/Tmp.java", false);
+
+        assertTrue(batcher.drain().isEmpty());
+    }
+
+    @Test
+    void a_file_deleted_then_created_should_be_indexed_again() {
+        batcher.deleted("/p/src/App.java", false);
+        batcher.created("/p/src/App.java", false);
+
+        FileChangeBatcher.ChangeSet changes = batcher.drain();
+
+        assertEquals(Set.of("/p/src/App.java"), changes.updatedFiles());
+        assertTrue(changes.deletedFiles().isEmpty());
+    }
+
+    @Test
+    void a_move_should_delete_the_old_path_and_index_the_new_one() {
+        batcher.changed("/p/src/App.java");
+        batcher.moved("/p/src/App.java", "/p/app/App.java", false);
+
+        FileChangeBatcher.ChangeSet changes = batcher.drain();
+
+        assertEquals(Set.of("/p/app/App.java"), changes.updatedFiles());
+        assertEquals(Set.of("/p/src/App.java"), changes.deletedFiles());
+    }
+
+    @Test
+    void a_deleted_directory_should_replace_the_changes_under_it() {
+        batcher.changed("/p/gen/A.java");
+        batcher.created("/p/gen/sub", true);
+        batcher.changed("/p/src/B.java");
+        batcher.deleted("/p/gen", true);
+
+        FileChangeBatcher.ChangeSet changes = batcher.drain();
+
+        assertEquals(Set.of("/p/src/B.java"), changes.updatedFiles());
+        assertEquals(Set.of("/p/gen"), changes.deletedDirectories());
+        assertTrue(changes.createdDirectories().isEmpty());
+    }
+
+    @Test
+    void draining_should_start_a_new_batch() {
+        batcher.created("/p/module", true);
+
+        assertEquals(Set.of("/p/module"), batcher.drain().createdDirectories());
+        assertTrue(batcher.isEmpty());
+        assertTrue(batcher.drain().isEmpty());
+    }
+}
@@ -5,16 +5,13 @@ import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectFileIndex;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
-import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.VirtualFileVisitor;
 import fr.baretto.ollamassist.setting.OllamAssistSettings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
 
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -72,43 +69,21 @@ class FileUtilTest {
     void testShouldProcessFile_validSource() {
         VirtualFile file = mock(VirtualFile.class);
         when(file.isDirectory()).thenReturn(false);
+        when(file.getPath()).thenReturn("/project/src/App.java");
         when(mockFileIndex.isInSource(file)).thenReturn(true);
 
         assertTrue(filesUtil.shouldProcessFile(file));
     }
 
     @Test
-    void testAddFileToProperList_addsToSources() {
+    void testShouldProcessFile_excludedSource() {
         VirtualFile file = mock(VirtualFile.class);
+        when(file.isDirectory()).thenReturn(false);
+        when(file.getPath()).thenReturn("/project/src/generated/Api.java");
         when(mockFileIndex.isInSource(file)).thenReturn(true);
-        when(file.getPath()).thenReturn("/test/File.java");
-
-        AtomicInteger counter = new AtomicInteger(0);
-        List<String> sources = new java.util.ArrayList<>();
-        List<String> others = new java.util.ArrayList<>();
-
-        filesUtil.addFileToProperList(file, sources, others, counter);
-
-        assertEquals(1, counter.get());
-        assertTrue(sources.contains("/test/File.java"));
-        assertTrue(others.isEmpty());
-    }
-
-    @Test
-    void testAddFileToProperList_addsToOthers() {
-        VirtualFile file = mock(VirtualFile.class);
-        when(mockFileIndex.isInSource(file)).thenReturn(false);
-        when(file.getPath()).thenReturn("/test/Other.txt");
-
-        AtomicInteger counter = new AtomicInteger(0);
-        List<String> sources = new java.util.ArrayList<>();
-        List<String> others = new java.util.ArrayList<>();
+        when(mockShouldBeIndexed.excludes(Path.of("/project/src/generated/Api.java"))).thenReturn(true);
 
-        filesUtil.addFileToProperList(file, sources, others, counter);
-
-        assertEquals(1, counter.get());
-        assertTrue(others.contains("/test/Other.txt"));
-        assertTrue(sources.isEmpty());
+        assertFalse(filesUtil.shouldProcessFile(file));
     }
 
     @Test
@@ -174,61 +149,24 @@ class FileUtilTest {
     }
 
     @Test
-    void testCollectFilePaths_shouldReturnLimitedIndexedFiles() {
-        Project project = mock(Project.class);
-        ProjectFileIndex fileIndex = mock(ProjectFileIndex.class);
-        ShouldBeIndexed shouldBeIndexed = mock(ShouldBeIndexed.class);
-        FilesUtil filesUtilForTests = new FilesUtil(project, fileIndex, shouldBeIndexed, 10);
-
-        VirtualFile baseDir = mock(VirtualFile.class);
-        when(project.getBaseDir()).thenReturn(baseDir);
-
-        VirtualFile file1 = mockFile("/src/file1.java", false);
-        VirtualFile file2 = mockFile("/src/file2.java", false);
-        VirtualFile file3 = mockFile("/test/file3.test", false);
-        VirtualFile file4 = mockFile("/readme.md", false);
-
-        List<VirtualFile> allFiles = List.of(file1, file2, file3, file4);
-
-        mockRecursiveTraversal(baseDir, allFiles);
-
-        when(fileIndex.isInSource(file1)).thenReturn(true);
-        when(fileIndex.isInSource(file2)).thenReturn(true);
-        when(fileIndex.isInSource(file3)).thenReturn(false);
-        when(fileIndex.isInSource(file4)).thenReturn(false);
-
-        when(shouldBeIndexed.matches(any())).thenReturn(true);
-
-        List<String> paths = filesUtilForTests.collectFilePathsInternal();
+    void testShouldExcludedDirectory_decisionIsCachedPerDirectory() {
+        VirtualFile dir = mock(VirtualFile.class);
+        when(dir.getPath()).thenReturn("/project/src");
+        when(dir.getName()).thenReturn("src");
+        when(mockFileIndex.isExcluded(dir)).thenReturn(false);
+        when(mockFileIndex.isUnderIgnored(dir)).thenReturn(false);
 
-        assertEquals(4, paths.size());
-        assertTrue(paths.contains("/src/file1.java"));
-        assertTrue(paths.contains("/src/file2.java"));
-        assertTrue(paths.contains("/test/file3.test"));
-        assertTrue(paths.contains("/readme.md"));
-    }
+        try (MockedStatic<ChangeListManager> mockCLM = mockStatic(ChangeListManager.class)) {
+            ChangeListManager clm = mock(ChangeListManager.class);
+            when(clm.isIgnoredFile(dir)).thenReturn(false);
+            mockCLM.when(() -> ChangeListManager.getInstance(mockProject)).thenReturn(clm);
 
-    private VirtualFile mockFile(String path, boolean isDirectory) {
-        VirtualFile file = mock(VirtualFile.class);
-        when(file.getPath()).thenReturn(path);
-        when(file.isDirectory()).thenReturn(isDirectory);
-        when(file.isValid()).thenReturn(true);
-        when(file.getLength()).thenReturn(100L);
-        when(file.getFileType()).thenReturn(mock(FileType.class));
-        when(file.getFileType().isBinary()).thenReturn(false);
-        return file;
-    }
+            FilesUtil util = new FilesUtil(mockProject, mockFileIndex, mockShouldBeIndexed, 10);
 
-    private void mockRecursiveTraversal(VirtualFile baseDir, List<VirtualFile> files) {
-        mockStatic(VfsUtilCore.class).when(() ->
-                VfsUtilCore.visitChildrenRecursively(eq(baseDir), any())
-        ).thenAnswer(invocation -> {
-            VirtualFileVisitor<?> visitor = invocation.getArgument(1);
-            for (VirtualFile file : files) {
-                visitor.visitFile(file);
-            }
-            return null;
-        });
+            assertFalse(util.shouldExcludedDirectory(dir));
+            assertFalse(util.shouldExcludedDirectory(dir));
+            verify(clm, times(1)).isIgnoredFile(dir);
+        }
     }
 
 }
\ No newline at end of file
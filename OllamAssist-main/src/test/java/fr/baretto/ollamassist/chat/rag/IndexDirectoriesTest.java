@@ -0,0 +1,123 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexDirectoriesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void swap_should_replace_the_index_by_the_rebuilt_one() throws IOException {
+        Path index = indexWith("previous");
+        write(IndexDirectories.rebuildPath(index), "rebuilt");
+
+        IndexDirectories.swap(index);
+
+        assertEquals("rebuilt", read(index));
+        assertFalse(Files.exists(IndexDirectories.rebuildPath(index)));
+        assertFalse(Files.exists(IndexDirectories.previousPath(index)));
+    }
+
+    @Test
+    void failed_swap_should_leave_the_index_in_place() throws IOException {
+        Path index = indexWith("previous");
+
+        assertThrows(IOException.class, () -> IndexDirectories.swap(index));
+
+        assertEquals("previous", read(index));
+        assertFalse(Files.exists(IndexDirectories.previousPath(index)));
+    }
+
+    @Test
+    void recover_should_finish_the_swap_of_a_complete_rebuild() throws IOException {
+        Path index = tempDir.resolve("knowledge_index");
+        write(IndexDirectories.previousPath(index), "previous");
+        write(IndexDirectories.rebuildPath(index), "rebuilt");
+
+        IndexDirectories.recover(index, true);
+
+        assertEquals("rebuilt", read(index));
+        assertFalse(Files.exists(IndexDirectories.previousPath(index)));
+    }
+
+    @Test
+    void recover_should_restore_the_index_moved_aside_when_the_rebuild_is_incomplete() throws IOException {
+        Path index = tempDir.resolve("knowledge_index");
+        write(IndexDirectories.previousPath(index), "previous");
+        write(IndexDirectories.rebuildPath(index), "partial");
+
+        IndexDirectories.recover(index, false);
+
+        assertEquals("previous", read(index));
+        assertEquals("partial", read(IndexDirectories.rebuildPath(index)));
+    }
+
+    @Test
+    void recover_should_keep_an_incomplete_rebuild_for_later() throws IOException {
+        Path index = indexWith("current");
+        write(IndexDirectories.rebuildPath(index), "partial");
+
+        IndexDirectories.recover(index, false);
+
+        assertEquals("current", read(index));
+        assertEquals("partial", read(IndexDirectories.rebuildPath(index)));
+    }
+
+    @Test
+    void projects_sharing_a_name_should_get_distinct_directories() {
+        Path first = IndexDirectories.projectDirectory(tempDir, "demo", "/home/user/work/demo");
+        Path second = IndexDirectories.projectDirectory(tempDir, "demo", "/home/user/other/demo");
+
+        assertNotEquals(first, second);
+        assertEquals(first, IndexDirectories.projectDirectory(tempDir, "demo", "/home/user/work/demo"));
+        assertTrue(first.getFileName().toString().startsWith("demo-"));
+    }
+
+    @Test
+    void migration_should_move_the_index_stored_under_the_project_name() throws IOException {
+        Path legacy = tempDir.resolve("demo");
+        write(legacy.resolve("database").resolve("knowledge_index"), "legacy");
+        Path project = IndexDirectories.projectDirectory(tempDir, "demo", "/home/user/work/demo");
+
+        IndexDirectories.migrateLegacyDirectory(legacy, project);
+
+        assertEquals("legacy", read(project.resolve("database").resolve("knowledge_index")));
+        assertFalse(Files.exists(legacy));
+    }
+
+    @Test
+    void migration_should_keep_the_index_already_in_the_project_directory() throws IOException {
+        Path legacy = tempDir.resolve("demo");
+        write(legacy.resolve("database").resolve("knowledge_index"), "legacy");
+        Path project = IndexDirectories.projectDirectory(tempDir, "demo", "/home/user/work/demo");
+        write(project.resolve("database").resolve("knowledge_index"), "current");
+
+        IndexDirectories.migrateLegacyDirectory(legacy, project);
+
+        assertEquals("current", read(project.resolve("database").resolve("knowledge_index")));
+        assertEquals("legacy", read(legacy.resolve("database").resolve("knowledge_index")));
+    }
+
+    private Path indexWith(String content) throws IOException {
+        Path index = tempDir.resolve("knowledge_index");
+        write(index, content);
+        return index;
+    }
+
+    private static void write(Path directory, String content) throws IOException {
+        Files.createDirectories(directory);
+        Files.writeString(directory.resolve("segments_1"), content);
+    }
+
+    private static String read(Path directory) throws IOException {
+        return Files.readString(directory.resolve("segments_1"));
+    }
+}
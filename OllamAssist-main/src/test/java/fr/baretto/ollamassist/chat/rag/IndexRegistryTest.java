@@ -257,4 +257,40 @@ class IndexRegistryTest {
                 () -> assertFalse(indexRegistry.isIndexed(projectId))
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void markAsIndexed_shouldPersistStatsAndPathKeys() {
+        String projectId = "/home/dev/work, copy/project";
+        KnowledgeIndexStats stats = new KnowledgeIndexStats(4096, 120, 8, 3);
+
+        indexRegistry.markAsIndexed(projectId, stats);
+        IndexRegistry.ProjectMetadata metadata = new IndexRegistry().getIndexedProjects().get(projectId);
+
+        assertAll(
+                () -> assertNotNull(metadata),
+                () -> assertEquals(stats, metadata.getStats()),
+                () -> assertFalse(metadata.isCorrupted())
+        );
+    }
+
+    @Test
+    void shouldAllowASingleIndexationPerProject() {
+        String projectId = "/home/dev/project";
+
+        assertTrue(indexRegistry.tryMarkAsCurrentIndexation(projectId));
+        assertFalse(indexRegistry.tryMarkAsCurrentIndexation(projectId));
+
+        indexRegistry.removeFromCurrentIndexation(projectId);
+        assertTrue(indexRegistry.tryMarkAsCurrentIndexation(projectId));
+    }
+
+    @Test
+    void shouldSeeChangesWrittenByAnotherInstance() {
+        String projectId = "/home/dev/shared";
+        assertFalse(indexRegistry.isIndexed(projectId));
+
+        new IndexRegistry().markAsIndexed(projectId);
+
+        assertTrue(indexRegistry.isIndexed(projectId));
+    }
+}
@@ -0,0 +1,95 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static fr.baretto.ollamassist.chat.rag.IndexingQueue.Priority.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexingQueueTest {
+
+    private final IndexingQueue queue = new IndexingQueue();
+
+    @Test
+    void files_should_be_served_by_priority_then_recency_then_arrival() {
+        queue.offer("old-other", OTHER, 10);
+        queue.offer("old-source", SOURCE, 10);
+        queue.offer("new-source", SOURCE, 20);
+        queue.offer("same-source", SOURCE, 10);
+        queue.offer("open", FOCUSED, 0);
+
+        assertEquals(List.of("open", "new-source", "old-source", "same-source", "old-other"), drain());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void removed_files_should_not_be_served() {
+        queue.offer("/p/a/One.java", SOURCE, 10);
+        queue.offer("/p/b/Two.java", SOURCE, 10);
+        queue.offer("/p/a/Three.java", SOURCE, 10);
+
+        assertEquals(2, queue.removeIf(path -> path.startsWith("/p/a/")));
+
+        assertEquals(1, queue.size());
+        assertEquals(List.of("/p/b/Two.java"), drain());
+    }
+
+    @Test
+    void an_edit_should_move_a_queued_file_ahead_of_bulk_indexing() {
+        queue.offer("a", SOURCE, 10);
+        queue.offer("b", SOURCE, 10);
+        queue.offer("c", SOURCE, 10);
+
+        assertFalse(queue.offer("c", EDITED, 10));
+
+        assertEquals(3, queue.size());
+        assertEquals(List.of("c", "a", "b"), drain());
+    }
+
+    @Test
+    void a_lower_priority_should_not_demote_a_queued_file() {
+        queue.offer("a", FOCUSED, 10);
+        queue.offer("b", SOURCE, 10);
+
+        queue.offer("a", OTHER, 10);
+
+        assertEquals(List.of("a", "b"), drain());
+    }
+
+    @Test
+    void polled_files_can_be_queued_again() {
+        assertTrue(queue.offer("a", SOURCE, 10));
+        assertEquals("a", queue.poll());
+        assertFalse(queue.contains("a"));
+
+        assertTrue(queue.offer("a", EDITED, 10));
+        assertEquals("a", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void timed_poll_should_return_a_file_queued_while_waiting() throws InterruptedException {
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer("late", SOURCE, 10);
+        });
+        producer.start();
+
+        assertEquals("late", queue.poll(5, TimeUnit.SECONDS));
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        producer.join();
+    }
+
+    private List<String> drain() {
+        List<String> paths = new ArrayList<>();
+        queue.drainTo(paths);
+        return paths;
+    }
+}
@@ -0,0 +1,65 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import fr.baretto.ollamassist.setting.RAGSettings;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KnowledgeIndexOptionsTest {
+
+    @Test
+    void settings_below_their_range_should_be_raised_to_the_minimum() {
+        RAGSettings settings = settings();
+        settings.setIndexCommitIntervalSeconds(0);
+        settings.setIndexMaxUncommittedDocuments(-5);
+        settings.setHnswMaxConn(0);
+        settings.setHnswBeamWidth(-1);
+        settings.setSearchOverFetchFactor(0);
+        settings.setIndexingChunkMaxTokens(0);
+
+        KnowledgeIndexOptions options = KnowledgeIndexOptions.fromSettings(settings, "model");
+
+        assertEquals(1, options.getCommitIntervalSeconds());
+        assertEquals(1, options.getMaxUncommittedDocuments());
+        assertEquals(1, options.getHnswMaxConn());
+        assertEquals(1, options.getHnswBeamWidth());
+        assertEquals(1, options.getSearchOverFetchFactor());
+        assertEquals(1, options.getChunkMaxTokens());
+    }
+
+    @Test
+    void hnsw_settings_above_their_range_should_be_lowered_to_the_lucene_maximum() {
+        RAGSettings settings = settings();
+        settings.setHnswMaxConn(10_000);
+        settings.setHnswBeamWidth(10_000);
+
+        KnowledgeIndexOptions options = KnowledgeIndexOptions.fromSettings(settings, "model");
+
+        assertEquals(Lucene99HnswVectorsFormat.MAXIMUM_MAX_CONN, options.getHnswMaxConn());
+        assertEquals(Lucene99HnswVectorsFormat.MAXIMUM_BEAM_WIDTH, options.getHnswBeamWidth());
+    }
+
+    @Test
+    void settings_in_range_should_be_kept() {
+        RAGSettings settings = settings();
+        settings.setIndexCommitIntervalSeconds(12);
+        settings.setHnswMaxConn(24);
+        settings.setHnswBeamWidth(200);
+        settings.setSearchOverFetchFactor(3);
+
+        KnowledgeIndexOptions options = KnowledgeIndexOptions.fromSettings(settings, "nomic-embed-text");
+
+        assertEquals(12, options.getCommitIntervalSeconds());
+        assertEquals(24, options.getHnswMaxConn());
+        assertEquals(200, options.getHnswBeamWidth());
+        assertEquals(3, options.getSearchOverFetchFactor());
+        assertEquals("nomic-embed-text", options.getEmbeddingModel());
+    }
+
+    private static RAGSettings settings() {
+        RAGSettings settings = new RAGSettings();
+        settings.loadState(new RAGSettings.State());
+        return settings;
+    }
+}
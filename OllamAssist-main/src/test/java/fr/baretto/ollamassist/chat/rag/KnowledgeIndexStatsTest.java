@@ -0,0 +1,20 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnowledgeIndexStatsTest {
+
+    @Test
+    void deleted_ratio_should_count_deleted_among_all_documents() {
+        KnowledgeIndexStats stats = new KnowledgeIndexStats(1024, 300, 100, 4);
+
+        assertEquals(0.25, stats.deletedRatio(), 1e-9);
+    }
+
+    @Test
+    void an_empty_index_should_have_no_deleted_ratio() {
+        assertEquals(0, KnowledgeIndexStats.EMPTY.deletedRatio());
+    }
+}
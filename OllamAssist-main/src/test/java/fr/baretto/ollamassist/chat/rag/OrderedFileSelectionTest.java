@@ -0,0 +1,68 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedFileSelectionTest {
+
+    private final List<String> handed = new ArrayList<>();
+
+    @Test
+    void source_files_should_come_first_in_walk_order_whatever_walk_finishes_first() {
+        OrderedFileSelection selection = new OrderedFileSelection(4, handed::add);
+        int first = selection.startWalk();
+        int second = selection.startWalk();
+
+        selection.add(second, "/b/Second.java", true);
+        selection.add(second, "/b/notes.md", false);
+        selection.walkDone(second);
+        assertTrue(handed.isEmpty(), "Source files wait for the walks started before");
+
+        selection.add(first, "/a/README.md", false);
+        selection.add(first, "/a/First.java", true);
+        selection.add(first, "/a/Other.java", true);
+        selection.walkDone(first);
+        assertEquals(List.of("/a/First.java", "/a/Other.java", "/b/Second.java"), handed);
+
+        assertEquals(4, selection.finish());
+        assertEquals(List.of("/a/First.java", "/a/Other.java", "/b/Second.java", "/a/README.md"), handed);
+    }
+
+    @Test
+    void walk_should_settle_once_the_limit_is_reached_by_source_files() {
+        OrderedFileSelection selection = new OrderedFileSelection(2, handed::add);
+        int first = selection.startWalk();
+        int second = selection.startWalk();
+
+        selection.add(first, "/a/First.java", true);
+        assertFalse(selection.isSettled(first));
+        selection.add(first, "/a/Other.java", true);
+        assertTrue(selection.isSettled(first));
+        assertFalse(selection.isSettled(second));
+
+        selection.walkDone(first);
+        assertTrue(selection.isSettled(second), "Nothing found later can be handed over");
+        selection.walkDone(second);
+        assertEquals(2, selection.finish());
+        assertEquals(List.of("/a/First.java", "/a/Other.java"), handed);
+    }
+
+    @Test
+    void restarted_walk_should_forget_the_files_found_before() {
+        OrderedFileSelection selection = new OrderedFileSelection(10, handed::add);
+        int walk = selection.startWalk();
+        selection.add(walk, "/a/First.java", true);
+        selection.add(walk, "/a/README.md", false);
+
+        selection.restartWalk(walk);
+        selection.add(walk, "/a/First.java", true);
+        selection.walkDone(walk);
+
+        assertEquals(1, selection.finish());
+        assertEquals(List.of("/a/First.java"), handed);
+    }
+}
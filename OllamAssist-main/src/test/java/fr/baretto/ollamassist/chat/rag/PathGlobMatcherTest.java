@@ -0,0 +1,83 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathGlobMatcherTest {
+
+    @Test
+    void plain_patterns_should_match_when_the_path_contains_them() {
+        PathGlobMatcher matcher = PathGlobMatcher.compile(List.of("src/", "pom.xml"));
+
+        assertTrue(matcher.matches("/home/dev/project/src/main/App.java"));
+        assertTrue(matcher.matches("/home/dev/project/module/pom.xml"));
+        assertFalse(matcher.matches("/home/dev/project/docs/README.md"));
+    }
+
+    @Test
+    void many_plain_patterns_should_match_through_the_automaton() {
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < PathGlobMatcher.FRAGMENT_AUTOMATON_THRESHOLD * 2; i++) {
+            patterns.add("module" + i + "/");
+        }
+        PathGlobMatcher matcher = PathGlobMatcher.compile(patterns);
+
+        assertTrue(matcher.matches("/project/module7/src/App.java"));
+        assertTrue(matcher.matches("/project/module31/App.java"));
+        assertFalse(matcher.matches("/project/module32/App.java"));
+        assertFalse(matcher.matches("/project/module7"));
+    }
+
+    @Test
+    void single_star_should_stay_in_a_segment() {
+        PathGlobMatcher matcher = PathGlobMatcher.compile(List.of("src/*.java"));
+
+        assertTrue(matcher.matches("/project/src/App.java"));
+        assertFalse(matcher.matches("/project/src/main/App.java"));
+        assertFalse(matcher.matches("/project/src/App.kt"));
+    }
+
+    @Test
+    void double_star_should_cross_segments() {
+        PathGlobMatcher matcher = PathGlobMatcher.compile(List.of("src/**/*.java"));
+
+        assertTrue(matcher.matches("/project/src/App.java"));
+        assertTrue(matcher.matches("/project/module/src/main/java/App.java"));
+        assertFalse(matcher.matches("/project/test/App.java"));
+    }
+
+    @Test
+    void globs_should_start_on_a_segment_boundary() {
+        PathGlobMatcher matcher = PathGlobMatcher.compile(List.of("*.md"));
+
+        assertTrue(matcher.matches("README.md"));
+        assertTrue(matcher.matches("/project/docs/guide.md"));
+        assertFalse(matcher.matches("/project/docs/guide.mdx"));
+    }
+
+    @Test
+    void classes_alternatives_and_wildcards_should_be_supported() {
+        PathGlobMatcher matcher = PathGlobMatcher.compile(List.of("**/*.{java,kt}", "docs/v[0-9]/?.txt",
+                "build/[!a-m]*"));
+
+        assertTrue(matcher.matches("/project/App.kt"));
+        assertTrue(matcher.matches("/project/App.java"));
+        assertTrue(matcher.matches("/project/docs/v2/a.txt"));
+        assertFalse(matcher.matches("/project/docs/vx/a.txt"));
+        assertFalse(matcher.matches("/project/docs/v2/ab.txt"));
+        assertTrue(matcher.matches("/project/build/out"));
+        assertFalse(matcher.matches("/project/build/classes"));
+    }
+
+    @Test
+    void empty_matcher_should_match_nothing() {
+        PathGlobMatcher matcher = PathGlobMatcher.compile(List.of(" "));
+
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("/project/src/App.java"));
+    }
+}
@@ -0,0 +1,143 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryEmbeddingCacheTest {
+
+    private final QueryEmbeddingCache cache = new QueryEmbeddingCache(100);
+    private final AtomicInteger embeddings = new AtomicInteger();
+
+    @Test
+    void queries_differing_only_by_whitespace_should_share_an_entry() {
+        EmbeddingModel model = cache.wrap(new CountingModel(null), "model");
+
+        Embedding first = model.embed("int  count =\n    0;").content();
+        Embedding second = model.embed("  int count = 0;\r\n").content();
+
+        assertSame(first, second);
+        assertEquals(1, embeddings.get());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    void entries_should_be_scoped_by_model() {
+        cache.wrap(new CountingModel(null), "bge").embed("query");
+        cache.wrap(new CountingModel(null), "nomic").embed("query");
+
+        assertEquals(2, embeddings.get());
+    }
+
+    @Test
+    void least_recently_used_queries_should_be_evicted() {
+        QueryEmbeddingCache small = new QueryEmbeddingCache(2);
+        EmbeddingModel model = small.wrap(new CountingModel(null), "model");
+        for (int i = 0; i < 50; i++) {
+            model.embed("query " + i);
+        }
+
+        assertEquals(2, small.size());
+        assertEquals(48, small.stats().evictionCount());
+    }
+
+    @Test
+    void embeddings_of_a_fallback_model_should_not_be_cached() {
+        EmbeddingModel model = cache.wrap(new CountingModel("fallback"), "model");
+
+        Response<Embedding> response = model.embed("query");
+        model.embed("query");
+
+        assertTrue(EmbeddingRouter.producedBy(response, "fallback"));
+        assertEquals(2, embeddings.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void failed_embeddings_should_not_be_cached() {
+        AtomicInteger calls = new AtomicInteger();
+        EmbeddingModel model = cache.wrap(new CountingModel(null) {
+            @Override
+            public Response<Embedding> embed(String text) {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Ollama unreachable");
+                }
+                return super.embed(text);
+            }
+        }, "model");
+
+        assertThrows(IllegalStateException.class, () -> model.embed("query"));
+        model.embed("query");
+        model.embed("query");
+
+        assertEquals(2, calls.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void concurrent_misses_should_share_a_single_computation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EmbeddingModel model = cache.wrap(new CountingModel(null) {
+            @Override
+            public Response<Embedding> embed(String text) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.embed(text);
+            }
+        }, "model");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Response<Embedding>> first = executor.submit(() -> model.embed("query"));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Response<Embedding>> second = executor.submit(() -> model.embed("query"));
+            release.countDown();
+
+            assertSame(first.get(5, TimeUnit.SECONDS).content(), second.get(5, TimeUnit.SECONDS).content());
+            assertEquals(1, embeddings.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class CountingModel implements EmbeddingModel {
+
+        private final String producer;
+
+        private CountingModel(String producer) {
+            this.producer = producer;
+        }
+
+        @Override
+        public Response<Embedding> embed(String text) {
+            embeddings.incrementAndGet();
+            Embedding embedding = Embedding.from(new float[]{text.length()});
+            return producer == null
+                    ? Response.from(embedding)
+                    : Response.from(embedding, null, null, Map.of(EmbeddingRouter.MODEL_METADATA_KEY, producer));
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SegmentFieldsTest {
+
+    @Test
+    void metadata_should_survive_a_round_trip_through_the_index() throws IOException {
+        Metadata metadata = new Metadata()
+                .put(SegmentFields.FILE_NAME, "LuceneEmbeddingStore.java")
+                .put(SegmentFields.DIRECTORY, "/project/src/main/java")
+                .put(SegmentFields.SEGMENT_INDEX, "3")
+                .put("line_count", 42)
+                .put("language", "java");
+        Document doc = new Document();
+        SegmentFields.write(doc, metadata, 1_700_000_000_000L);
+
+        Metadata read = SegmentFields.read(storeAndLoad(doc));
+
+        assertEquals("LuceneEmbeddingStore.java", read.getString(SegmentFields.FILE_NAME));
+        assertEquals("/project/src/main/java", read.getString(SegmentFields.DIRECTORY));
+        assertEquals("3", read.getString(SegmentFields.SEGMENT_INDEX));
+        assertEquals(42, read.getInteger("line_count"));
+        assertEquals("java", read.getString("language"));
+        assertEquals(1_700_000_000_000L, read.getLong(SegmentFields.LAST_INDEXED_DATE));
+    }
+
+    @Test
+    void file_path_should_be_derived_from_metadata_with_forward_slashes() {
+        Metadata metadata = new Metadata()
+                .put(SegmentFields.DIRECTORY, "C:\\project\\src")
+                .put(SegmentFields.FILE_NAME, "Main.java");
+
+        assertEquals("C:/project/src/Main.java", SegmentFields.filePath(metadata));
+        assertNull(SegmentFields.filePath(new Metadata().put(SegmentFields.FILE_NAME, "Main.java")));
+    }
+
+    @Test
+    void file_filter_should_match_every_segment_of_the_file_only() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                for (int ordinal = 0; ordinal < 3; ordinal++) {
+                    Document segment = new Document();
+                    SegmentFields.writeIdentity(segment, "/project/src/Main.java", ordinal, "hash", null);
+                    writer.addDocument(segment);
+                }
+                Document other = new Document();
+                SegmentFields.writeIdentity(other, "/project/src/Main.javac", 0, "hash", null);
+                writer.addDocument(other);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                assertEquals(3, searcher.count(new IdStartWithFilter("/project/src/Main.java").toLuceneQuery()));
+            }
+        }
+    }
+
+    @Test
+    void file_versions_should_list_live_files_indexed_with_a_modification_time() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                writer.addDocument(segment("/project/A.java", 100L));
+                writer.addDocument(segment("/project/B.java", 200L));
+                writer.addDocument(segment("/project/Legacy.java", null));
+                writer.updateDocuments(new Term(SegmentFields.FILE_PATH, "/project/B.java"),
+                        List.of(segment("/project/B.java", 300L)));
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertEquals(Map.of("/project/A.java", 100L, "/project/B.java", 300L), SegmentFields.fileVersions(reader));
+                Document stored = reader.storedFields().document(0);
+                assertEquals(100L, SegmentFields.read(stored).getLong(SegmentFields.FILE_LAST_MODIFIED));
+            }
+        }
+    }
+
+    @Test
+    void file_versions_should_follow_the_version_updated_in_place() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                writer.addDocument(segment("/project/A.java", 100L));
+                writer.addDocument(segment("/project/B.java", 200L));
+                writer.updateNumericDocValue(new Term(SegmentFields.FILE_PATH, "/project/A.java"),
+                        SegmentFields.FILE_VERSION, 400L);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertEquals(Map.of("/project/A.java", 400L, "/project/B.java", 200L), SegmentFields.fileVersions(reader));
+            }
+        }
+    }
+
+    private Document segment(String filePath, Long lastModified) {
+        Document segment = new Document();
+        SegmentFields.writeIdentity(segment, filePath, 0, "hash", null);
+        Metadata metadata = new Metadata();
+        if (lastModified != null) {
+            metadata.put(SegmentFields.FILE_LAST_MODIFIED, lastModified);
+        }
+        SegmentFields.write(segment, metadata, 1L);
+        return segment;
+    }
+
+    private Document storeAndLoad(Document doc) throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                writer.addDocument(doc);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                return reader.storedFields().document(0);
+            }
+        }
+    }
+}
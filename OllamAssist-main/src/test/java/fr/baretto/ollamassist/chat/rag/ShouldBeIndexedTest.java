@@ -56,6 +56,38 @@ class ShouldBeIndexedTest {
 
     }
 
+    @Test
+    void should_apply_globs_and_exclusions_from_sources() {
+        try (MockedStatic<OllamAssistSettings> ollamAssistSettingsMocked = Mockito.mockStatic(OllamAssistSettings.class)) {
+            ollamAssistSettingsMocked.
+                    when(OllamAssistSettings::getInstance)
+                    .thenReturn(settings);
+
+            Mockito.doReturn("src/**/*.java; pom.xml;!generated/").when(settings).getSources();
+
+            ShouldBeIndexed shouldBeIndexed = new ShouldBeIndexed();
+            Assertions.assertTrue(shouldBeIndexed.matches(Path.of("/project/src/main/java/App.java")));
+            Assertions.assertTrue(shouldBeIndexed.matches(Path.of("/project/pom.xml")));
+            Assertions.assertFalse(shouldBeIndexed.matches(Path.of("/project/src/main/resources/app.yml")));
+            Assertions.assertFalse(shouldBeIndexed.matches(Path.of("/project/src/generated/Api.java")));
+        }
+    }
+
+    @Test
+    void should_report_exclusions_whatever_the_included_entries() {
+        try (MockedStatic<OllamAssistSettings> ollamAssistSettingsMocked = Mockito.mockStatic(OllamAssistSettings.class)) {
+            ollamAssistSettingsMocked.
+                    when(OllamAssistSettings::getInstance)
+                    .thenReturn(settings);
+
+            Mockito.doReturn("pom.xml;!generated/").when(settings).getSources();
+
+            ShouldBeIndexed shouldBeIndexed = new ShouldBeIndexed();
+            Assertions.assertTrue(shouldBeIndexed.excludes(Path.of("/project/src/generated/Api.java")));
+            Assertions.assertFalse(shouldBeIndexed.excludes(Path.of("/project/src/main/java/App.java")));
+        }
+    }
+
     private static class ShouldBeIndexedForTest extends ShouldBeIndexed {
         ShouldBeIndexedForTest() {
             includedPaths = Set.of("src/", ".java", "pom.xml");
@@ -0,0 +1,175 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StagedIndexingRunTest {
+
+    private final Map<String, List<Embedding>> written = new ConcurrentHashMap<>();
+    private final Set<String> indexed = ConcurrentHashMap.newKeySet();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final List<Integer> embeddingCallSizes = new CopyOnWriteArrayList<>();
+    private final StagedIndexingRun.Pools pools = new StagedIndexingRun.Pools(new StagedIndexingRun.Options(2, 2, 2, 4, 8));
+
+    @AfterEach
+    void tearDown() {
+        pools.close();
+    }
+
+    @Test
+    void every_file_should_be_written_with_its_own_embeddings() throws Exception {
+        try (StagedIndexingRun run = newRun(this::read, this::splitInTwo)) {
+            for (int i = 0; i < 200; i++) {
+                run.submit("file" + i);
+            }
+            run.awaitCompletion();
+        }
+
+        assertEquals(200, indexed.size());
+        assertTrue(failed.isEmpty());
+        assertEquals(200, written.size());
+        List<Embedding> embeddings = written.get("file42");
+        assertEquals(2, embeddings.size());
+        assertEquals("file42#0".length(), embeddings.get(0).vector()[0]);
+        assertTrue(embeddingCallSizes.stream().allMatch(size -> size <= 8));
+    }
+
+    @Test
+    void files_split_over_several_calls_should_get_back_their_own_embeddings() throws Exception {
+        int budget = EmbeddingBatchSizer.MIN_TOKENS;
+        EmbeddingBatchSizer smallBudget = new EmbeddingBatchSizer(budget, budget, 60_000);
+        StagedIndexingRun.Splitter bigSegments = file -> List.of(
+                TextSegment.from(file.path() + "a".repeat(600)), TextSegment.from(file.path() + "b".repeat(700)));
+        try (StagedIndexingRun run = newRun(this::read, bigSegments, smallBudget)) {
+            for (int i = 0; i < 10; i++) {
+                run.submit("f" + i);
+            }
+            run.awaitCompletion();
+        }
+
+        assertEquals(10, written.size());
+        assertTrue(embeddingCallSizes.stream().allMatch(size -> size == 1));
+        List<Embedding> embeddings = written.get("f3");
+        assertEquals(602, embeddings.get(0).vector()[0]);
+        assertEquals(702, embeddings.get(1).vector()[0]);
+    }
+
+    @Test
+    void successive_runs_should_share_the_pools() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try (StagedIndexingRun run = newRun(this::read, this::splitInTwo)) {
+                run.submit("run" + i);
+                run.awaitCompletion();
+            }
+        }
+
+        assertEquals(Set.of("run0", "run1", "run2"), written.keySet());
+        assertEquals(Set.of("run0", "run1", "run2"), indexed);
+    }
+
+    @Test
+    void unchanged_files_should_be_reported_without_being_embedded() throws Exception {
+        try (StagedIndexingRun run = newRun(path -> null, this::splitInTwo)) {
+            run.submit("unchanged");
+            run.awaitCompletion();
+        }
+
+        assertEquals(Set.of("unchanged"), indexed);
+        assertTrue(embeddingCallSizes.isEmpty());
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    void a_failing_file_should_not_stop_the_others() throws Exception {
+        StagedIndexingRun.Splitter splitter = file -> {
+            if (file.path().equals("broken")) {
+                throw new IllegalStateException("cannot split");
+            }
+            return splitInTwo(file);
+        };
+        try (StagedIndexingRun run = newRun(this::read, splitter)) {
+            run.submit("broken");
+            run.submit("fine");
+            run.awaitCompletion();
+        }
+
+        assertEquals(Set.of("broken"), failed);
+        assertEquals(Set.of("fine"), indexed);
+    }
+
+    @Test
+    void embeddings_of_another_model_should_fail_their_files() throws Exception {
+        EmbeddingModel fallback = new LengthModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                return Response.from(super.embedAll(segments).content(), null, null,
+                        Map.of(EmbeddingRouter.MODEL_METADATA_KEY, "fallback"));
+            }
+        };
+        try (StagedIndexingRun run = newRun(this::read, this::splitInTwo, fallback, new EmbeddingBatchSizer())) {
+            run.submit("file");
+            run.awaitCompletion();
+        }
+
+        assertEquals(Set.of("file"), failed);
+        assertTrue(written.isEmpty());
+    }
+
+    private StagedIndexingRun newRun(StagedIndexingRun.Reader reader, StagedIndexingRun.Splitter splitter) {
+        return newRun(reader, splitter, new EmbeddingBatchSizer());
+    }
+
+    private StagedIndexingRun newRun(StagedIndexingRun.Reader reader, StagedIndexingRun.Splitter splitter,
+                                     EmbeddingBatchSizer batchSizer) {
+        return newRun(reader, splitter, new LengthModel(), batchSizer);
+    }
+
+    private StagedIndexingRun newRun(StagedIndexingRun.Reader reader, StagedIndexingRun.Splitter splitter,
+                                     EmbeddingModel model, EmbeddingBatchSizer batchSizer) {
+        return new StagedIndexingRun(pools, reader, splitter, model, "model", batchSizer,
+                file -> written.put(file.path(), file.embeddings()),
+                new StagedIndexingRun.Listener() {
+                    @Override
+                    public void onIndexed(String filePath) {
+                        indexed.add(filePath);
+                    }
+
+                    @Override
+                    public void onFailed(String filePath, Exception exception) {
+                        failed.add(filePath);
+                    }
+                });
+    }
+
+    private StagedIndexingRun.ParsedFile read(String path) {
+        return new StagedIndexingRun.ParsedFile(path, "hash", Document.from(path));
+    }
+
+    private List<TextSegment> splitInTwo(StagedIndexingRun.ParsedFile file) {
+        return List.of(TextSegment.from(file.path() + "#0"), TextSegment.from(file.path() + "#10"));
+    }
+
+    private class LengthModel implements EmbeddingModel {
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            embeddingCallSizes.add(segments.size());
+            return Response.from(segments.stream()
+                    .map(segment -> Embedding.from(new float[]{segment.text().length()}))
+                    .toList());
+        }
+    }
+}
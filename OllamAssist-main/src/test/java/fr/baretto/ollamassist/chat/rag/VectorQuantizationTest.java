@@ -0,0 +1,216 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall-vs-size harness for {@link VectorQuantization}.
+ * Indexes a clustered fixture corpus (shaped like bge-small embeddings: 384 dims, cosine) with each mode,
+ * compares the top-k against an exact brute-force search and measures the on-disk size of the vector files.
+ */
+class VectorQuantizationTest {
+
+    private static final int DIMENSIONS = 384;
+    private static final int DOCUMENTS = 3000;
+    private static final int CLUSTERS = 30;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+    private static final String VECTOR = "vector";
+    private static final String ID = "id";
+
+    private static float[][] corpus;
+    private static float[][] queries;
+    private static List<Set<Integer>> exactNeighbours;
+    private static final Map<VectorQuantization, Result> RESULTS = new EnumMap<>(VectorQuantization.class);
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    static void createFixtureCorpus() {
+        Random random = new Random(7);
+        float[][] centroids = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centroids[c] = gaussian(random, 1f);
+        }
+        corpus = new float[DOCUMENTS][];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            corpus[i] = around(centroids[i % CLUSTERS], random, 0.35f);
+        }
+        queries = new float[QUERIES][];
+        exactNeighbours = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = around(centroids[random.nextInt(CLUSTERS)], random, 0.35f);
+            exactNeighbours.add(bruteForceTopK(queries[q]));
+        }
+    }
+
+    @Test
+    void float32_index_should_have_high_recall_on_the_fixture_corpus() throws IOException {
+        Result result = index(VectorQuantization.NONE);
+
+        assertTrue(result.recall >= 0.85, "Unexpected recall for NONE: " + result);
+        assertEquals(0, result.quantizedBytes, "NONE should not write quantized vectors: " + result);
+        assertTrue(result.rawVectorBytes >= (long) DOCUMENTS * DIMENSIONS * Float.BYTES,
+                "Every float32 vector should be on disk: " + result);
+    }
+
+    @Test
+    void int8_should_keep_recall_and_shrink_searched_vectors() throws IOException {
+        Result reference = index(VectorQuantization.NONE);
+        Result int8 = index(VectorQuantization.INT8);
+
+        assertTrue(int8.recall >= reference.recall - 0.05, "INT8 recall too low: " + int8 + " vs " + reference);
+        assertTrue(int8.quantizedBytes * 3 < reference.rawVectorBytes, "INT8 should be ~4x smaller: " + int8 + " vs " + reference);
+        assertTrue(int8.quantizedBytes >= (long) DOCUMENTS * DIMENSIONS, "INT8 should keep a byte per dimension: " + int8);
+        // the float32 vectors stay on disk to rescore and requantize: only the searched footprint shrinks
+        assertTrue(int8.rawVectorBytes >= (long) DOCUMENTS * DIMENSIONS * Float.BYTES, "INT8 should keep the float32 vectors: " + int8);
+        assertTrue(int8.totalBytes > reference.totalBytes, "INT8 index should be larger on disk: " + int8 + " vs " + reference);
+    }
+
+    @Test
+    void int4_should_halve_int8_footprint() throws IOException {
+        Result reference = index(VectorQuantization.NONE);
+        Result int8 = index(VectorQuantization.INT8);
+        Result int4 = index(VectorQuantization.INT4);
+
+        // int4 is lossy by design: it trades recall for an 8x smaller searched footprint
+        assertTrue(int4.recall >= reference.recall - 0.30, "INT4 recall too low: " + int4 + " vs " + reference);
+        assertTrue(int4.quantizedBytes * 10 < int8.quantizedBytes * 6, "INT4 should be ~2x smaller than INT8: " + int4 + " vs " + int8);
+        assertTrue(int4.quantizedBytes >= (long) DOCUMENTS * DIMENSIONS / 2, "INT4 should keep half a byte per dimension: " + int4);
+    }
+
+    @Test
+    void indexes_written_with_a_quantized_codec_should_be_readable_with_the_default_codec() throws IOException {
+        Path path = tempDir.resolve("reopen");
+        writeIndex(path, VectorQuantization.INT8);
+
+        try (Directory directory = new NIOFSDirectory(path); DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(DOCUMENTS, reader.numDocs());
+        }
+    }
+
+    private Result index(VectorQuantization quantization) throws IOException {
+        Result cached = RESULTS.get(quantization);
+        if (cached != null) {
+            return cached;
+        }
+        Path path = tempDir.resolve(quantization.name());
+        writeIndex(path, quantization);
+
+        try (Directory directory = new NIOFSDirectory(path); DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            double hits = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                TopDocs topDocs = searcher.search(KnnFloatVectorField.newVectorQuery(VECTOR, queries[q], K), K);
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    int id = searcher.storedFields().document(scoreDoc.doc).getField(ID).numericValue().intValue();
+                    if (exactNeighbours.get(q).contains(id)) {
+                        hits++;
+                    }
+                }
+            }
+            Result result = new Result(quantization, hits / (QUERIES * K),
+                    sizeOf(directory, ".vec"), sizeOf(directory, ".veq"), sizeOf(directory, ""));
+            RESULTS.put(quantization, result);
+            return result;
+        }
+    }
+
+    private static void writeIndex(Path path, VectorQuantization quantization) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setUseCompoundFile(false);
+        config.setCodec(new KnowledgeIndexCodec(
+                quantization.format(Lucene99HnswVectorsFormat.DEFAULT_MAX_CONN, Lucene99HnswVectorsFormat.DEFAULT_BEAM_WIDTH)));
+        try (Directory directory = new NIOFSDirectory(path); IndexWriter writer = new IndexWriter(directory, config)) {
+            FieldType vectorType = KnnFloatVectorField.createFieldType(DIMENSIONS, VectorSimilarityFunction.COSINE);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField(ID, i));
+                doc.add(new KnnFloatVectorField(VECTOR, corpus[i], vectorType));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+    }
+
+    private static long sizeOf(Directory directory, String extension) throws IOException {
+        long size = 0;
+        for (String file : directory.listAll()) {
+            if (file.endsWith(extension)) {
+                size += directory.fileLength(file);
+            }
+        }
+        return size;
+    }
+
+    private static Set<Integer> bruteForceTopK(float[] query) {
+        PriorityQueue<int[]> best = new PriorityQueue<>(Comparator.comparingDouble(entry -> cosine(query, corpus[entry[0]])));
+        for (int i = 0; i < DOCUMENTS; i++) {
+            best.add(new int[]{i});
+            if (best.size() > K) {
+                best.poll();
+            }
+        }
+        Set<Integer> ids = new HashSet<>();
+        best.forEach(entry -> ids.add(entry[0]));
+        return ids;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static float[] gaussian(Random random, float scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static float[] around(float[] centroid, Random random, float spread) {
+        float[] noise = gaussian(random, spread);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            noise[d] += centroid[d];
+        }
+        return noise;
+    }
+
+    private record Result(VectorQuantization quantization, double recall, long rawVectorBytes, long quantizedBytes,
+                          long totalBytes) {
+        @Override
+        public String toString() {
+            return String.format("%s: recall@%d=%.3f, float32 vectors=%d KB, quantized vectors=%d KB, index=%d KB",
+                    quantization, K, recall, rawVectorBytes / 1024, quantizedBytes / 1024, totalBytes / 1024);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package fr.baretto.ollamassist.chat.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WordPieceTokenizerTest {
+
+    private static final String TOKENIZER_JSON = """
+            {
+              "normalizer": {"type": "BertNormalizer", "lowercase": true},
+              "model": {
+                "type": "WordPiece",
+                "unk_token": "[UNK]",
+                "max_input_chars_per_word": 100,
+                "vocab": {"[PAD]": 0, "[UNK]": 1, "[CLS]": 2, "[SEP]": 3, "the": 4, "index": 5, "##er": 6,
+                          "(": 7, ")": 8, "cafe": 9, ".": 10, "run": 11}
+              }
+            }
+            """;
+
+    private final WordPieceTokenizer tokenizer = tokenizer();
+
+    @Test
+    void words_should_be_split_into_the_longest_vocabulary_pieces() {
+        assertArrayEquals(new long[]{2, 4, 5, 6, 7, 8, 3}, tokenizer.encode("The Indexer()", 16));
+    }
+
+    @Test
+    void accents_should_be_stripped_and_unknown_words_replaced() {
+        assertArrayEquals(new long[]{2, 9, 1, 10, 3}, tokenizer.encode("Café\tzzz.", 16));
+    }
+
+    @Test
+    void long_text_should_be_truncated_before_the_separator() {
+        assertArrayEquals(new long[]{2, 11, 11, 3}, tokenizer.encode("run run run run", 4));
+    }
+
+    @Test
+    void blank_text_should_only_hold_the_special_tokens() {
+        assertArrayEquals(new long[]{2, 3}, tokenizer.encode(" \n ", 16));
+        assertEquals(0, tokenizer.padId());
+    }
+
+    private static WordPieceTokenizer tokenizer() {
+        try {
+            return WordPieceTokenizer.fromJson(new ByteArrayInputStream(TOKENIZER_JSON.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}